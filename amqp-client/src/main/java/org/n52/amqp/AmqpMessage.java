@@ -16,6 +16,8 @@
 
 package org.n52.amqp;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
@@ -26,7 +28,8 @@ import java.util.Optional;
  */
 public class AmqpMessage {
 
-    private final String body;
+    private final byte[] binaryBody;
+    private String body;
     private final Optional<ContentType> contentType;
     private final Optional<String> subject;
     private final Map<String, String> deliveryAnnotations;
@@ -57,7 +60,13 @@ public class AmqpMessage {
     public AmqpMessage(Object body, ContentType contentType, String subject,
             Map<String, String> deliveryAnnotations, Map<String, String> messageAnnotations,
             String to) {
-        this.body = (body instanceof String) ? (String) body : convertToString(body);
+        if (body instanceof byte[]) {
+            this.binaryBody = (byte[]) body;
+        }
+        else {
+            this.binaryBody = null;
+            this.body = (body instanceof String) ? (String) body : body.toString();
+        }
         this.contentType = Optional.ofNullable(contentType);
         this.subject = Optional.ofNullable(subject);
         this.deliveryAnnotations = deliveryAnnotations != null ? deliveryAnnotations : Collections.emptyMap();
@@ -65,10 +74,39 @@ public class AmqpMessage {
         this.to = Optional.ofNullable(to);
     }
 
+    /**
+     * @return the body as text. Binary bodies are decoded with the charset
+     * of the content type, UTF-8 if it has none
+     */
     public String getBody() {
+        if (this.body == null) {
+            this.body = new String(this.binaryBody, getCharset());
+        }
         return body;
     }
 
+    /**
+     * @return true if the body was received as binary data section
+     */
+    public boolean isBinary() {
+        return this.binaryBody != null;
+    }
+
+    /**
+     * @return the body as bytes. Text bodies are encoded with the charset
+     * of the content type, UTF-8 if it has none
+     */
+    public byte[] getBodyBytes() {
+        if (this.binaryBody != null) {
+            return this.binaryBody;
+        }
+        return this.body.getBytes(getCharset());
+    }
+
+    private Charset getCharset() {
+        return this.contentType.flatMap(ContentType::getCharset).orElse(StandardCharsets.UTF_8);
+    }
+
     public Optional<ContentType> getContentType() {
         return contentType;
     }
@@ -92,7 +130,7 @@ public class AmqpMessage {
     @Override
     public String toString() {
         return "AmqpMessage{" +
-                "body=" + body +
+                "body=" + (isBinary() ? binaryBody.length + " bytes" : body) +
                 ", contentType=" + contentType +
                 ", subject=" + subject +
                 ", deliveryAnnotations=" + deliveryAnnotations +
@@ -100,14 +138,4 @@ public class AmqpMessage {
                 ", to=" + to + '}';
     }
 
-    private String convertToString(Object body) {
-        if (body instanceof byte[]) {
-            return new String((byte[]) body);
-        }
-
-        return body.toString();
-    }
-
-
-
 }
@@ -17,10 +17,14 @@ package org.n52.amqp;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.AmqpSequence;
 import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.Data;
 import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.message.Message;
 import org.apache.qpid.proton.messenger.Messenger;
@@ -76,6 +80,20 @@ public class Connection {
         }
     }
 
+    /**
+     * @param outgoingWindow the maximum number of messages awaiting their
+     * settlement by the broker
+     * @return the publisher
+     * @throws PublisherCreationFailedException if the publisher could not be created
+     */
+    public Publisher createPublisher(int outgoingWindow) throws PublisherCreationFailedException {
+        try {
+            return new Publisher(this, outgoingWindow);
+        } catch (Exception ex) {
+            throw new PublisherCreationFailedException("Could not create publisher", ex);
+        }
+    }
+
     public Observable<AmqpMessage> createObservable() {
         return Observable.create(t -> {
             LOG.debug("Creating observable for {}", this.remoteURI);
@@ -99,7 +117,15 @@ public class Connection {
                         Message msg = messenger.get();
                         Section body = msg.getBody();
                         if (body instanceof AmqpValue) {
-                            t.onNext(createMessage(msg));
+                            t.onNext(createMessage(msg, ((AmqpValue) body).getValue()));
+                        }
+                        else if (body instanceof Data) {
+                            t.onNext(createMessage(msg, ((Data) body).getValue()));
+                        }
+                        else if (body instanceof AmqpSequence) {
+                            for (Object element : ((AmqpSequence) body).getValue()) {
+                                t.onNext(createMessage(msg, element));
+                            }
                         }
                         else {
                             LOG.warn("Unsupported type of body: " + (body == null ? "n/a" : body.getClass()));
@@ -122,7 +148,7 @@ public class Connection {
         });
     }
 
-    private AmqpMessage createMessage(Message msg) {
+    private AmqpMessage createMessage(Message msg, Object body) {
         Map<String, String> deliveryAnnotations = new HashMap<>();
         if (msg.getDeliveryAnnotations() != null && msg.getDeliveryAnnotations().getValue() != null) {
             msg.getDeliveryAnnotations().getValue().forEach((Symbol k, Object v) -> {
@@ -156,16 +182,24 @@ public class Connection {
             to = msg.getProperties().getTo();
         }
 
-        return new AmqpMessage(((AmqpValue) msg.getBody()).getValue(),
-            createContentType(ct),
+        return new AmqpMessage(body instanceof Binary ? toBytes((Binary) body) : body,
+            createContentType(ct, msg.getContentEncoding()),
             msg.getSubject(), deliveryAnnotations, messageAnnotations, to);
     }
 
-    private ContentType createContentType(String contentType) {
+    private byte[] toBytes(Binary binary) {
+        if (binary.getArrayOffset() == 0 && binary.getLength() == binary.getArray().length) {
+            return binary.getArray();
+        }
+        return Arrays.copyOfRange(binary.getArray(), binary.getArrayOffset(),
+                binary.getArrayOffset() + binary.getLength());
+    }
+
+    private ContentType createContentType(String contentType, String encoding) {
         if (contentType == null) {
             return null;
         }
 
-        return new ContentType(contentType);
+        return new ContentType(contentType, encoding);
     }
 }
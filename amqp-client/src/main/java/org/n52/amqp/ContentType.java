@@ -16,6 +16,10 @@
 
 package org.n52.amqp;
 
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
 import java.util.Optional;
 
 /**
@@ -29,6 +33,8 @@ public class ContentType {
     public static ContentType APPLICATION_SOAP_XML = new ContentType("application/soap+xml");
     public static ContentType TEXT_PLAIN = new ContentType("text/plain");
 
+    private static final String CHARSET_PARAMETER = "charset=";
+
     private final String name;
     private final String encoding;
 
@@ -49,6 +55,38 @@ public class ContentType {
         return Optional.ofNullable(encoding);
     }
 
+    /**
+     * @return the charset given by the charset parameter of the content
+     * type, e.g. "application/xml; charset=UTF-8"
+     */
+    public Optional<Charset> getCharset() {
+        int index = name == null ? -1 : name.toLowerCase(Locale.ROOT).indexOf(CHARSET_PARAMETER);
+        if (index < 0) {
+            return Optional.empty();
+        }
+
+        String value = name.substring(index + CHARSET_PARAMETER.length());
+        int end = value.indexOf(';');
+        value = (end < 0 ? value : value.substring(0, end)).trim().replace("\"", "");
+        try {
+            return Optional.of(Charset.forName(value));
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param charset the charset of the content
+     * @return this content type with the charset parameter set, unless it
+     * already has one
+     */
+    public ContentType withCharset(Charset charset) {
+        if (name == null || getCharset().isPresent()) {
+            return this;
+        }
+        return new ContentType(String.format("%s; %s%s", name, CHARSET_PARAMETER, charset.name()), encoding);
+    }
+
     @Override
     public String toString() {
         return String.format("ContentType {%s, %s}", name, getEncoding());
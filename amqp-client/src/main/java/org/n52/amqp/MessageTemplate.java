@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 52°North.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.amqp;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.DeliveryAnnotations;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.Message;
+
+/**
+ * The parts of a message that are the same for all messages sent to an
+ * address: the properties, content type and annotations. They are
+ * resolved once, so publishing a message via a template only takes the
+ * body. The sections are shared by all messages of the template and must
+ * not be modified.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class MessageTemplate {
+
+    private final String address;
+    private final ContentType contentType;
+    private final Properties properties;
+    private final DeliveryAnnotations deliveryAnnotations;
+    private final MessageAnnotations messageAnnotations;
+
+    /*
+     * reused for every message, guarded by this template. The messenger
+     * encodes a message while it is put, so it can be refilled afterwards
+     */
+    private Message message;
+
+    /**
+     * @param address the target address
+     * @param ct the content type, might be null
+     */
+    public MessageTemplate(String address, ContentType ct) {
+        this(address, null, ct, Collections.emptyMap(), Collections.emptyMap(), null);
+    }
+
+    /**
+     * @param address the target address
+     * @param subject the subject, might be null
+     * @param ct the content type, might be null
+     * @param deliveryAnnotations the delivery annotations
+     * @param messageAnnotations the message annotations
+     * @param toDestination the to property, might be null
+     */
+    public MessageTemplate(String address, String subject, ContentType ct,
+            Map<String, String> deliveryAnnotations,
+            Map<String, String> messageAnnotations, String toDestination) {
+        this.address = address;
+        this.contentType = ct;
+
+        this.properties = new Properties();
+        this.properties.setAddress(address);
+        if (subject != null) {
+            this.properties.setSubject(subject);
+        }
+        if (toDestination != null) {
+            this.properties.setTo(toDestination);
+        }
+        if (ct != null) {
+            this.properties.setContentType(Symbol.valueOf(ct.getName()));
+            if (ct.getEncoding().isPresent()) {
+                this.properties.setContentEncoding(Symbol.valueOf(ct.getEncoding().get()));
+            }
+        }
+
+        this.deliveryAnnotations = new DeliveryAnnotations(toSymbolMap(deliveryAnnotations));
+        this.messageAnnotations = new MessageAnnotations(toSymbolMap(messageAnnotations));
+    }
+
+    private static Map<Symbol, Object> toSymbolMap(Map<String, String> annotations) {
+        if (annotations.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<Symbol, Object> result = new HashMap<>(annotations.size() * 2);
+        annotations.forEach((String k, String v) -> {
+            result.put(Symbol.valueOf(k), v);
+        });
+        return Collections.unmodifiableMap(result);
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public ContentType getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @param body the body of the message
+     * @return the message of this template carrying the body. It is only
+     * valid until the next call, callers have to hold the lock of the
+     * template until they are done with it
+     */
+    Message toMessage(Section body) {
+        if (this.message == null) {
+            this.message = Message.Factory.create();
+            this.message.setProperties(this.properties);
+            this.message.setDeliveryAnnotations(this.deliveryAnnotations);
+            this.message.setMessageAnnotations(this.messageAnnotations);
+        }
+        this.message.setBody(body);
+        return this.message;
+    }
+
+    /**
+     * drops the body of the last message, so it is not kept in memory
+     * until the next one
+     */
+    void release() {
+        if (this.message != null) {
+            this.message.setBody(null);
+        }
+    }
+
+}
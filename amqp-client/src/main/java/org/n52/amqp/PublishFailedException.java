@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 52°North.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.amqp;
+
+import java.util.Optional;
+import org.apache.qpid.proton.messenger.Status;
+
+/**
+ * A message that could not be published, or was not accepted by the
+ * broker.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PublishFailedException extends Exception {
+
+    private final Status status;
+
+    public PublishFailedException(String message) {
+        this(message, (Throwable) null);
+    }
+
+    public PublishFailedException(String message, Throwable cause) {
+        super(message, cause);
+        this.status = null;
+    }
+
+    public PublishFailedException(Status status) {
+        super("Message not accepted by the broker: " + status);
+        this.status = status;
+    }
+
+    /**
+     * @return the outcome of the transfer, if the broker settled it
+     */
+    public Optional<Status> getStatus() {
+        return Optional.ofNullable(status);
+    }
+
+}
@@ -16,33 +16,100 @@
 package org.n52.amqp;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import org.apache.qpid.proton.amqp.Symbol;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.qpid.proton.ProtonException;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.AmqpSequence;
 import org.apache.qpid.proton.amqp.messaging.AmqpValue;
-import org.apache.qpid.proton.amqp.messaging.DeliveryAnnotations;
-import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
-import org.apache.qpid.proton.amqp.messaging.Properties;
-import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.messenger.Messenger;
+import org.apache.qpid.proton.messenger.Status;
+import org.apache.qpid.proton.messenger.Tracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Publishes messages via a proton {@link Messenger}. The messenger is
+ * owned by a single I/O thread: callers only hand over their messages,
+ * which are pipelined to the broker as the link credit allows. Up to
+ * the outgoing window messages may await their settlement, further
+ * callers wait for a free slot.
  *
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
 public class Publisher {
 
     private static final Logger LOG = LoggerFactory.getLogger(Publisher.class);
+
+    public static final int DEFAULT_OUTGOING_WINDOW = 256;
+    public static final long DEFAULT_SETTLEMENT_TIMEOUT = 30000;
+
+    /*
+     * the time in milliseconds the I/O thread blocks on the messenger
+     * before checking for new messages
+     */
+    private static final long PUMP_INTERVAL = 20;
+
     public final Connection connection;
     private final String id = UUID.randomUUID().toString();
-    private Messenger messenger;
+    private final int outgoingWindow;
+    private final Semaphore window;
+    private final BlockingQueue<Transfer> outgoing = new LinkedBlockingQueue<>();
+    private long settlementTimeout = DEFAULT_SETTLEMENT_TIMEOUT;
+    private Thread pump;
+    private volatile boolean destroyed;
+    private volatile boolean failed;
 
     protected Publisher(Connection c) {
+        this(c, DEFAULT_OUTGOING_WINDOW);
+    }
+
+    /**
+     * @param c the connection
+     * @param outgoingWindow the maximum number of messages awaiting their
+     * settlement
+     */
+    protected Publisher(Connection c, int outgoingWindow) {
+        if (outgoingWindow < 1) {
+            throw new IllegalArgumentException("Invalid outgoing window: " + outgoingWindow);
+        }
         this.connection = c;
+        this.outgoingWindow = outgoingWindow;
+        this.window = new Semaphore(outgoingWindow);
+    }
+
+    public int getOutgoingWindow() {
+        return outgoingWindow;
+    }
+
+    /**
+     * @return false if the publisher has been destroyed, its connection
+     * closed or its messenger failed. The messenger is restarted with the
+     * next publication, but the broker might not be reachable anymore
+     */
+    public boolean isHealthy() {
+        return !this.destroyed && !this.failed && this.connection.isOpen();
+    }
+
+    /**
+     * @param settlementTimeout the time in milliseconds after which a
+     * message not settled by the broker is considered failed
+     */
+    public void setSettlementTimeout(long settlementTimeout) {
+        this.settlementTimeout = settlementTimeout;
     }
 
     public void publish(CharSequence msg) {
@@ -75,72 +142,366 @@ public class Publisher {
     public void publish(CharSequence msg, String subject, ContentType ct,
             Map<String, String> deliveryAnnotations,
             Map<String, String> messageAnnotations, String toDestination) {
-        LOG.debug("publishing message to target '{}'", connection.getRemoteURI());
-        if (this.connection.isOpen()) {
-            try {
-                synchronized (this) {
-                    if (this.messenger == null || this.messenger.stopped()) {
-                        this.messenger = Messenger.Factory.create(id);
-                        messenger.start();
-                    }
-                }
+        publishTo(this.connection.getRemoteURI().toString(), msg, subject, ct, deliveryAnnotations,
+                messageAnnotations, toDestination);
+    }
 
-                Message message = Message.Factory.create();
+    /**
+     * publishes the message to an address other than the one of the
+     * connection. The messenger reuses its connection to the broker and
+     * only opens a new link for the address, so a single publisher can
+     * serve all queues and topics of a broker.
+     *
+     * @param address the target address, e.g. amqp://host/queue
+     * @param msg the message body
+     * @param ct the content type, might be null
+     */
+    public void publishTo(String address, CharSequence msg, ContentType ct) {
+        publishTo(address, msg, null, ct, Collections.emptyMap(), Collections.emptyMap(), null);
+    }
 
-                Properties props = new Properties();
-                if (subject != null) {
-                    props.setSubject(subject);
-                }
+    /**
+     * publishes the message and waits for its settlement. Failures are
+     * logged
+     */
+    public void publishTo(String address, CharSequence msg, String subject, ContentType ct,
+            Map<String, String> deliveryAnnotations,
+            Map<String, String> messageAnnotations, String toDestination) {
+        if (!this.connection.isOpen()) {
+            LOG.warn("Cannot send message. Connection already closed");
+            return;
+        }
 
-                if (toDestination != null) {
-                    props.setTo(toDestination);
-                }
+        try {
+            publishAsync(address, msg, subject, ct, deliveryAnnotations, messageAnnotations, toDestination).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while sending message");
+        } catch (ExecutionException ex) {
+            LOG.warn("Could not send message", ex.getCause());
+        }
+    }
+
+    public CompletableFuture<Void> publishAsync(String address, CharSequence msg, ContentType ct) {
+        return publishAsync(address, msg, null, ct, Collections.emptyMap(), Collections.emptyMap(), null);
+    }
+
+    /**
+     * hands the message over to the I/O thread without waiting for the
+     * broker. Blocks only while the outgoing window is full.
+     *
+     * @return completed once the broker accepted the message, or
+     * exceptionally with a {@link PublishFailedException}
+     */
+    public CompletableFuture<Void> publishAsync(String address, CharSequence msg, String subject,
+            ContentType ct, Map<String, String> deliveryAnnotations,
+            Map<String, String> messageAnnotations, String toDestination) {
+        return publishAsync(new MessageTemplate(address, subject, ct, deliveryAnnotations, messageAnnotations,
+                toDestination), new AmqpValue(msg));
+    }
+
+    /**
+     * publishes the bytes as {@link Data} section, without decoding them
+     * to a string. The content type should carry the charset of textual
+     * content.
+     *
+     * @param address the target address
+     * @param body the content, read from its position to its limit
+     * @param ct the content type, might be null
+     * @return completed once the broker accepted the message
+     */
+    public CompletableFuture<Void> publishAsync(String address, ByteBuffer body, ContentType ct) {
+        return publishAsync(new MessageTemplate(address, ct), body);
+    }
+
+    /**
+     * publishes the bytes as {@link Data} section with the address,
+     * content type and annotations of the template. Senders publishing
+     * many messages to the same address should keep their template, so
+     * only the body has to be built per message.
+     *
+     * @param template the template of the message
+     * @param body the content, read from its position to its limit
+     * @return completed once the broker accepted the message
+     */
+    public CompletableFuture<Void> publishAsync(MessageTemplate template, ByteBuffer body) {
+        return publishAsync(template, new Data(toBinary(body)));
+    }
+
+    /**
+     * publishes several binary messages as a single AMQP message with an
+     * {@link AmqpSequence} body of binary elements
+     *
+     * @param address the target address
+     * @param bodies the contents
+     * @param ct the content type of every message, might be null
+     * @return completed once the broker accepted the message
+     */
+    public CompletableFuture<Void> publishBinarySequenceAsync(String address, List<ByteBuffer> bodies,
+            ContentType ct) {
+        return publishBinarySequenceAsync(new MessageTemplate(address, ct), bodies);
+    }
+
+    /**
+     * publishes several binary messages as a single AMQP message with an
+     * {@link AmqpSequence} body, using the given template
+     *
+     * @param template the template of the message
+     * @param bodies the contents
+     * @return completed once the broker accepted the message
+     */
+    public CompletableFuture<Void> publishBinarySequenceAsync(MessageTemplate template, List<ByteBuffer> bodies) {
+        List<Binary> elements = new ArrayList<>(bodies.size());
+        bodies.forEach(b -> elements.add(toBinary(b)));
+        return publishAsync(template, new AmqpSequence(elements));
+    }
 
-                message.setProperties(props);
-                message.setAddress(this.connection.getRemoteURI().toString());
+    private static Binary toBinary(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new Binary(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return new Binary(copy);
+    }
 
-                if (ct != null) {
-                    message.setContentType(ct.getName());
-                    if (ct.getEncoding().isPresent()) {
-                        message.setContentEncoding(ct.getEncoding().get());
+    /**
+     * publishes several messages as a single AMQP message with an
+     * {@link AmqpSequence} body, saving the framing and settlement of each
+     * single transfer. Receivers created via
+     * {@link Connection#createObservable()} emit the elements one by one.
+     *
+     * @param address the target address
+     * @param msgs the messages
+     * @param ct the content type of every message, might be null
+     * @return completed once the broker accepted the message
+     */
+    public CompletableFuture<Void> publishSequenceAsync(String address, List<? extends CharSequence> msgs,
+            ContentType ct) {
+        List<String> elements = new ArrayList<>(msgs.size());
+        msgs.forEach(m -> elements.add(m.toString()));
+        return publishAsync(new MessageTemplate(address, ct), new AmqpSequence(elements));
+    }
+
+    private CompletableFuture<Void> publishAsync(MessageTemplate template, Section body) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (this.destroyed || !this.connection.isOpen()) {
+            result.completeExceptionally(new PublishFailedException("Connection already closed"));
+            return result;
+        }
+
+        try {
+            this.window.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(new PublishFailedException("Interrupted while waiting for the window", ex));
+            return result;
+        }
+
+        this.outgoing.add(new Transfer(template, body, result));
+        synchronized (this) {
+            if (this.destroyed) {
+                failQueued(new PublishFailedException("Publisher destroyed"));
+            }
+            else if (this.pump == null) {
+                this.pump = new Thread(this::pump, "amqp-publisher-" + this.id);
+                this.pump.setDaemon(true);
+                this.pump.start();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * the loop of the I/O thread: puts the handed over messages, lets the
+     * messenger transfer them and completes the settled ones. If an
+     * iteration fails unexpectedly, the messages in flight are failed and
+     * the messenger is restarted. If the thread ends for any other reason
+     * than {@link #destroy()}, the next publication starts a new one.
+     */
+    private void pump() {
+        List<Transfer> inFlight = new ArrayList<>();
+        Messenger messenger = null;
+
+        try {
+            while (!this.destroyed) {
+                Transfer next = inFlight.isEmpty()
+                        ? this.outgoing.poll(PUMP_INTERVAL, TimeUnit.MILLISECONDS)
+                        : this.outgoing.poll();
+
+                try {
+                    while (next != null) {
+                        if (messenger == null || messenger.stopped()) {
+                            messenger = startMessenger(next, inFlight);
+                        }
+                        if (messenger != null) {
+                            put(messenger, next, inFlight);
+                        }
+                        next = this.outgoing.poll();
+                    }
+
+                    if (messenger != null && !inFlight.isEmpty()) {
+                        try {
+                            messenger.work(PUMP_INTERVAL);
+                        } catch (ProtonException ex) {
+                            LOG.debug("No progress on messenger: {}", ex.getMessage());
+                        }
+                        settle(messenger, inFlight);
+                    }
+                } catch (RuntimeException ex) {
+                    LOG.warn("Publisher {} failed, restarting the messenger", this.id, ex);
+                    this.failed = true;
+                    PublishFailedException cause = new PublishFailedException("Messenger failed", ex);
+                    if (next != null) {
+                        complete(next, cause);
                     }
+                    inFlight.forEach(t -> complete(t, cause));
+                    inFlight.clear();
+                    stop(messenger);
+                    messenger = null;
                 }
+            }
+        } catch (InterruptedException ex) {
+            LOG.debug("Publisher {} interrupted", this.id);
+        } finally {
+            PublishFailedException cause = new PublishFailedException(this.destroyed
+                    ? "Publisher destroyed" : "Publisher stopped unexpectedly");
+            inFlight.forEach(t -> complete(t, cause));
+            stop(messenger);
+            synchronized (this) {
+                failQueued(cause);
+                this.pump = null;
+            }
+        }
+    }
+
+    private void stop(Messenger messenger) {
+        try {
+            if (messenger != null && !messenger.stopped()) {
+                messenger.stop();
+            }
+        } catch (RuntimeException ex) {
+            LOG.debug("Could not stop messenger: {}", ex.getMessage());
+        }
+    }
+
+    private Messenger startMessenger(Transfer next, List<Transfer> inFlight) {
+        if (!inFlight.isEmpty()) {
+            this.failed = true;
+            PublishFailedException cause = new PublishFailedException("Messenger stopped before settlement");
+            inFlight.forEach(t -> complete(t, cause));
+            inFlight.clear();
+        }
+
+        Messenger messenger = Messenger.Factory.create(this.id);
+        messenger.setOutgoingWindow(this.outgoingWindow);
+        try {
+            messenger.start();
+            return messenger;
+        } catch (IOException ex) {
+            this.failed = true;
+            complete(next, new PublishFailedException("Could not start messenger", ex));
+            return null;
+        }
+    }
 
-                Map<Symbol, Object> messageAnnoMap = new HashMap<>();
-                messageAnnotations.forEach((String k, String v) -> {
-                    messageAnnoMap.put(Symbol.valueOf(k), v);
-                });
-                message.setMessageAnnotations(new MessageAnnotations(messageAnnoMap));
-
-                Map<Symbol, Object> deliveryAnnoMap = new HashMap<>();
-                deliveryAnnotations.forEach((String k, String v) -> {
-                    deliveryAnnoMap.put(Symbol.valueOf(k), v);
-                });
-                message.setDeliveryAnnotations(new DeliveryAnnotations(deliveryAnnoMap));
-
-                message.setBody(new AmqpValue(msg));
-
-                synchronized (this) {
-                    LOG.debug("putting message...");
-                    messenger.put(message);
-                    LOG.debug("sending message...");
-                    messenger.send();
-//                    LOG.debug("stopping messenger...");
-//                    messenger.stop();
+    private void put(Messenger messenger, Transfer transfer, List<Transfer> inFlight) {
+        try {
+            /*
+             * the messenger encodes the message while putting it, the
+             * message of the template is free again afterwards
+             */
+            synchronized (transfer.template) {
+                try {
+                    messenger.put(transfer.template.toMessage(transfer.body));
+                } finally {
+                    transfer.template.release();
                 }
-            } catch (IOException ex) {
-                LOG.warn("Could not send message", ex);
             }
+            transfer.tracker = messenger.outgoingTracker();
+            transfer.sent = System.currentTimeMillis();
+            inFlight.add(transfer);
+        } catch (RuntimeException ex) {
+            complete(transfer, new PublishFailedException("Could not send message", ex));
         }
-        else {
-            LOG.warn("Cannot send message. Connection already closed");
+    }
+
+    private void settle(Messenger messenger, List<Transfer> inFlight) {
+        long now = System.currentTimeMillis();
+        Iterator<Transfer> it = inFlight.iterator();
+        while (it.hasNext()) {
+            Transfer transfer = it.next();
+            Status status = messenger.getStatus(transfer.tracker);
+            switch (status) {
+                case ACCEPTED:
+                case SETTLED:
+                    complete(transfer, null);
+                    break;
+                case REJECTED:
+                case RELEASED:
+                case MODIFIED:
+                case ABORTED:
+                    complete(transfer, new PublishFailedException(status));
+                    break;
+                default:
+                    if (now - transfer.sent < this.settlementTimeout) {
+                        continue;
+                    }
+                    complete(transfer, new PublishFailedException(String.format(
+                            "Message not settled within %s ms", this.settlementTimeout)));
+            }
+            messenger.settle(transfer.tracker, 0);
+            it.remove();
+        }
+    }
+
+    /**
+     * completes the transfer and frees its slot of the window, once
+     */
+    private void complete(Transfer transfer, PublishFailedException failure) {
+        boolean completed = failure == null
+                ? transfer.result.complete(null)
+                : transfer.result.completeExceptionally(failure);
+        if (completed) {
+            this.window.release();
         }
     }
 
+    private void failQueued(PublishFailedException cause) {
+        Transfer t;
+        while ((t = this.outgoing.poll()) != null) {
+            complete(t, cause);
+        }
+    }
+
+    /**
+     * stops the I/O thread. Messages not yet settled are failed
+     */
     public synchronized void destroy() {
-        if (this.messenger != null) {
-            this.messenger.stop();
+        this.destroyed = true;
+        if (this.pump != null) {
+            this.pump.interrupt();
         }
+        else {
+            failQueued(new PublishFailedException("Publisher destroyed"));
+        }
+    }
+
+    private static class Transfer {
+
+        private final MessageTemplate template;
+        private final Section body;
+        private final CompletableFuture<Void> result;
+        private Tracker tracker;
+        private long sent;
+
+        Transfer(MessageTemplate template, Section body, CompletableFuture<Void> result) {
+            this.template = template;
+            this.body = body;
+            this.result = result;
+        }
+
     }
 
 }
@@ -167,21 +167,21 @@ public class JmsOverAmqpConnection extends Connection {
             ct = extractContentType(msg);
         }
 
-        String text;
+        Object body;
         if (msg instanceof TextMessage) {
-            text = ((TextMessage) msg).getText();
+            body = ((TextMessage) msg).getText();
         }
         else if (msg instanceof BytesMessage) {
             byte[] buffer = new byte[(int) ((BytesMessage) msg).getBodyLength()];
             ((BytesMessage) msg).readBytes(buffer, buffer.length);
-            text = new String(buffer);
+            body = buffer;
         }
         else {
             LOG.warn("Unsupported message type: {}", msg.getClass());
             return null;
         }
 
-        return new AmqpMessage(text, ct != null ? new ContentType(ct) : null, msg.getJMSType(),
+        return new AmqpMessage(body, ct != null ? new ContentType(ct) : null, msg.getJMSType(),
                 deliveryAnnotations, messageAnnotations);
     }
 
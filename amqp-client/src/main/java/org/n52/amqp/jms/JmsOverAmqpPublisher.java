@@ -16,13 +16,19 @@
 
 package org.n52.amqp.jms;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.jms.TextMessage;
 import org.n52.amqp.ContentType;
+import org.n52.amqp.MessageTemplate;
 import org.n52.amqp.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -85,6 +91,44 @@ public class JmsOverAmqpPublisher extends Publisher {
 
     }
 
+    /**
+     * JMS producers send synchronously, the result is completed once the
+     * message has been sent
+     */
+    @Override
+    public CompletableFuture<Void> publishAsync(String address, CharSequence msg, String subject,
+            ContentType ct, Map<String, String> deliveryAnnotations,
+            Map<String, String> messageAnnotations, String toDestination) {
+        publish(msg, subject, ct, deliveryAnnotations, messageAnnotations);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAsync(MessageTemplate template, ByteBuffer body) {
+        ContentType ct = template.getContentType();
+        publish(decode(body, ct), ct);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishBinarySequenceAsync(MessageTemplate template, List<ByteBuffer> bodies) {
+        ContentType ct = template.getContentType();
+        bodies.forEach(b -> publish(decode(b, ct), ct));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CharSequence decode(ByteBuffer body, ContentType ct) {
+        Charset charset = ct != null ? ct.getCharset().orElse(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+        return charset.decode(body.duplicate());
+    }
+
+    @Override
+    public CompletableFuture<Void> publishSequenceAsync(String address, List<? extends CharSequence> msgs,
+            ContentType ct) {
+        msgs.forEach(m -> publish(m, ct));
+        return CompletableFuture.completedFuture(null);
+    }
+
     private MessageProducer createProducer(javax.jms.Connection connection) throws JMSException {
         synchronized (this) {
             if (this.session == null) {
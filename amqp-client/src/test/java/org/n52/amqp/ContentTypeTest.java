@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 52°North.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.amqp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ContentTypeTest {
+
+    @Test
+    public void testCharsetParameter() {
+        ContentType ct = new ContentType("application/xml; charset=\"ISO-8859-1\"; foo=bar");
+        Assert.assertThat(ct.getCharset(), CoreMatchers.is(Optional.of(StandardCharsets.ISO_8859_1)));
+        Assert.assertThat(ContentType.TEXT_PLAIN.getCharset().isPresent(), CoreMatchers.is(false));
+        Assert.assertThat(new ContentType("text/plain; charset=foo").getCharset().isPresent(),
+                CoreMatchers.is(false));
+    }
+
+    @Test
+    public void testWithCharset() {
+        ContentType ct = ContentType.APPLICATION_XML.withCharset(StandardCharsets.UTF_8);
+        Assert.assertThat(ct.getName(), CoreMatchers.is("application/xml; charset=UTF-8"));
+        Assert.assertThat(ct.withCharset(StandardCharsets.ISO_8859_1).getName(),
+                CoreMatchers.is("application/xml; charset=UTF-8"));
+    }
+
+    @Test
+    public void testBinaryBodyDecoding() {
+        byte[] bytes = "grüße".getBytes(StandardCharsets.ISO_8859_1);
+        AmqpMessage msg = new AmqpMessage(bytes, new ContentType("text/plain; charset=ISO-8859-1"), null);
+        Assert.assertThat(msg.isBinary(), CoreMatchers.is(true));
+        Assert.assertThat(msg.getBody(), CoreMatchers.is("grüße"));
+        Assert.assertThat(msg.getBodyBytes().length, CoreMatchers.is(5));
+    }
+
+}
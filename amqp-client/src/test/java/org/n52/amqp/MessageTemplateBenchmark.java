@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 52°North.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.amqp;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.Message;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Measures the bytes allocated per message via the ThreadMXBean. The
+ * results depend on the JVM, so the benchmark is not part of the unit
+ * tests. Run it with the benchmark profile: mvn test -Pbenchmark
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MessageTemplateBenchmark {
+
+    private static final String ADDRESS = "amqp://localhost/subverse.test";
+    private static final int ITERATIONS = 20000;
+
+    private final Section body = new Data(new Binary("<test/>".getBytes(StandardCharsets.UTF_8)));
+
+    /**
+     * compares the bytes allocated per message by a reused template with
+     * the ones of a template created for every message, as done by the
+     * address based publish methods
+     */
+    @Test
+    public void testPerMessageAllocation() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+
+        Map<String, String> annotations = annotations();
+        MessageTemplate template = new MessageTemplate(ADDRESS, null, ContentType.APPLICATION_XML,
+                annotations, annotations, null);
+
+        Supplier<Message> reused = () -> template.toMessage(this.body);
+        Supplier<Message> perMessage = () -> new MessageTemplate(ADDRESS, null, ContentType.APPLICATION_XML,
+                annotations, annotations, null).toMessage(this.body);
+
+        // warm up, so class loading and compilation do not count
+        allocatedPerMessage(bean, reused);
+        allocatedPerMessage(bean, perMessage);
+
+        long reusedBytes = allocatedPerMessage(bean, reused);
+        long perMessageBytes = allocatedPerMessage(bean, perMessage);
+
+        Assert.assertThat(String.format("%s bytes per message with a reused template, %s without",
+                reusedBytes, perMessageBytes), reusedBytes * 4 < perMessageBytes, CoreMatchers.is(true));
+    }
+
+    private long allocatedPerMessage(com.sun.management.ThreadMXBean bean, Supplier<Message> messages) {
+        long thread = Thread.currentThread().getId();
+        Message last = null;
+        long before = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ITERATIONS; i++) {
+            last = messages.get();
+        }
+        long allocated = bean.getThreadAllocatedBytes(thread) - before;
+        Assert.assertThat(last, CoreMatchers.notNullValue());
+        return allocated / ITERATIONS;
+    }
+
+    private Map<String, String> annotations() {
+        Map<String, String> result = new HashMap<>();
+        result.put("subverse.publication", "pubId");
+        result.put("subverse.subscription", "subId");
+        return result;
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 52°North.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.amqp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.Message;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MessageTemplateTest {
+
+    private static final String ADDRESS = "amqp://localhost/subverse.test";
+
+    private final Section body = new Data(new Binary("<test/>".getBytes(StandardCharsets.UTF_8)));
+
+    @Test
+    public void testMessageReuse() {
+        MessageTemplate template = new MessageTemplate(ADDRESS, null, ContentType.APPLICATION_XML,
+                annotations(), annotations(), null);
+
+        Message first = template.toMessage(this.body);
+        Assert.assertThat(first.getProperties().getAddress(), CoreMatchers.is(ADDRESS));
+        Assert.assertThat(first.getProperties().getContentType(),
+                CoreMatchers.is(Symbol.valueOf("application/xml")));
+        Assert.assertThat(first.getMessageAnnotations().getValue().get(Symbol.valueOf("subverse.publication")),
+                CoreMatchers.is("pubId"));
+        Assert.assertThat(first.getBody(), CoreMatchers.is(this.body));
+
+        template.release();
+        Assert.assertThat(first.getBody(), CoreMatchers.nullValue());
+        Assert.assertThat(template.toMessage(this.body), CoreMatchers.sameInstance(first));
+    }
+
+    private Map<String, String> annotations() {
+        Map<String, String> result = new HashMap<>();
+        result.put("subverse.publication", "pubId");
+        result.put("subverse.subscription", "subId");
+        return result;
+    }
+
+}
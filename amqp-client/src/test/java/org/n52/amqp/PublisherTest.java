@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 52°North.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.amqp;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PublisherTest {
+
+    @Test
+    public void testPublishOnClosedConnection() throws Exception {
+        Connection conn = new Connection(new URI("amqp://localhost/queue"), null, null);
+        Publisher pub = conn.createPublisher(2);
+        Assert.assertThat(pub.isHealthy(), CoreMatchers.is(true));
+        conn.close();
+        Assert.assertThat(pub.isHealthy(), CoreMatchers.is(false));
+
+        assertFailed(pub.publishAsync("amqp://localhost/queue", "<test/>", ContentType.APPLICATION_XML));
+    }
+
+    @Test
+    public void testPublishOnDestroyedPublisher() throws Exception {
+        Connection conn = new Connection(new URI("amqp://localhost/queue"), null, null);
+        Publisher pub = conn.createPublisher(2);
+        Assert.assertThat(pub.getOutgoingWindow(), CoreMatchers.is(2));
+        pub.destroy();
+        Assert.assertThat(pub.isHealthy(), CoreMatchers.is(false));
+
+        for (int i = 0; i < 5; i++) {
+            assertFailed(pub.publishAsync("amqp://localhost/queue", "<test/>", ContentType.APPLICATION_XML));
+        }
+    }
+
+    private void assertFailed(CompletableFuture<Void> result) throws InterruptedException {
+        Assert.assertThat(result.isCompletedExceptionally(), CoreMatchers.is(true));
+        try {
+            result.get();
+            Assert.fail("publishing should have failed");
+        }
+        catch (ExecutionException e) {
+            Assert.assertThat(e.getCause() instanceof PublishFailedException, CoreMatchers.is(true));
+        }
+    }
+
+}
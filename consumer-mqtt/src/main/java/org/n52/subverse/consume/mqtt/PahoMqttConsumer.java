@@ -35,6 +35,7 @@ import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.n52.subverse.engine.EngineOverloadedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,11 +46,13 @@ import org.slf4j.LoggerFactory;
 public class PahoMqttConsumer {
 
     private static final Logger LOG = LoggerFactory.getLogger(PahoMqttConsumer.class);
+    private static final long MIN_PAUSE = 10;
+    private static final long MAX_PAUSE = 1000;
     private final String host;
     private final String clientId;
     private MqttClient client;
     private final MessageCallback callback;
-    private boolean connected;
+    private volatile boolean connected;
 
     /**
      * the MQTT QoS as enum. use #ordinal() to get the int
@@ -94,7 +97,7 @@ public class PahoMqttConsumer {
             public void messageArrived(String topic, MqttMessage message) throws Exception {
                 LOG.info("New message on topic '{}': {}", topic, message);
                 try {
-                    callback.receive(message.getPayload());
+                    receiveWithBackpressure(message.getPayload());
                 }
                 catch (RuntimeException e) {
                     LOG.warn("Error in callback", e);
@@ -110,6 +113,28 @@ public class PahoMqttConsumer {
         this.connected = true;
     }
 
+    /**
+     * hands the message to the callback. If the callback cannot accept it at
+     * the moment, the callback thread is paused and the message retried.
+     * As the paho client does not read further messages while the callback
+     * thread is busy, consumption from the broker is paused as well.
+     */
+    private void receiveWithBackpressure(byte[] payload) throws InterruptedException {
+        long pause = MIN_PAUSE;
+        while (this.connected) {
+            try {
+                callback.receive(payload);
+                return;
+            } catch (EngineOverloadedException e) {
+                if (pause == MIN_PAUSE) {
+                    LOG.info("Consumer for {} paused: {}", host, e.getMessage());
+                }
+                Thread.sleep(pause);
+                pause = Math.min(pause * 2, MAX_PAUSE);
+            }
+        }
+    }
+
     /**
      * subscribe for a topic
      *
@@ -124,6 +149,7 @@ public class PahoMqttConsumer {
     public void destroy() {
         try {
             if (this.client.isConnected() && this.connected) {
+                this.connected = false;
                 this.client.disconnectForcibly(5000);
             }
         } catch (MqttException ex) {
@@ -133,7 +159,12 @@ public class PahoMqttConsumer {
 
     public static interface MessageCallback {
 
-        void receive(byte[] msg);
+        /**
+         * @param msg the received message
+         * @throws EngineOverloadedException if the message cannot be
+         * accepted at the moment. It is retried after a pause
+         */
+        void receive(byte[] msg) throws EngineOverloadedException;
 
     }
 
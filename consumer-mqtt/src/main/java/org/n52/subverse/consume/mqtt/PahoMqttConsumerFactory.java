@@ -28,6 +28,7 @@
  */
 package org.n52.subverse.consume.mqtt;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import java.util.UUID;
 import javax.inject.Inject;
 import org.eclipse.paho.client.mqttv3.MqttException;
@@ -35,6 +36,7 @@ import org.n52.iceland.lifecycle.Constructable;
 import org.n52.iceland.lifecycle.Destroyable;
 import org.n52.iceland.util.JSONUtils;
 import org.n52.iceland.util.http.MediaTypes;
+import org.n52.subverse.consume.mqtt.epos.AdsbEvent;
 import org.n52.subverse.engine.FilterEngine;
 import org.n52.subverse.publications.PublicationsProvider;
 import org.slf4j.Logger;
@@ -68,7 +70,9 @@ public class PahoMqttConsumerFactory implements Constructable, Destroyable, Publ
 
         this.consumer = new PahoMqttConsumer(host, UUID.randomUUID().toString(), (byte[] msg) -> {
             String content = new String(msg);
-            engine.filterMessage(content, IDENTIFIER, determineContentType(content));
+            JsonNode json = parseJson(content);
+            engine.filterMessage(content, IDENTIFIER, json == null ? null : MediaTypes.APPLICATION_JSON.toString(),
+                    partitionKey(json));
         });
 
         new Thread(() -> {
@@ -85,10 +89,9 @@ public class PahoMqttConsumerFactory implements Constructable, Destroyable, Publ
 
     }
 
-    private String determineContentType(String content) {
+    private JsonNode parseJson(String content) {
         try {
-            JSONUtils.loadString(content);
-            return MediaTypes.APPLICATION_JSON.toString();
+            return JSONUtils.loadString(content);
         }
         catch (RuntimeException e) {
             LOG.info("Not a JSON message");
@@ -97,6 +100,19 @@ public class PahoMqttConsumerFactory implements Constructable, Destroyable, Publ
         return null;
     }
 
+    /**
+     * @param json the parsed message, may be null
+     * @return the ICAO address of the aircraft, so that the reports of one
+     * aircraft are matched in order if the engine partitions by key. null if
+     * the message does not carry one
+     */
+    static String partitionKey(JsonNode json) {
+        if (json == null) {
+            return null;
+        }
+        return json.path(AdsbEvent.HEX).textValue();
+    }
+
     @Override
     public void destroy() {
         if (this.consumer == null) {
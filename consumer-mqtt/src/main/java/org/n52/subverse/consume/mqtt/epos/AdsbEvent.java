@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.consume.mqtt.epos;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.HashMap;
+import java.util.Map;
+import org.n52.epos.event.EposEvent;
+import org.n52.epos.event.MapEposEvent;
+import org.n52.subverse.engine.NumericEposEvent;
+
+/**
+ * An ADS-B position report as provided by dump1090. The well-known
+ * properties are held in primitive fields, other properties of the message
+ * in a map which is only created if required.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AdsbEvent implements NumericEposEvent {
+
+    public static final String HEX = "hex";
+    public static final String FLIGHT = "flight";
+    public static final String SQUAWK = "squawk";
+    public static final String LAT = "lat";
+    public static final String LON = "lon";
+    public static final String ALTITUDE = "altitude";
+    public static final String SPEED = "speed";
+    public static final String TRACK = "track";
+    public static final String VERT_RATE = "vert_rate";
+    public static final String SEEN = "seen";
+    public static final String SEEN_POS = "seen_pos";
+    public static final String TIMESTAMP = "timestamp";
+
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+    /*
+     * flags of the numeric fields that were provided as integers, so they
+     * are reported with the same type as a generic JSON mapping would
+     */
+    private static final int INT_LAT = 1;
+    private static final int INT_LON = 1 << 1;
+    private static final int INT_ALTITUDE = 1 << 2;
+    private static final int INT_SPEED = 1 << 3;
+    private static final int INT_TRACK = 1 << 4;
+    private static final int INT_VERT_RATE = 1 << 5;
+    private static final int INT_SEEN = 1 << 6;
+    private static final int INT_SEEN_POS = 1 << 7;
+
+    private String hex;
+    private String flight;
+    private String squawk;
+    private double lat = Double.NaN;
+    private double lon = Double.NaN;
+    private double altitude = Double.NaN;
+    private double speed = Double.NaN;
+    private double track = Double.NaN;
+    private double verticalRate = Double.NaN;
+    private double seen = Double.NaN;
+    private double seenPos = Double.NaN;
+    private long timestamp;
+    private boolean hasTimestamp;
+    private int integral;
+    private Map<String, Object> properties;
+    private Object originalObject;
+    private String contentType;
+
+    public String getHex() {
+        return hex;
+    }
+
+    public String getFlight() {
+        return flight;
+    }
+
+    public String getSquawk() {
+        return squawk;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    public double getAltitude() {
+        return altitude;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public double getTrack() {
+        return track;
+    }
+
+    public double getVerticalRate() {
+        return verticalRate;
+    }
+
+    public double getSeen() {
+        return seen;
+    }
+
+    public double getSeenPos() {
+        return seenPos;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    void setString(String key, String value) {
+        switch (key) {
+            case HEX:
+                this.hex = intern(value);
+                break;
+            case FLIGHT:
+                this.flight = intern(value);
+                break;
+            case SQUAWK:
+                this.squawk = intern(value);
+                break;
+            default:
+                properties().put(key, value);
+        }
+    }
+
+    /**
+     * @param key the property
+     * @param value the value
+     * @param isIntegral true if the value was provided as an integer
+     * @return false if the key is not one of the numeric properties
+     */
+    boolean setNumber(String key, double value, boolean isIntegral) {
+        switch (key) {
+            case LAT:
+                this.lat = value;
+                return flag(INT_LAT, isIntegral);
+            case LON:
+                this.lon = value;
+                return flag(INT_LON, isIntegral);
+            case ALTITUDE:
+                this.altitude = value;
+                return flag(INT_ALTITUDE, isIntegral);
+            case SPEED:
+                this.speed = value;
+                return flag(INT_SPEED, isIntegral);
+            case TRACK:
+                this.track = value;
+                return flag(INT_TRACK, isIntegral);
+            case VERT_RATE:
+                this.verticalRate = value;
+                return flag(INT_VERT_RATE, isIntegral);
+            case SEEN:
+                this.seen = value;
+                return flag(INT_SEEN, isIntegral);
+            case SEEN_POS:
+                this.seenPos = value;
+                return flag(INT_SEEN_POS, isIntegral);
+            case TIMESTAMP:
+                this.timestamp = (long) value;
+                this.hasTimestamp = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean flag(int flag, boolean isIntegral) {
+        if (isIntegral) {
+            this.integral |= flag;
+        }
+        else {
+            this.integral &= ~flag;
+        }
+        return true;
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : STRINGS.intern(value);
+    }
+
+    private Map<String, Object> properties() {
+        if (this.properties == null) {
+            this.properties = new HashMap<>(4);
+        }
+        return this.properties;
+    }
+
+    @Override
+    public double getNumericValue(CharSequence key) {
+        switch (key.toString()) {
+            case LAT:
+                return lat;
+            case LON:
+                return lon;
+            case ALTITUDE:
+                return altitude;
+            case SPEED:
+                return speed;
+            case TRACK:
+                return track;
+            case VERT_RATE:
+                return verticalRate;
+            case SEEN:
+                return seen;
+            case SEEN_POS:
+                return seenPos;
+            case TIMESTAMP:
+                return hasTimestamp ? timestamp : Double.NaN;
+            default:
+                Object value = this.properties != null ? this.properties.get(key.toString()) : null;
+                return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+        }
+    }
+
+    @Override
+    public void setValue(CharSequence key, Object value) {
+        String k = key.toString();
+        if (value instanceof Number && setNumber(k, ((Number) value).doubleValue(),
+                !(value instanceof Double || value instanceof Float))) {
+            return;
+        }
+        if (value == null || value instanceof String) {
+            setString(k, (String) value);
+            return;
+        }
+        properties().put(k, value);
+    }
+
+    @Override
+    public Object getValue(CharSequence key) {
+        String k = key.toString();
+        if (MapEposEvent.ORIGNIAL_OBJECT_KEY.equals(k)) {
+            return originalObject;
+        }
+
+        switch (k) {
+            case HEX:
+                return hex;
+            case FLIGHT:
+                return flight;
+            case SQUAWK:
+                return squawk;
+            case LAT:
+                return box(lat, INT_LAT);
+            case LON:
+                return box(lon, INT_LON);
+            case ALTITUDE:
+                return box(altitude, INT_ALTITUDE);
+            case SPEED:
+                return box(speed, INT_SPEED);
+            case TRACK:
+                return box(track, INT_TRACK);
+            case VERT_RATE:
+                return box(verticalRate, INT_VERT_RATE);
+            case SEEN:
+                return box(seen, INT_SEEN);
+            case SEEN_POS:
+                return box(seenPos, INT_SEEN_POS);
+            case TIMESTAMP:
+                if (!hasTimestamp) {
+                    return null;
+                }
+                return timestamp >= Integer.MIN_VALUE && timestamp <= Integer.MAX_VALUE
+                        ? (Object) (int) timestamp : (Object) timestamp;
+            default:
+                return this.properties != null ? this.properties.get(k) : null;
+        }
+    }
+
+    private Object box(double value, int flag) {
+        if (Double.isNaN(value)) {
+            return null;
+        }
+        if ((this.integral & flag) != 0) {
+            long l = (long) value;
+            if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+                return (int) l;
+            }
+            return l;
+        }
+        return value;
+    }
+
+    @Override
+    public Object getOriginalObject() {
+        return this.originalObject;
+    }
+
+    @Override
+    public void setOriginalObject(Object input) {
+        this.originalObject = input;
+    }
+
+    @Override
+    public long getStartTime() {
+        return this.timestamp;
+    }
+
+    @Override
+    public long getEndTime() {
+        return this.timestamp;
+    }
+
+    @Override
+    public void addCausalAncestor(EposEvent event) {
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+}
@@ -29,17 +29,17 @@
 package org.n52.subverse.consume.mqtt.epos;
 
 import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import org.n52.epos.event.EposEvent;
-import org.n52.epos.event.MapEposEvent;
 import org.n52.epos.transform.EposTransformer;
 import org.n52.epos.transform.TransformationException;
 
 /**
+ * Transforms dump1090 JSON messages into {@link AdsbEvent}s. The message is
+ * read with a streaming parser, numeric properties are not boxed.
  *
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
@@ -47,39 +47,60 @@ public class Dump1090Transformer implements EposTransformer {
 
     private final JsonFactory factory;
     private final ObjectMapper mapper;
-    private final TypeReference<HashMap<String, Object>> typeRef;
 
     public Dump1090Transformer() {
         this.factory = new JsonFactory();
         this.mapper = new ObjectMapper(factory);
-        this.typeRef = new TypeReference<HashMap<String,Object>>() {};
     }
 
 
 
     @Override
     public EposEvent transform(Object input, String contentType) throws TransformationException {
-        try {
-            Map<String,Object> o = mapper.readValue((String) input, typeRef);
-            Object tsObj = o.get("timestamp");
-            long ts = 0;
-            if (tsObj instanceof Integer) {
-                ts = (int) tsObj;
+        try (JsonParser parser = this.factory.createParser((String) input)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new TransformationException("Not a JSON object", null);
             }
-            else if (tsObj instanceof String) {
-                ts = Long.parseLong((String) tsObj);
-            }
-
-            MapEposEvent event = new MapEposEvent(ts, ts);
 
-            o.keySet().stream().forEach((k) -> {
-                event.put(k, o.get(k));
-            });
+            AdsbEvent event = new AdsbEvent();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (token) {
+                    case VALUE_NUMBER_INT:
+                        if (!event.setNumber(key, parser.getLongValue(), true)) {
+                            event.setValue(key, parser.getNumberValue());
+                        }
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        if (!event.setNumber(key, parser.getDoubleValue(), false)) {
+                            event.setValue(key, parser.getDoubleValue());
+                        }
+                        break;
+                    case VALUE_STRING:
+                        if (AdsbEvent.TIMESTAMP.equals(key)) {
+                            event.setNumber(key, Long.parseLong(parser.getText()), true);
+                        }
+                        else {
+                            event.setString(key, parser.getText());
+                        }
+                        break;
+                    case VALUE_TRUE:
+                    case VALUE_FALSE:
+                        event.setValue(key, parser.getBooleanValue());
+                        break;
+                    case VALUE_NULL:
+                        break;
+                    default:
+                        event.setValue(key, this.mapper.readValue(parser, Object.class));
+                        break;
+                }
+            }
 
             event.setOriginalObject(input);
             event.setContentType("application/json");
             return event;
-        } catch (IOException ex) {
+        } catch (IOException | NumberFormatException ex) {
             throw new TransformationException("Could not parse JSON", ex);
         }
     }
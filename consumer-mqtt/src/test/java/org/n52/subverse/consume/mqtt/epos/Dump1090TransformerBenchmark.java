@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.consume.mqtt.epos;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.n52.epos.transform.TransformationException;
+
+/**
+ * Compares the bytes allocated by the streaming transformation with the
+ * ones of parsing the message into a map. The results depend on the JVM,
+ * so the benchmark is not part of the unit tests. Run it with the
+ * benchmark profile: mvn test -Pbenchmark
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Dump1090TransformerBenchmark {
+
+    private static final String MESSAGE = "{\"hex\":\"3c6444\",\"squawk\":\"1000\",\"flight\":\"DLH9U   \","
+            + "\"lat\":51.962,\"lon\":7,\"nucp\":7,\"seen_pos\":0.3,\"altitude\":36000,\"vert_rate\":0,"
+            + "\"track\":121,\"speed\":452,\"messages\":1278,\"seen\":0.1,\"rssi\":-20.5,"
+            + "\"timestamp\":1460000000}";
+
+    @Test
+    public void testAllocatesLessThanMapParsing() throws TransformationException, IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        Dump1090Transformer transformer = new Dump1090Transformer();
+        ObjectMapper mapper = new ObjectMapper();
+        TypeReference<HashMap<String, Object>> typeRef = new TypeReference<HashMap<String, Object>>() {};
+        int iterations = 10000;
+        for (int i = 0; i < iterations; i++) {
+            transformer.transform(MESSAGE, null);
+            mapper.readValue(MESSAGE, typeRef);
+        }
+
+        long tid = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < iterations; i++) {
+            transformer.transform(MESSAGE, null);
+        }
+        long streaming = threads.getThreadAllocatedBytes(tid) - before;
+
+        before = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < iterations; i++) {
+            mapper.readValue(MESSAGE, typeRef);
+        }
+        long mapped = threads.getThreadAllocatedBytes(tid) - before;
+
+        Assert.assertThat(streaming < mapped, CoreMatchers.is(true));
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.consume.mqtt.epos;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.epos.transform.TransformationException;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class Dump1090TransformerTest {
+
+    private static final String MESSAGE = "{\"hex\":\"3c6444\",\"squawk\":\"1000\",\"flight\":\"DLH9U   \","
+            + "\"lat\":51.962,\"lon\":7,\"nucp\":7,\"seen_pos\":0.3,\"altitude\":36000,\"vert_rate\":0,"
+            + "\"track\":121,\"speed\":452,\"messages\":1278,\"seen\":0.1,\"rssi\":-20.5,"
+            + "\"timestamp\":1460000000}";
+
+    @Test
+    public void testTransform() throws TransformationException {
+        AdsbEvent event = (AdsbEvent) new Dump1090Transformer().transform(MESSAGE, "application/json");
+
+        Assert.assertThat(event.getHex(), CoreMatchers.is("3c6444"));
+        Assert.assertThat(event.getLat(), CoreMatchers.is(51.962));
+        Assert.assertThat(event.getNumericValue(AdsbEvent.LON), CoreMatchers.is(7.0));
+        Assert.assertThat(event.getValue(AdsbEvent.ALTITUDE), CoreMatchers.is((Object) 36000));
+        Assert.assertThat(event.getValue("rssi"), CoreMatchers.is((Object) (-20.5)));
+        Assert.assertThat(event.getStartTime(), CoreMatchers.is(1460000000L));
+        Assert.assertThat(event.getOriginalObject(), CoreMatchers.is((Object) MESSAGE));
+    }
+
+}
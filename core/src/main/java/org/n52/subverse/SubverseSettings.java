@@ -40,8 +40,58 @@ public interface SubverseSettings extends ServiceSettings {
 
     String AMQP_DEFAULT_HOST = "subverse.amqp.defaultHost";
 
+    String AMQP_MAX_CONNECTIONS = "subverse.amqp.maxConnections";
+
+    String AMQP_OUTGOING_WINDOW = "subverse.amqp.outgoingWindow";
+
+    String AMQP_AWAIT_SETTLEMENT = "subverse.amqp.awaitSettlement";
+
     String FILESYSTEM_STORAGE_DIRECTORY = "subverse.storage.baseDirectory";
 
     String ROOT_PUBLICATION = "subverse.publications.rootPublication";
 
+    String FILTER_SHARD_COUNT = "subverse.filter.shardCount";
+
+    String FILTER_PARTITION_BY_KEY = "subverse.filter.partitionByKey";
+
+    String FILTER_QUEUE_CAPACITY = "subverse.filter.queueCapacity";
+
+    String FILTER_OVERLOAD_POLICY = "subverse.filter.overloadPolicy";
+
+    String FILTER_BLOCK_TIMEOUT = "subverse.filter.blockTimeout";
+
+    String DELIVERY_QUEUES = "subverse.delivery.queues";
+
+    String DELIVERY_EXECUTION = "subverse.delivery.execution";
+
+    String DELIVERY_MAX_CONCURRENCY = "subverse.delivery.maxConcurrency";
+
+    String DELIVERY_RETRY = "subverse.delivery.retry";
+
+    String DELIVERY_CIRCUIT_BREAKER = "subverse.delivery.circuitBreaker";
+
+    String DELIVERY_QUARANTINE = "subverse.delivery.quarantine";
+
+    String DEAD_LETTER_DIRECTORY = "subverse.delivery.deadLetterDirectory";
+
+    String DEAD_LETTER_RETENTION = "subverse.delivery.deadLetterRetention";
+
+    String DEAD_LETTER_MAX_SIZE = "subverse.delivery.deadLetterMaxSize";
+
+    String WSN_MAX_CONNECTIONS = "subverse.wsn.maxConnections";
+
+    String WSN_MAX_CONNECTIONS_PER_ROUTE = "subverse.wsn.maxConnectionsPerRoute";
+
+    String WSN_CONNECT_TIMEOUT = "subverse.wsn.connectTimeout";
+
+    String WSN_SOCKET_TIMEOUT = "subverse.wsn.socketTimeout";
+
+    String WSN_IDLE_TIMEOUT = "subverse.wsn.idleTimeout";
+
+    String WSN_ASYNCHRONOUS = "subverse.wsn.asynchronous";
+
+    String WSN_MAX_IN_FLIGHT_PER_CONSUMER = "subverse.wsn.maxInFlightPerConsumer";
+
+    String WSN_ADAPTIVE_IN_FLIGHT = "subverse.wsn.adaptiveInFlight";
+
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.Arrays;
+import org.n52.iceland.config.annotation.Configurable;
+import org.n52.iceland.config.annotation.Setting;
+import org.n52.iceland.lifecycle.Constructable;
+import org.n52.iceland.lifecycle.Destroyable;
+import org.n52.subverse.SubverseSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link EposFilterEngine} taking its partitioning from the service settings.
+ * The shards are created once all settings have been applied.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Configurable
+public class ConfigurableEposFilterEngine extends EposFilterEngine implements Constructable, Destroyable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurableEposFilterEngine.class);
+
+    @Setting(SubverseSettings.FILTER_SHARD_COUNT)
+    @Override
+    public void setShardCount(int count) {
+        super.setShardCount(count);
+    }
+
+    @Setting(SubverseSettings.FILTER_PARTITION_BY_KEY)
+    @Override
+    public void setPartitionByKey(boolean partitionByKey) {
+        super.setPartitionByKey(partitionByKey);
+    }
+
+    @Setting(SubverseSettings.FILTER_QUEUE_CAPACITY)
+    @Override
+    public void setQueueCapacity(int capacity) {
+        super.setQueueCapacity(capacity);
+    }
+
+    /**
+     * @param policy the name of the {@link OverloadPolicy}. Unknown names
+     * fall back to {@link OverloadPolicy#BLOCK}
+     */
+    @Setting(SubverseSettings.FILTER_OVERLOAD_POLICY)
+    public void setOverloadPolicy(String policy) {
+        if (policy == null || policy.trim().isEmpty()) {
+            setOverloadPolicy(OverloadPolicy.BLOCK);
+            return;
+        }
+
+        try {
+            setOverloadPolicy(OverloadPolicy.valueOf(policy.trim().toUpperCase()));
+        }
+        catch (IllegalArgumentException e) {
+            LOG.warn("Unknown overload policy '{}', using {}. Valid policies: {}", policy, OverloadPolicy.BLOCK,
+                    Arrays.toString(OverloadPolicy.values()));
+            setOverloadPolicy(OverloadPolicy.BLOCK);
+        }
+    }
+
+    @Setting(SubverseSettings.FILTER_BLOCK_TIMEOUT)
+    public void setBlockTimeout(int timeout) {
+        super.setBlockTimeout(timeout);
+    }
+
+    @Override
+    public void init() {
+        super.init();
+    }
+
+    @Override
+    public void destroy() {
+        shutdown();
+    }
+
+}
@@ -28,12 +28,14 @@
  */
 package org.n52.subverse.notify;
 
+import org.n52.subverse.engine.EngineOverloadedException;
+
 /**
  *
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
 public interface NotificationConsumer {
 
-    public void receive(NotificationMessage m);
+    public void receive(NotificationMessage m) throws EngineOverloadedException;
 
 }
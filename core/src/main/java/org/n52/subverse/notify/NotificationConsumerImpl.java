@@ -29,6 +29,7 @@
 package org.n52.subverse.notify;
 
 import javax.inject.Inject;
+import org.n52.subverse.engine.EngineOverloadedException;
 import org.n52.subverse.engine.FilterEngine;
 import org.n52.subverse.publications.PublicationsProvider;
 import org.slf4j.Logger;
@@ -55,7 +56,7 @@ public class NotificationConsumerImpl implements NotificationConsumer, Publicati
     }
 
     @Override
-    public void receive(NotificationMessage m) {
+    public void receive(NotificationMessage m) throws EngineOverloadedException {
         LOG.info("Received message: "+m);
         this.engine.filterMessage(m.getMessage(), IDENTIFIER, getContentType());
     }
@@ -29,8 +29,19 @@
 package org.n52.subverse.subscription;
 
 import com.google.common.base.MoreObjects;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import org.n52.subverse.IdProvider;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
@@ -41,9 +52,17 @@ import org.n52.iceland.lifecycle.Destroyable;
 import org.n52.subverse.SubverseSettings;
 import org.n52.subverse.dao.SubscriptionDao;
 import org.n52.subverse.delivery.DeliveryDefinition;
+import org.n52.subverse.delivery.DeliveryEndpoint;
 import org.n52.subverse.delivery.DeliveryProvider;
 import org.n52.subverse.delivery.DeliveryProviderRepository;
 import org.n52.subverse.delivery.UnsupportedDeliveryDefinitionException;
+import org.n52.subverse.delivery.queue.CircuitBreakerOptions;
+import org.n52.subverse.delivery.queue.DeadLetterSpool;
+import org.n52.subverse.delivery.queue.DeliveryExecution;
+import org.n52.subverse.delivery.queue.DeliveryQueueOptions;
+import org.n52.subverse.delivery.queue.DeliveryScheduler;
+import org.n52.subverse.delivery.queue.QuarantineOptions;
+import org.n52.subverse.delivery.queue.RetryOptions;
 import org.n52.subverse.engine.FilterEngine;
 import org.n52.subverse.engine.SubscriptionRegistrationException;
 import org.n52.subverse.termination.Terminatable;
@@ -56,11 +75,39 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class SubscriptionManagerImpl implements SubscriptionManager, Constructable, Destroyable {
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(SubscriptionManagerImpl.class);
+    private static final long DEAD_LETTER_REPLAY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final long DEAD_LETTER_SEGMENT_SIZE = 16 * 1024 * 1024;
     private SubscriptionDao dao;
     private IdProvider idProvider;
     private DeliveryProviderRepository deliveryProviderRepository;
     private FilterEngine filterEngine;
     private String rootPublicationIdentifier;
+    private volatile Map<String, DeliveryQueueOptions> deliveryQueueOptions = Collections.emptyMap();
+    private final Map<String, DeliveryScheduler> deliverySchedulers = new ConcurrentHashMap<>();
+
+    /*
+     * the scheduler decorating the endpoint of each subscription. Schedulers
+     * replaced after a settings change keep serving their endpoints and are
+     * shut down once the last of them is removed. Both guarded by this
+     */
+    private final Map<String, DeliveryScheduler> endpointSchedulers = new HashMap<>();
+    private final Set<DeliveryScheduler> retiredDeliverySchedulers = new HashSet<>();
+    private volatile DeliveryExecution deliveryExecution = DeliveryExecution.PLATFORM;
+    private volatile Semaphore deliveryPermits;
+    private volatile RetryOptions retryOptions = RetryOptions.DEFAULT;
+    private volatile CircuitBreakerOptions circuitBreakerOptions = CircuitBreakerOptions.DEFAULT;
+    private volatile QuarantineOptions quarantineOptions = QuarantineOptions.DEFAULT;
+    private Path deadLetterDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "subverse", "dead-letters");
+    private long deadLetterRetention = TimeUnit.HOURS.toMillis(24);
+    private long deadLetterMaxSize = 1024L * 1024 * 1024;
+    private DeadLetterSpool deadLetterSpool;
+
+    /*
+     * the endpoints delivering to the subscribers, by subscription id. The
+     * DAO might return deserialized copies of the subscriptions, only these
+     * instances hold the queues and connections
+     */
+    private final Map<String, DeliveryEndpoint> liveEndpoints = new ConcurrentHashMap<>();
 
     @Autowired
     private TerminationScheduler terminationScheduler;
@@ -80,6 +127,161 @@ public class SubscriptionManagerImpl implements SubscriptionManager, Constructab
         this.rootPublicationIdentifier = pubId;
     }
 
+    /**
+     * @param queues the outbound queue options per delivery provider, see
+     * {@link DeliveryQueueOptions#parse(String)}. Changes apply to
+     * subscriptions created afterwards.
+     */
+    @Setting(SubverseSettings.DELIVERY_QUEUES)
+    public void setDeliveryQueues(String queues) {
+        this.deliveryQueueOptions = DeliveryQueueOptions.parse(queues);
+        retireDeliverySchedulers();
+    }
+
+    @Setting(SubverseSettings.DELIVERY_EXECUTION)
+    public void setDeliveryExecution(String execution) {
+        if (execution == null || execution.trim().isEmpty()) {
+            this.deliveryExecution = DeliveryExecution.PLATFORM;
+        }
+        else {
+            this.deliveryExecution = DeliveryExecution.valueOf(execution.trim().toUpperCase());
+        }
+        retireDeliverySchedulers();
+    }
+
+    /**
+     * @param max the maximum number of deliveries in flight on virtual
+     * threads across all delivery providers, 0 for no limit
+     */
+    @Setting(SubverseSettings.DELIVERY_MAX_CONCURRENCY)
+    public void setDeliveryMaxConcurrency(int max) {
+        this.deliveryPermits = max > 0 ? new Semaphore(max) : null;
+        retireDeliverySchedulers();
+    }
+
+    /**
+     * @param retry the retries of failed deliveries, see
+     * {@link RetryOptions#parse(String)}
+     */
+    @Setting(SubverseSettings.DELIVERY_RETRY)
+    public void setDeliveryRetry(String retry) {
+        this.retryOptions = RetryOptions.parse(retry);
+        retireDeliverySchedulers();
+    }
+
+    /**
+     * @param circuitBreaker the circuit breaker of each subscription, see
+     * {@link CircuitBreakerOptions#parse(String)}
+     */
+    @Setting(SubverseSettings.DELIVERY_CIRCUIT_BREAKER)
+    public void setDeliveryCircuitBreaker(String circuitBreaker) {
+        this.circuitBreakerOptions = CircuitBreakerOptions.parse(circuitBreaker);
+        retireDeliverySchedulers();
+    }
+
+    /**
+     * @param quarantine the quarantine of slow subscriptions, see
+     * {@link QuarantineOptions#parse(String)}
+     */
+    @Setting(SubverseSettings.DELIVERY_QUARANTINE)
+    public void setDeliveryQuarantine(String quarantine) {
+        this.quarantineOptions = QuarantineOptions.parse(quarantine);
+        retireDeliverySchedulers();
+    }
+
+    /**
+     * @param directory the directory of the dead letter spool. The default
+     * is a directory below java.io.tmpdir
+     */
+    @Setting(SubverseSettings.DEAD_LETTER_DIRECTORY)
+    public void setDeadLetterDirectory(String directory) {
+        if (directory != null && !directory.trim().isEmpty()) {
+            synchronized (this) {
+                this.deadLetterDirectory = Paths.get(directory.trim());
+            }
+            resetDeadLetterSpool();
+        }
+    }
+
+    /**
+     * @param minutes the time failed deliveries are kept and retried, 0
+     * to discard them
+     */
+    @Setting(SubverseSettings.DEAD_LETTER_RETENTION)
+    public void setDeadLetterRetention(int minutes) {
+        synchronized (this) {
+            this.deadLetterRetention = TimeUnit.MINUTES.toMillis(Math.max(minutes, 0));
+        }
+        resetDeadLetterSpool();
+    }
+
+    /**
+     * @param megabytes the maximum size of the dead letter spool, failed
+     * deliveries are discarded once it is reached
+     */
+    @Setting(SubverseSettings.DEAD_LETTER_MAX_SIZE)
+    public void setDeadLetterMaxSize(int megabytes) {
+        synchronized (this) {
+            this.deadLetterMaxSize = Math.max(megabytes, 1) * 1024L * 1024;
+        }
+        resetDeadLetterSpool();
+    }
+
+    /**
+     * the endpoints of the existing schedulers stop spooling, new
+     * schedulers use a new spool
+     */
+    private void resetDeadLetterSpool() {
+        synchronized (this) {
+            if (this.deadLetterSpool != null) {
+                this.deadLetterSpool.close();
+                this.deadLetterSpool = null;
+            }
+        }
+        retireDeliverySchedulers();
+    }
+
+    /**
+     * new subscriptions use new schedulers, the existing ones keep serving
+     * the endpoints created with them until these are removed
+     */
+    private synchronized void retireDeliverySchedulers() {
+        this.retiredDeliverySchedulers.addAll(this.deliverySchedulers.values());
+        this.deliverySchedulers.clear();
+        this.retiredDeliverySchedulers.removeIf(this::shutdownIfUnused);
+    }
+
+    private synchronized void releaseDeliveryScheduler(String subscriptionId) {
+        DeliveryScheduler scheduler = this.endpointSchedulers.remove(subscriptionId);
+        if (scheduler != null && this.retiredDeliverySchedulers.contains(scheduler)
+                && shutdownIfUnused(scheduler)) {
+            this.retiredDeliverySchedulers.remove(scheduler);
+        }
+    }
+
+    private boolean shutdownIfUnused(DeliveryScheduler scheduler) {
+        if (this.endpointSchedulers.containsValue(scheduler)) {
+            return false;
+        }
+        LOG.debug("Shutting down replaced delivery scheduler {}", scheduler);
+        scheduler.shutdown();
+        return true;
+    }
+
+    private synchronized DeadLetterSpool getDeadLetterSpool() {
+        if (this.deadLetterSpool == null && this.deadLetterRetention > 0) {
+            try {
+                this.deadLetterSpool = new DeadLetterSpool(this.deadLetterDirectory, this.deadLetterRetention,
+                        DEAD_LETTER_REPLAY_INTERVAL, DEAD_LETTER_SEGMENT_SIZE, this.deadLetterMaxSize);
+            }
+            catch (IOException e) {
+                LOG.warn("Could not create dead letter spool in {}, failed deliveries will be discarded",
+                        this.deadLetterDirectory, e);
+            }
+        }
+        return this.deadLetterSpool;
+    }
+
     public SubscriptionDao getDao() {
         return dao;
     }
@@ -117,7 +319,7 @@ public class SubscriptionManagerImpl implements SubscriptionManager, Constructab
 
     private Subscription internalSubscribe(SubscribeOptions options, String id) throws UnsupportedDeliveryDefinitionException,
             SubscriptionRegistrationException {
-        SubscriptionEndpoint endpoint = createEndpoint(options);
+        SubscriptionEndpoint endpoint = createEndpoint(options, id);
 
         SubscribeOptions finalOptions;
         if (rootPublicationIdentifier.equals(options.getPublicationIdentifier())) {
@@ -129,7 +331,14 @@ public class SubscriptionManagerImpl implements SubscriptionManager, Constructab
 
         Subscription result = new Subscription(id, finalOptions, endpoint);
 
-        this.filterEngine.register(result, endpoint.getDeliveryEndpoint());
+        try {
+            this.filterEngine.register(result, endpoint.getDeliveryEndpoint());
+        }
+        catch (SubscriptionRegistrationException | RuntimeException e) {
+            releaseDeliveryScheduler(id);
+            throw e;
+        }
+        this.liveEndpoints.put(id, endpoint.getDeliveryEndpoint());
 
         LOG.info("Registered subscription '{}'", result.getId());
 
@@ -147,13 +356,19 @@ public class SubscriptionManagerImpl implements SubscriptionManager, Constructab
             LOG.debug("Invoking removal of subscription '{}'", subscriptionId);
             Subscription toBeRemoved = this.dao.deleteSubscription(subscriptionId);
             this.filterEngine.removeSubscription(subscriptionId);
-            if (toBeRemoved != null) {
-                if (toBeRemoved.getEndpoint() != null) {
-                    LOG.debug("Destroying endpoint: {}", toBeRemoved.getEndpoint().getDeliveryEndpoint());
-                    toBeRemoved.getEndpoint().destroy();
-                }
+
+            DeliveryEndpoint live = this.liveEndpoints.remove(subscriptionId);
+            if (live != null) {
+                LOG.debug("Destroying endpoint: {}", live);
+                live.destroy();
             }
-            else {
+            else if (toBeRemoved != null && toBeRemoved.getEndpoint() != null) {
+                LOG.debug("Destroying endpoint: {}", toBeRemoved.getEndpoint().getDeliveryEndpoint());
+                toBeRemoved.getEndpoint().destroy();
+            }
+            releaseDeliveryScheduler(subscriptionId);
+
+            if (toBeRemoved == null) {
                 LOG.warn("DAO did not return subscription {}", subscriptionId);
             }
 
@@ -164,7 +379,8 @@ public class SubscriptionManagerImpl implements SubscriptionManager, Constructab
 
     }
 
-    private SubscriptionEndpoint createEndpoint(SubscribeOptions options) throws UnsupportedDeliveryDefinitionException {
+    private SubscriptionEndpoint createEndpoint(SubscribeOptions options, String id)
+            throws UnsupportedDeliveryDefinitionException {
         DeliveryProvider provider = this.deliveryProviderRepository.getProvider(options.getDeliveryDefinition());
 
         if (provider == null) {
@@ -173,7 +389,35 @@ public class SubscriptionManagerImpl implements SubscriptionManager, Constructab
         }
 
         DeliveryDefinition delDef = options.getDeliveryDefinition().get();
-        return new SubscriptionEndpoint(provider.createDeliveryEndpoint(delDef), delDef);
+        DeliveryScheduler scheduler = acquireDeliveryScheduler(provider, id);
+        try {
+            return new SubscriptionEndpoint(scheduler.decorate(provider.createDeliveryEndpoint(delDef), id), delDef);
+        }
+        catch (RuntimeException e) {
+            releaseDeliveryScheduler(id);
+            throw e;
+        }
+    }
+
+    private synchronized DeliveryScheduler acquireDeliveryScheduler(DeliveryProvider provider, String subscriptionId) {
+        DeliveryScheduler scheduler = getDeliveryScheduler(provider);
+        this.endpointSchedulers.put(subscriptionId, scheduler);
+        return scheduler;
+    }
+
+    private DeliveryScheduler getDeliveryScheduler(DeliveryProvider provider) {
+        DeadLetterSpool deadLetters = getDeadLetterSpool();
+        return this.deliverySchedulers.computeIfAbsent(provider.getIdentifier(), id -> {
+            Map<String, DeliveryQueueOptions> queues = this.deliveryQueueOptions;
+            DeliveryQueueOptions queueOptions = queues.getOrDefault(id,
+                    queues.getOrDefault(DeliveryQueueOptions.ANY_PROVIDER, DeliveryQueueOptions.DEFAULT));
+            LOG.info("Using delivery queue options {} on {} threads for provider '{}'", queueOptions,
+                    this.deliveryExecution, id);
+            DeliveryScheduler scheduler = new DeliveryScheduler(provider.getClass().getSimpleName(), queueOptions,
+                    this.deliveryExecution, this.deliveryPermits, this.retryOptions, deadLetters,
+                    this.circuitBreakerOptions, this.quarantineOptions);
+            return scheduler;
+        });
     }
 
     @Override
@@ -192,11 +436,26 @@ public class SubscriptionManagerImpl implements SubscriptionManager, Constructab
 
     @Override
     public void destroy() {
-        this.dao.getAllSubscriptions().forEach(sub -> {
-            sub.getEndpoint().getDeliveryEndpoint().destroy();
+        this.liveEndpoints.values().forEach(endpoint -> {
+            try {
+                endpoint.destroy();
+            } catch (RuntimeException ex) {
+                LOG.warn("Could not destroy endpoint {}", endpoint.getEffectiveLocation(), ex);
+            }
         });
+        this.liveEndpoints.clear();
 
         this.terminationScheduler.shutdown();
+        synchronized (this) {
+            this.deliverySchedulers.values().forEach(DeliveryScheduler::shutdown);
+            this.deliverySchedulers.clear();
+            this.retiredDeliverySchedulers.forEach(DeliveryScheduler::shutdown);
+            this.retiredDeliverySchedulers.clear();
+            this.endpointSchedulers.clear();
+            if (this.deadLetterSpool != null) {
+                this.deadLetterSpool.close();
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.amqp;
+
+import com.google.common.base.MoreObjects;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Optional;
+import org.n52.subverse.delivery.DeliveryParameter;
+
+/**
+ * Limits for coalescing the notifications of a subscription. A batch is
+ * published once it holds {@link #getMaxMessages()} messages or
+ * {@link #getMaxBytes()} bytes of content, or when its first message has
+ * waited {@link #getLingerMillis()} milliseconds. It is either published
+ * as a single message with a sequence body or as one transfer per
+ * notification, handed to the broker connection at once.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public final class AmqpBatchOptions implements Serializable {
+
+    public static final String MAX_MESSAGES = "maxMessages";
+    public static final String MAX_BYTES = "maxBytes";
+    public static final String LINGER = "linger";
+    public static final String SEQUENCE = "sequence";
+
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+    public static final long DEFAULT_LINGER = 100;
+
+    private final int maxMessages;
+    private final int maxBytes;
+    private final long lingerMillis;
+    private final boolean sequence;
+
+    public AmqpBatchOptions(int maxMessages, int maxBytes, long lingerMillis, boolean sequence) {
+        if (maxMessages < 1 || maxBytes < 1 || lingerMillis < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid batch options: %s messages, %s bytes, %s ms linger",
+                    maxMessages, maxBytes, lingerMillis));
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.sequence = sequence;
+    }
+
+    /**
+     * reads the batch options from the delivery parameters of a
+     * subscription. Batching is requested by a maxMessages parameter
+     * greater than one.
+     *
+     * @param parameters the delivery parameters
+     * @return the options, or empty if no batching was requested
+     * @throws IllegalArgumentException if a parameter is not a valid number
+     */
+    public static Optional<AmqpBatchOptions> fromParameters(List<DeliveryParameter> parameters) {
+        int maxMessages = 1;
+        int maxBytes = DEFAULT_MAX_BYTES;
+        long linger = DEFAULT_LINGER;
+        boolean sequence = true;
+
+        for (DeliveryParameter p : parameters) {
+            if (!AmqpDeliveryProvider.EXTENSION_NAMESPACE.equals(p.getNamespace()) || p.getValue() == null) {
+                continue;
+            }
+            switch (p.getElementName()) {
+                case MAX_MESSAGES:
+                    maxMessages = Integer.parseInt(p.getValue().trim());
+                    break;
+                case MAX_BYTES:
+                    maxBytes = Integer.parseInt(p.getValue().trim());
+                    break;
+                case LINGER:
+                    linger = Long.parseLong(p.getValue().trim());
+                    break;
+                case SEQUENCE:
+                    sequence = Boolean.parseBoolean(p.getValue().trim());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (maxMessages <= 1) {
+            return Optional.empty();
+        }
+        return Optional.of(new AmqpBatchOptions(maxMessages, maxBytes, linger, sequence));
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * @return true if a batch is published as a single message with a
+     * sequence body, false for one transfer per notification
+     */
+    public boolean isSequence() {
+        return sequence;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("maxMessages", maxMessages)
+                .add("maxBytes", maxBytes)
+                .add("lingerMillis", lingerMillis)
+                .add("sequence", sequence)
+                .toString();
+    }
+
+}
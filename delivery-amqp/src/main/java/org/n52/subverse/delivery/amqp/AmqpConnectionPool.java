@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.amqp;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.n52.amqp.AmqpConnectionCreationFailedException;
+import org.n52.amqp.Connection;
+import org.n52.amqp.ConnectionBuilder;
+import org.n52.amqp.Publisher;
+import org.n52.amqp.PublisherCreationFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares the broker connections between the endpoints of an
+ * {@link AmqpDeliveryProvider}. Connections are keyed by scheme, host,
+ * port and credentials. Endpoints publish to their own address over the
+ * shared connection, which only opens a link per address.
+ *
+ * The pool is bounded: connections no longer leased by any endpoint are
+ * kept for reuse and evicted least recently used once the pool is full.
+ * A connection found closed or with a failed publisher on acquisition is
+ * replaced.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AmqpConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AmqpConnectionPool.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+    private final Map<String, PooledConnection> connections = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxConnections;
+    private int outgoingWindow = Publisher.DEFAULT_OUTGOING_WINDOW;
+    private boolean closed;
+
+    public AmqpConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    public AmqpConnectionPool(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @param maxConnections the maximum number of broker connections.
+     * Idle connections above it are closed right away
+     */
+    public synchronized void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        evictIdle(0);
+    }
+
+    /**
+     * @param outgoingWindow the maximum number of messages per connection
+     * awaiting their settlement. Applies to connections created afterwards
+     */
+    public synchronized void setOutgoingWindow(int outgoingWindow) {
+        this.outgoingWindow = outgoingWindow;
+    }
+
+    /**
+     * leases the connection to the broker of the address, creating it if
+     * required
+     *
+     * @param address the address of the endpoint
+     * @return the lease, to be returned via {@link #release(Lease)}
+     * @throws AmqpConnectionCreationFailedException if the address is
+     * invalid, the pool is exhausted or closed
+     * @throws PublisherCreationFailedException if the publisher could not
+     * be created
+     */
+    public synchronized Lease acquire(URI address) throws AmqpConnectionCreationFailedException,
+            PublisherCreationFailedException {
+        if (this.closed) {
+            throw new AmqpConnectionCreationFailedException("Connection pool closed");
+        }
+
+        String key = createKey(address);
+        PooledConnection pooled = this.connections.get(key);
+
+        if (pooled != null && !pooled.isHealthy()) {
+            LOG.info("Pooled AMQP connection to {} failed, reconnecting", pooled.connection.getRemoteURI());
+            this.connections.remove(key);
+            pooled.close();
+            pooled = null;
+        }
+
+        if (pooled == null) {
+            evictIdle(1);
+            if (this.connections.size() >= this.maxConnections) {
+                throw new AmqpConnectionCreationFailedException(String.format(
+                        "All %s AMQP connections in use, cannot connect to %s",
+                        this.maxConnections, address.getHost()));
+            }
+            pooled = new PooledConnection(key, createConnection(address), this.outgoingWindow);
+            this.connections.put(key, pooled);
+            LOG.debug("AMQP connection to {} created ({} pooled)", pooled.connection.getRemoteURI(),
+                    this.connections.size());
+        }
+
+        pooled.leases++;
+        return new Lease(pooled);
+    }
+
+    /**
+     * returns the connection to the pool. It stays open for reuse by other
+     * endpoints
+     *
+     * @param lease the lease
+     */
+    public synchronized void release(Lease lease) {
+        if (lease.released) {
+            return;
+        }
+        lease.released = true;
+        lease.pooled.leases--;
+
+        if (this.closed || this.connections.get(lease.pooled.key) != lease.pooled) {
+            /*
+             * replaced or closed meanwhile
+             */
+            if (lease.pooled.leases == 0) {
+                lease.pooled.close();
+            }
+            return;
+        }
+        evictIdle(0);
+    }
+
+    public synchronized int size() {
+        return this.connections.size();
+    }
+
+    public synchronized void close() {
+        this.closed = true;
+        this.connections.values().forEach(PooledConnection::close);
+        this.connections.clear();
+    }
+
+    /**
+     * closes idle connections, least recently used first, until the given
+     * number of connections can be added
+     */
+    private void evictIdle(int required) {
+        Iterator<PooledConnection> it = this.connections.values().iterator();
+        while (this.connections.size() + required > this.maxConnections && it.hasNext()) {
+            PooledConnection candidate = it.next();
+            if (candidate.leases == 0) {
+                it.remove();
+                candidate.close();
+            }
+        }
+    }
+
+    private Connection createConnection(URI address) throws AmqpConnectionCreationFailedException {
+        try {
+            URI broker = new URI(address.getScheme(), address.getUserInfo(), address.getHost(),
+                    address.getPort(), null, null, null);
+            return ConnectionBuilder.create(broker).build();
+        } catch (URISyntaxException ex) {
+            throw new AmqpConnectionCreationFailedException(ex);
+        }
+    }
+
+    static String createKey(URI address) throws AmqpConnectionCreationFailedException {
+        if (address.getHost() == null) {
+            throw new AmqpConnectionCreationFailedException("No host in AMQP address " + address);
+        }
+
+        String scheme = address.getScheme() == null ? "amqp" : address.getScheme();
+        int port = address.getPort();
+        if (port < 0) {
+            port = "amqps".equals(scheme) ? 5671 : 5672;
+        }
+
+        StringBuilder sb = new StringBuilder(scheme).append("://");
+        if (address.getUserInfo() != null) {
+            sb.append(address.getUserInfo()).append("@");
+        }
+        return sb.append(address.getHost()).append(":").append(port).toString();
+    }
+
+    /**
+     * the use of a pooled connection by a single endpoint
+     */
+    public static class Lease {
+
+        private final PooledConnection pooled;
+        private boolean released;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        public Publisher getPublisher() {
+            return this.pooled.publisher;
+        }
+
+        /**
+         * @return false if the connection has been closed or invalidated,
+         * or if the messenger of its publisher failed. The lease should then
+         * be released and a new one acquired
+         */
+        public boolean isHealthy() {
+            return this.pooled.isHealthy();
+        }
+
+        /**
+         * marks the connection as broken, e.g. after a transport failure,
+         * so the next acquisition for its broker reconnects
+         */
+        public void invalidate() {
+            this.pooled.connection.close();
+        }
+
+    }
+
+    private static class PooledConnection {
+
+        private final String key;
+        private final Connection connection;
+        private final Publisher publisher;
+        private int leases;
+
+        PooledConnection(String key, Connection connection, int outgoingWindow)
+                throws PublisherCreationFailedException {
+            this.key = key;
+            this.connection = connection;
+            this.publisher = connection.createPublisher(outgoingWindow);
+        }
+
+        boolean isHealthy() {
+            return this.connection.isOpen() && this.publisher.isHealthy();
+        }
+
+        void close() {
+            this.connection.close();
+            this.publisher.destroy();
+        }
+
+    }
+
+}
@@ -28,22 +28,28 @@
  */
 package org.n52.subverse.delivery.amqp;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.security.SecureRandom;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import org.apache.qpid.proton.messenger.Status;
 import org.n52.amqp.AmqpConnectionCreationFailedException;
-import org.n52.amqp.Connection;
-import org.n52.amqp.ConnectionBuilder;
 import org.n52.amqp.ContentType;
+import org.n52.amqp.MessageTemplate;
+import org.n52.amqp.PublishFailedException;
 import org.n52.amqp.Publisher;
 import org.n52.amqp.PublisherCreationFailedException;
 import org.n52.subverse.delivery.DeliveryDefinition;
 import org.n52.subverse.delivery.DeliveryEndpoint;
+import org.n52.subverse.delivery.DeliveryException;
 import org.n52.subverse.delivery.Streamable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,14 +66,60 @@ public class AmqpDeliveryEndpoint implements DeliveryEndpoint {
     private final String broker;
     private final String address;
     private final String parentPublicationId;
-    private Publisher client;
     private final String id;
-    private Connection connection;
+    private final boolean awaitSettlement;
+
+    /*
+     * the connection state is not serialized. A deserialized endpoint
+     * connects through a pool of its own once it delivers
+     */
+    private transient AmqpConnectionPool pool;
+    private transient boolean ownsPool;
+    private transient AmqpConnectionPool.Lease lease;
+    private transient MessageTemplate template;
+    private transient String templateContentType;
+    private transient Charset templateCharset;
 
 
     public AmqpDeliveryEndpoint(DeliveryDefinition def, String defaultBroker) throws URISyntaxException {
+        this(def, defaultBroker, new AmqpConnectionPool(1), true, false);
+    }
+
+    /**
+     * @param def the delivery definition
+     * @param defaultBroker the broker used if the definition has no location
+     * @param pool the pool providing the connection to the broker
+     * @throws URISyntaxException if the location is invalid
+     */
+    public AmqpDeliveryEndpoint(DeliveryDefinition def, String defaultBroker, AmqpConnectionPool pool)
+            throws URISyntaxException {
+        this(def, defaultBroker, pool, false, false);
+    }
+
+    /**
+     * @param def the delivery definition
+     * @param defaultBroker the broker used if the definition has no location
+     * @param pool the pool providing the connection to the broker
+     * @param awaitSettlement if a delivery should wait until the broker
+     * settled the message. Otherwise messages are pipelined and failures
+     * are reported through {@link #deliverAsync(Optional, boolean)} once
+     * the broker settled them
+     * @throws URISyntaxException if the location is invalid
+     */
+    public AmqpDeliveryEndpoint(DeliveryDefinition def, String defaultBroker, AmqpConnectionPool pool,
+            boolean awaitSettlement) throws URISyntaxException {
+        this(def, defaultBroker, pool, false, awaitSettlement);
+    }
+
+    private AmqpDeliveryEndpoint(DeliveryDefinition def, String defaultBroker, AmqpConnectionPool pool,
+            boolean ownsPool, boolean awaitSettlement) throws URISyntaxException {
         Objects.requireNonNull(def);
         Objects.requireNonNull(defaultBroker);
+        Objects.requireNonNull(pool);
+
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.awaitSettlement = awaitSettlement;
 
         this.id = ShortId.randomString(8, 10);
         this.parentPublicationId = def.getPublicationId();
@@ -107,27 +159,166 @@ public class AmqpDeliveryEndpoint implements DeliveryEndpoint {
     }
 
     @Override
-    public synchronized void deliver(Optional<Streamable> o, boolean asRaw) {
+    public void deliver(Optional<Streamable> o, boolean asRaw) {
+        deliverAsync(o, asRaw).whenComplete((v, ex) -> {
+            if (ex != null) {
+                LOG.warn("Could not send AMQP message", ex);
+            }
+        });
+    }
+
+    /**
+     * waits until the broker settled the message, regardless of the
+     * settlement mode of this endpoint
+     */
+    @Override
+    public void tryDeliver(Optional<Streamable> o, boolean asRaw) throws DeliveryException {
+        if (!o.isPresent()) {
+            LOG.warn("Cannot delivery null object");
+            return;
+        }
+
+        settle(publish(o.get()));
+    }
+
+    /**
+     * if the endpoint does not await the settlement, the message is
+     * pipelined and the returned future completes once the broker settled it
+     */
+    @Override
+    public CompletableFuture<Void> deliverAsync(Optional<Streamable> o, boolean asRaw) {
+        if (this.awaitSettlement || !o.isPresent()) {
+            return DeliveryEndpoint.super.deliverAsync(o, asRaw);
+        }
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            publish(o.get()).whenComplete((v, ex) -> {
+                if (ex != null) {
+                    result.completeExceptionally(createPublishException(ex));
+                }
+                else {
+                    result.complete(null);
+                }
+            });
+        } catch (DeliveryException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    private synchronized CompletableFuture<Void> publish(Streamable s) throws DeliveryException {
+        ByteBuffer body;
         try {
-            if (!o.isPresent()) {
-                LOG.warn("Cannot delivery null object");
-                return;
+            body = s.asByteBuffer();
+        } catch (IOException ex) {
+            throw new DeliveryException("Could not send AMQP message to " + this.address, ex);
+        }
+
+        LOG.trace("Sending message to {}", this.address);
+        return reconnectOnTransportFailure(getPublisher().publishAsync(getTemplate(s), body));
+    }
+
+    /**
+     * invalidates the current lease if the publication does not reach the
+     * broker, so that the next delivery reconnects
+     *
+     * @param publication the result of a publication
+     * @return the result, completed after the lease has been invalidated
+     */
+    protected synchronized CompletableFuture<Void> reconnectOnTransportFailure(
+            CompletableFuture<Void> publication) {
+        AmqpConnectionPool.Lease current = this.lease;
+        if (current == null) {
+            return publication;
+        }
+        return publication.whenComplete((v, ex) -> {
+            if (ex != null && isTransportFailure(ex)) {
+                LOG.info("AMQP connection to {} failed, reconnecting with the next delivery", this.address);
+                current.invalidate();
+            }
+        });
+    }
+
+    /**
+     * @return true if the message did not reach the broker, i.e. it was
+     * not settled with an outcome
+     */
+    static boolean isTransportFailure(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure instanceof PublishFailedException
+                && !((PublishFailedException) failure).getStatus().isPresent()
+                && !(failure.getCause() instanceof InterruptedException);
+    }
+
+    /**
+     * @return the publisher of the pooled broker connection, reconnecting
+     * if the connection has been closed
+     * @throws DeliveryException if no connection could be obtained
+     */
+    protected synchronized Publisher getPublisher() throws DeliveryException {
+        try {
+            if (this.lease != null && !this.lease.isHealthy()) {
+                LOG.info("AMQP connection to {} closed, reconnecting", this.address);
+                this.pool.release(this.lease);
+                this.lease = null;
             }
 
-            if (this.client == null) {
-                this.connection = ConnectionBuilder.create(URI.create(this.address)).build();
-                this.client = this.connection.createPublisher();
+            if (this.lease == null) {
+                if (this.pool == null) {
+                    this.pool = new AmqpConnectionPool(1);
+                    this.ownsPool = true;
+                }
+                this.lease = this.pool.acquire(new URI(this.address));
                 LOG.debug("AMQP Client for {} created", this.address);
             }
+            return this.lease.getPublisher();
+        } catch (PublisherCreationFailedException | AmqpConnectionCreationFailedException ex) {
+            throw new DeliveryException("Could not send AMQP message to " + this.address, ex);
+        } catch (URISyntaxException ex) {
+            throw new DeliveryException("Invalid AMQP address " + this.address, ex, false);
+        }
+    }
+
+    /**
+     * @return if deliveries wait until the broker settled the message
+     */
+    protected boolean isAwaitSettlement() {
+        return this.awaitSettlement;
+    }
 
-            LOG.trace("Sending message to {}", this.address);
-            this.client.publish(prepareBody(o.get()), new ContentType(o.get().getContentType()));
+    /**
+     * waits for the settlement of a published message
+     *
+     * @param result the result of the publication
+     * @throws DeliveryException if the broker did not accept the message
+     */
+    protected void settle(CompletableFuture<Void> result) throws DeliveryException {
+        try {
+            result.get();
             LOG.trace("Message sent to {}", this.address);
-        } catch (PublisherCreationFailedException | IOException | URISyntaxException | AmqpConnectionCreationFailedException ex) {
-            LOG.warn("Could not send AMQP message", ex);
+        } catch (ExecutionException ex) {
+            throw createPublishException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DeliveryException("Interrupted while sending AMQP message to " + this.address, ex);
         }
     }
 
+    /**
+     * a message rejected by the broker is not retried
+     */
+    protected DeliveryException createPublishException(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        boolean rejected = cause instanceof PublishFailedException
+                && ((PublishFailedException) cause).getStatus().orElse(null) == Status.REJECTED;
+        return new DeliveryException("Could not send AMQP message to " + this.address, cause, !rejected);
+    }
+
     private String ensureSchemeInAddress(String add) {
         if (add.startsWith("queue://")) {
             return add.replace("queue://", "amqp://");
@@ -145,19 +336,40 @@ public class AmqpDeliveryEndpoint implements DeliveryEndpoint {
         return "amqp://".concat(add);
     }
 
-    private String prepareBody(Streamable s) throws IOException {
-        if (s.originalObject() instanceof String) {
-            return (String) s.originalObject();
+    /**
+     * @param s the streamable
+     * @return its content type, with the charset parameter for textual
+     * content, so consumers can decode the binary body
+     */
+    protected ContentType createContentType(Streamable s) {
+        ContentType ct = new ContentType(s.getContentType());
+        if (isTextual(s.getContentType())) {
+            return ct.withCharset(s.getCharset());
         }
+        return ct;
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (InputStream asStream = s.asStream()) {
-            while (asStream.available() > 0) {
-                baos.write(asStream.read());
-            }
+    /**
+     * @param s the streamable to send
+     * @return the message template of this endpoint for the content type
+     * of the streamable. It is only recreated if the content type changes
+     */
+    protected synchronized MessageTemplate getTemplate(Streamable s) {
+        if (this.template == null || !Objects.equals(s.getContentType(), this.templateContentType)
+                || !Objects.equals(s.getCharset(), this.templateCharset)) {
+            this.template = new MessageTemplate(this.address, createContentType(s));
+            this.templateContentType = s.getContentType();
+            this.templateCharset = s.getCharset();
         }
+        return this.template;
+    }
 
-        return new String(baos.toByteArray());
+    private static boolean isTextual(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String ct = contentType.toLowerCase(Locale.ROOT);
+        return ct.startsWith("text/") || ct.contains("xml") || ct.contains("json");
     }
 
     @Override
@@ -187,13 +399,14 @@ public class AmqpDeliveryEndpoint implements DeliveryEndpoint {
 
     @Override
     public synchronized void destroy() {
-        if (this.connection != null) {
-            this.connection.close();
+        if (this.lease != null) {
+            this.pool.release(this.lease);
+            this.lease = null;
+            LOG.info("AMQP connection for {} released.", this.address);
         }
 
-        if (this.client != null) {
-            this.client.destroy();
-            LOG.info("Messenger for {} stopped.", this.address);
+        if (this.ownsPool && this.pool != null) {
+            this.pool.close();
         }
     }
 
@@ -28,11 +28,16 @@
  */
 package org.n52.subverse.delivery.amqp;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import org.n52.iceland.config.annotation.Configurable;
 import org.n52.iceland.config.annotation.Setting;
+import org.n52.iceland.lifecycle.Destroyable;
 import org.n52.subverse.SubverseSettings;
 import org.n52.subverse.delivery.DeliveryDefinition;
 import org.n52.subverse.delivery.DeliveryEndpoint;
@@ -45,18 +50,36 @@ import org.n52.subverse.delivery.UnsupportedDeliveryDefinitionException;
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
 @Configurable
-public class AmqpDeliveryProvider implements DeliveryProvider {
+public class AmqpDeliveryProvider implements DeliveryProvider, Destroyable {
 
     protected static final String EXTENSION_NAMESPACE = "http://www.opengis.net/pubsub/1.0/amqp/v1.0";
 
     private static final String IDENTIFIER = "https://docs.oasis-open.org/amqp/core/v1.0";
     private String defaultHost;
+    private final AmqpConnectionPool connectionPool = new AmqpConnectionPool();
+    private boolean awaitSettlement;
+    private ScheduledExecutorService batchTimer;
 
     @Setting(SubverseSettings.AMQP_DEFAULT_HOST)
     public void setDefaultHost(String defaultHost) {
         this.defaultHost = defaultHost;
     }
 
+    @Setting(SubverseSettings.AMQP_MAX_CONNECTIONS)
+    public void setMaxConnections(int maxConnections) {
+        this.connectionPool.setMaxConnections(maxConnections);
+    }
+
+    @Setting(SubverseSettings.AMQP_OUTGOING_WINDOW)
+    public void setOutgoingWindow(int outgoingWindow) {
+        this.connectionPool.setOutgoingWindow(outgoingWindow);
+    }
+
+    @Setting(SubverseSettings.AMQP_AWAIT_SETTLEMENT)
+    public void setAwaitSettlement(boolean awaitSettlement) {
+        this.awaitSettlement = awaitSettlement;
+    }
+
     @Override
     public boolean supportsDeliveryIdentifier(String id) {
         return IDENTIFIER.equals(id);
@@ -74,18 +97,49 @@ public class AmqpDeliveryProvider implements DeliveryProvider {
 
     @Override
     public DeliveryEndpoint createDeliveryEndpoint(DeliveryDefinition def) throws UnsupportedDeliveryDefinitionException {
+        Optional<AmqpBatchOptions> batch;
+        try {
+            batch = AmqpBatchOptions.fromParameters(def.getParameters());
+        } catch (IllegalArgumentException ex) {
+            throw new UnsupportedDeliveryDefinitionException("Invalid batch parameters: " + ex.getMessage(), ex);
+        }
+
         try {
-            return new AmqpDeliveryEndpoint(def, defaultHost);
+            if (batch.isPresent()) {
+                return new BatchingAmqpDeliveryEndpoint(def, defaultHost, connectionPool, awaitSettlement,
+                        batch.get(), getBatchTimer());
+            }
+            return new AmqpDeliveryEndpoint(def, defaultHost, connectionPool, awaitSettlement);
         } catch (URISyntaxException ex) {
             throw new UnsupportedDeliveryDefinitionException(ex.getMessage(), ex);
         }
     }
 
+    private synchronized ScheduledExecutorService getBatchTimer() {
+        if (this.batchTimer == null) {
+            this.batchTimer = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
+                    .setNameFormat("subverse-amqp-batch-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return this.batchTimer;
+    }
+
     @Override
     public DeliveryParameter[] getParameters() {
         DeliveryParameter defaultHostParam = new DeliveryParameter("url", EXTENSION_NAMESPACE,
                 "defaultHost", defaultHost);
-        return new DeliveryParameter[] {defaultHostParam};
+        return new DeliveryParameter[] {
+            defaultHostParam,
+            new DeliveryParameter("integer", EXTENSION_NAMESPACE,
+                    AmqpBatchOptions.MAX_MESSAGES, "1"),
+            new DeliveryParameter("integer", EXTENSION_NAMESPACE,
+                    AmqpBatchOptions.MAX_BYTES, Integer.toString(AmqpBatchOptions.DEFAULT_MAX_BYTES)),
+            new DeliveryParameter("integer", EXTENSION_NAMESPACE,
+                    AmqpBatchOptions.LINGER, Long.toString(AmqpBatchOptions.DEFAULT_LINGER)),
+            new DeliveryParameter("boolean", EXTENSION_NAMESPACE,
+                    AmqpBatchOptions.SEQUENCE, "true")
+        };
     }
 
     @Override
@@ -93,6 +147,15 @@ public class AmqpDeliveryProvider implements DeliveryProvider {
         return Collections.singletonMap(EXTENSION_NAMESPACE, "amqp");
     }
 
+    @Override
+    public synchronized void destroy() {
+        if (this.batchTimer != null) {
+            this.batchTimer.shutdown();
+            this.batchTimer = null;
+        }
+        this.connectionPool.close();
+    }
+
 
 
 }
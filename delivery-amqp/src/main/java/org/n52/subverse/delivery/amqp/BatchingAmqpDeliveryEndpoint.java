@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.amqp;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.n52.amqp.MessageTemplate;
+import org.n52.amqp.Publisher;
+import org.n52.subverse.delivery.DeliveryDefinition;
+import org.n52.subverse.delivery.DeliveryException;
+import org.n52.subverse.delivery.Streamable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the notifications of one subscription into batches, see
+ * {@link AmqpBatchOptions}. A batch holds notifications of a single content
+ * type; a notification of another type flushes the pending ones first.
+ * Batches are handed to the publisher outside the lock of this endpoint and
+ * without waiting for their settlement, so neither the callers nor the
+ * linger timer are blocked by the broker. The futures returned by
+ * {@link #deliverAsync(Optional, boolean)} complete once the batch of the
+ * notification has been settled, and fail if it could not be delivered.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BatchingAmqpDeliveryEndpoint extends AmqpDeliveryEndpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingAmqpDeliveryEndpoint.class);
+
+    private final AmqpBatchOptions options;
+
+    /*
+     * the batch state is not serialized, a deserialized endpoint starts
+     * with an empty batch and publishes without lingering. All of it is
+     * guarded by the lock of this endpoint
+     */
+    private final transient ScheduledExecutorService timer;
+    private transient Batch pending;
+    private transient ScheduledFuture<?> lingerTask;
+    private transient Deque<Batch> ready;
+    private transient boolean sending;
+
+    /**
+     * @param def the delivery definition
+     * @param defaultBroker the broker used if the definition has no location
+     * @param pool the pool providing the connection to the broker
+     * @param awaitSettlement if {@link #tryDeliver(Optional, boolean)}
+     * should publish the pending batch and wait until the broker settled
+     * it. Otherwise it only adds the notification to the batch
+     * @param options the batch limits
+     * @param timer publishes batches whose linger time has elapsed
+     * @throws URISyntaxException if the location is invalid
+     */
+    public BatchingAmqpDeliveryEndpoint(DeliveryDefinition def, String defaultBroker, AmqpConnectionPool pool,
+            boolean awaitSettlement, AmqpBatchOptions options, ScheduledExecutorService timer)
+            throws URISyntaxException {
+        super(def, defaultBroker, pool, awaitSettlement);
+        this.options = options;
+        this.timer = timer;
+    }
+
+    @Override
+    public void tryDeliver(Optional<Streamable> o, boolean asRaw) throws DeliveryException {
+        if (!o.isPresent()) {
+            super.tryDeliver(o, asRaw);
+            return;
+        }
+
+        CompletableFuture<Void> result = add(o.get(), isAwaitSettlement());
+        if (isAwaitSettlement() || result.isDone()) {
+            settle(result);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> deliverAsync(Optional<Streamable> o, boolean asRaw) {
+        if (!o.isPresent()) {
+            return super.deliverAsync(o, asRaw);
+        }
+        return add(o.get(), false);
+    }
+
+    /**
+     * @param flush if the pending batch should be published right away
+     * @return the future completing once the batch of the notification has
+     * been settled
+     */
+    private CompletableFuture<Void> add(Streamable s, boolean flush) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        ByteBuffer body;
+        try {
+            body = s.asByteBuffer();
+        } catch (IOException ex) {
+            result.completeExceptionally(new DeliveryException("Could not prepare AMQP message for "
+                    + getEffectiveLocation(), ex, false));
+            return result;
+        }
+
+        synchronized (this) {
+            MessageTemplate template = getTemplate(s);
+            if (this.pending != null && template != this.pending.template) {
+                closeBatch();
+            }
+            if (this.pending == null) {
+                this.pending = new Batch(template, this.options.getMaxMessages());
+            }
+
+            this.pending.add(body, result);
+
+            if (flush || this.pending.size() >= this.options.getMaxMessages()
+                    || this.pending.bytes >= this.options.getMaxBytes() || this.timer == null) {
+                closeBatch();
+            }
+            else if (this.lingerTask == null) {
+                this.lingerTask = this.timer.schedule(this::flush, this.options.getLingerMillis(),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        sendReady();
+        return result;
+    }
+
+    /**
+     * publishes the pending notifications, if any
+     */
+    public void flush() {
+        synchronized (this) {
+            closeBatch();
+        }
+        sendReady();
+    }
+
+    /**
+     * moves the pending batch to the batches ready to be sent
+     */
+    private void closeBatch() {
+        if (this.lingerTask != null) {
+            this.lingerTask.cancel(false);
+            this.lingerTask = null;
+        }
+        if (this.pending == null) {
+            return;
+        }
+        if (this.ready == null) {
+            this.ready = new ArrayDeque<>();
+        }
+        this.ready.add(this.pending);
+        this.pending = null;
+    }
+
+    /**
+     * sends the ready batches in order. Only one thread sends at a time,
+     * batches closed meanwhile are sent by that thread
+     */
+    private void sendReady() {
+        synchronized (this) {
+            if (this.sending) {
+                return;
+            }
+            this.sending = true;
+        }
+
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                batch = this.ready == null ? null : this.ready.poll();
+                if (batch == null) {
+                    this.sending = false;
+                    return;
+                }
+            }
+            send(batch);
+        }
+    }
+
+    /**
+     * @return the number of notifications waiting to be published
+     */
+    public synchronized int getPendingCount() {
+        return this.pending == null ? 0 : this.pending.size();
+    }
+
+    private void send(Batch batch) {
+        LOG.debug("Delivering batch of {} notifications to '{}'", batch.size(), getEffectiveLocation());
+        try {
+            Publisher publisher = getPublisher();
+            if (this.options.isSequence()) {
+                batch.completeAll(reconnectOnTransportFailure(
+                        publisher.publishBinarySequenceAsync(batch.template, batch.bodies)));
+            }
+            else {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.complete(i, reconnectOnTransportFailure(
+                            publisher.publishAsync(batch.template, batch.bodies.get(i))));
+                }
+            }
+        } catch (DeliveryException e) {
+            batch.fail(e);
+        } catch (RuntimeException e) {
+            batch.fail(createPublishException(e));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flush();
+        super.destroy();
+    }
+
+    private class Batch {
+
+        private final MessageTemplate template;
+        private final List<ByteBuffer> bodies;
+        private final List<CompletableFuture<Void>> results;
+        private long bytes;
+
+        Batch(MessageTemplate template, int capacity) {
+            this.template = template;
+            this.bodies = new ArrayList<>(capacity);
+            this.results = new ArrayList<>(capacity);
+        }
+
+        void add(ByteBuffer body, CompletableFuture<Void> result) {
+            this.bodies.add(body);
+            this.results.add(result);
+            this.bytes += body.remaining();
+        }
+
+        int size() {
+            return this.bodies.size();
+        }
+
+        void complete(int index, CompletableFuture<Void> settlement) {
+            CompletableFuture<Void> result = this.results.get(index);
+            settlement.whenComplete((v, ex) -> {
+                if (ex != null) {
+                    result.completeExceptionally(createPublishException(ex));
+                }
+                else {
+                    result.complete(null);
+                }
+            });
+        }
+
+        void completeAll(CompletableFuture<Void> settlement) {
+            settlement.whenComplete((v, ex) -> {
+                if (ex != null) {
+                    fail(createPublishException(ex));
+                }
+                else {
+                    this.results.forEach(r -> r.complete(null));
+                }
+            });
+        }
+
+        void fail(DeliveryException e) {
+            this.results.forEach(r -> r.completeExceptionally(e));
+        }
+
+    }
+
+}
@@ -28,11 +28,30 @@
  */
 package org.n52.subverse.delivery.amqp;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.apache.qpid.proton.messenger.Status;
 import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Test;
+import org.n52.amqp.Connection;
+import org.n52.amqp.MessageTemplate;
+import org.n52.amqp.PublishFailedException;
+import org.n52.amqp.Publisher;
 import org.n52.subverse.delivery.DeliveryDefinition;
+import org.n52.subverse.delivery.DeliveryException;
+import org.n52.subverse.delivery.streamable.StringStreamable;
 
 /**
  *
@@ -63,4 +82,95 @@ public class AmqpDeliveryEndpointTest {
         Assert.assertThat(ep.getEffectiveLocation(), CoreMatchers.is("amqp://localhost"));
     }
 
+    @Test
+    public void testPipelinedFailureIsReported() throws URISyntaxException {
+        CompletableFuture<Void> settlement = new CompletableFuture<>();
+        Publisher publisher = new Publisher(new Connection(new URI("amqp://localhost"), null, null)) {
+            @Override
+            public CompletableFuture<Void> publishAsync(MessageTemplate template, ByteBuffer msg) {
+                return settlement;
+            }
+        };
+
+        DeliveryDefinition def = new DeliveryDefinition("amqp10", "localhost", "pubId", true);
+        AmqpDeliveryEndpoint ep = new AmqpDeliveryEndpoint(def, "amqp://localhost", new AmqpConnectionPool(1),
+                false) {
+            @Override
+            protected synchronized Publisher getPublisher() {
+                return publisher;
+            }
+        };
+
+        CompletableFuture<Void> result = ep.deliverAsync(Optional.of(new StringStreamable("msg")), false);
+        Assert.assertThat(result.isDone(), CoreMatchers.is(false));
+
+        settlement.completeExceptionally(new PublishFailedException(Status.REJECTED));
+        try {
+            result.join();
+            Assert.fail("the failed publication was not reported");
+        }
+        catch (CompletionException e) {
+            Assert.assertThat(e.getCause() instanceof DeliveryException, CoreMatchers.is(true));
+            Assert.assertThat(((DeliveryException) e.getCause()).isRetryable(), CoreMatchers.is(false));
+        }
+    }
+
+    @Test
+    public void testTransportFailureInvalidatesLease() throws Exception {
+        AmqpConnectionPool pool = new AmqpConnectionPool(1);
+        AmqpConnectionPool.Lease other = pool.acquire(URI.create("amqp://localhost/other"));
+        CompletableFuture<Void> rejection = new CompletableFuture<>();
+        CompletableFuture<Void> failure = new CompletableFuture<>();
+        Queue<CompletableFuture<Void>> settlements = new LinkedList<>(Arrays.asList(rejection, failure));
+        Publisher publisher = new Publisher(new Connection(new URI("amqp://localhost"), null, null)) {
+            @Override
+            public CompletableFuture<Void> publishAsync(MessageTemplate template, ByteBuffer msg) {
+                return settlements.poll();
+            }
+        };
+
+        DeliveryDefinition def = new DeliveryDefinition("amqp10", "localhost", "pubId", true);
+        AmqpDeliveryEndpoint ep = new AmqpDeliveryEndpoint(def, "amqp://localhost", pool, false) {
+            @Override
+            protected synchronized Publisher getPublisher() throws DeliveryException {
+                super.getPublisher();
+                return publisher;
+            }
+        };
+
+        CompletableFuture<Void> rejected = ep.deliverAsync(Optional.of(new StringStreamable("msg")), false);
+        rejection.completeExceptionally(new PublishFailedException(Status.REJECTED));
+        Assert.assertThat(rejected.isCompletedExceptionally(), CoreMatchers.is(true));
+        Assert.assertThat(other.isHealthy(), CoreMatchers.is(true));
+
+        CompletableFuture<Void> failed = ep.deliverAsync(Optional.of(new StringStreamable("msg")), false);
+        failure.completeExceptionally(new PublishFailedException("Messenger failed", new IllegalStateException()));
+        Assert.assertThat(failed.isCompletedExceptionally(), CoreMatchers.is(true));
+        Assert.assertThat(other.isHealthy(), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        AmqpConnectionPool pool = new AmqpConnectionPool(1);
+        DeliveryDefinition def = new DeliveryDefinition("amqp10", "localhost", "pubId", true);
+        AmqpDeliveryEndpoint ep = new AmqpDeliveryEndpoint(def, "amqp://localhost", pool);
+        Assert.assertThat(ep.getTemplate(new StringStreamable("<test/>")), CoreMatchers.notNullValue());
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(ep);
+        }
+        AmqpDeliveryEndpoint copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            copy = (AmqpDeliveryEndpoint) in.readObject();
+        }
+
+        Assert.assertThat(copy.getEffectiveLocation(), CoreMatchers.is(ep.getEffectiveLocation()));
+        Assert.assertThat(copy.getTemplate(new StringStreamable("<test/>")).getAddress(),
+                CoreMatchers.is(ep.getEffectiveLocation()));
+        copy.destroy();
+        ep.destroy();
+        pool.close();
+    }
+
 }
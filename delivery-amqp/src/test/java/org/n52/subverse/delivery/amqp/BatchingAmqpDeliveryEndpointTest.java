@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.amqp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.qpid.proton.messenger.Status;
+import org.hamcrest.CoreMatchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.amqp.Connection;
+import org.n52.amqp.ContentType;
+import org.n52.amqp.MessageTemplate;
+import org.n52.amqp.PublishFailedException;
+import org.n52.amqp.Publisher;
+import org.n52.subverse.delivery.DeliveryDefinition;
+import org.n52.subverse.delivery.DeliveryException;
+import org.n52.subverse.delivery.DeliveryParameter;
+import org.n52.subverse.delivery.streamable.StringStreamable;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BatchingAmqpDeliveryEndpointTest {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void shutdown() {
+        this.timer.shutdownNow();
+    }
+
+    @Test
+    public void testSequenceBatching() throws URISyntaxException, InterruptedException, DeliveryException {
+        List<List<String>> result = Collections.synchronizedList(new ArrayList<>());
+        BatchingAmqpDeliveryEndpoint ep = createEndpoint(new AmqpBatchOptions(3, 1024, 200, true), result);
+
+        for (int i = 0; i < 5; i++) {
+            ep.tryDeliver(Optional.of(new StringStreamable("msg" + i)), false);
+        }
+
+        Assert.assertThat(result.size(), CoreMatchers.is(1));
+        Assert.assertThat(result.get(0), CoreMatchers.is(Arrays.asList("msg0", "msg1", "msg2")));
+        Assert.assertThat(ep.getPendingCount(), CoreMatchers.is(2));
+
+        Thread.sleep(500);
+        Assert.assertThat(result.size(), CoreMatchers.is(2));
+        Assert.assertThat(result.get(1), CoreMatchers.is(Arrays.asList("msg3", "msg4")));
+        Assert.assertThat(ep.getPendingCount(), CoreMatchers.is(0));
+    }
+
+    @Test
+    public void testTransferBatching() throws URISyntaxException, DeliveryException {
+        List<List<String>> result = Collections.synchronizedList(new ArrayList<>());
+        BatchingAmqpDeliveryEndpoint ep = createEndpoint(new AmqpBatchOptions(2, 1024, 10000, false), result);
+
+        for (int i = 0; i < 3; i++) {
+            ep.tryDeliver(Optional.of(new StringStreamable("msg" + i)), false);
+        }
+        Assert.assertThat(result.size(), CoreMatchers.is(2));
+        Assert.assertThat(result.get(1), CoreMatchers.is(Collections.singletonList("msg1")));
+
+        ep.destroy();
+        Assert.assertThat(result.size(), CoreMatchers.is(3));
+    }
+
+    @Test
+    public void testMaxBytes() throws URISyntaxException, DeliveryException {
+        List<List<String>> result = Collections.synchronizedList(new ArrayList<>());
+        BatchingAmqpDeliveryEndpoint ep = createEndpoint(new AmqpBatchOptions(100, 10, 10000, true), result);
+
+        ep.tryDeliver(Optional.of(new StringStreamable("0123456")), false);
+        Assert.assertThat(result.size(), CoreMatchers.is(0));
+        ep.tryDeliver(Optional.of(new StringStreamable("0123456")), false);
+        Assert.assertThat(result.size(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void testFailedBatch() throws Exception {
+        Publisher publisher = new Publisher(new Connection(new URI("amqp://localhost"), null, null)) {
+            @Override
+            public CompletableFuture<Void> publishBinarySequenceAsync(MessageTemplate template,
+                    List<ByteBuffer> msgs) {
+                CompletableFuture<Void> result = new CompletableFuture<>();
+                result.completeExceptionally(new PublishFailedException(Status.ABORTED));
+                return result;
+            }
+        };
+        DeliveryDefinition def = new DeliveryDefinition("amqp10", "localhost", "pubId", true);
+        BatchingAmqpDeliveryEndpoint ep = new BatchingAmqpDeliveryEndpoint(def, "amqp://localhost",
+                new AmqpConnectionPool(1), false, new AmqpBatchOptions(2, 1024, 10000, true), this.timer) {
+            @Override
+            protected synchronized Publisher getPublisher() {
+                return publisher;
+            }
+        };
+
+        CompletableFuture<Void> first = ep.deliverAsync(Optional.of(new StringStreamable("msg0")), false);
+        Assert.assertThat(first.isDone(), CoreMatchers.is(false));
+        CompletableFuture<Void> second = ep.deliverAsync(Optional.of(new StringStreamable("msg1")), false);
+
+        /*
+         * both notifications of the batch are reported as retryable failures
+         */
+        for (CompletableFuture<Void> f : Arrays.asList(first, second)) {
+            try {
+                f.get(5, TimeUnit.SECONDS);
+                Assert.fail("batch failed");
+            } catch (ExecutionException e) {
+                Assert.assertThat(e.getCause(), CoreMatchers.instanceOf(DeliveryException.class));
+                Assert.assertThat(((DeliveryException) e.getCause()).isRetryable(), CoreMatchers.is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testParameters() {
+        List<DeliveryParameter> params = new ArrayList<>();
+        Assert.assertThat(AmqpBatchOptions.fromParameters(params).isPresent(), CoreMatchers.is(false));
+
+        params.add(new DeliveryParameter("integer", AmqpDeliveryProvider.EXTENSION_NAMESPACE,
+                AmqpBatchOptions.MAX_MESSAGES, "50"));
+        params.add(new DeliveryParameter("boolean", AmqpDeliveryProvider.EXTENSION_NAMESPACE,
+                AmqpBatchOptions.SEQUENCE, "false"));
+        params.add(new DeliveryParameter("integer", "http://other", AmqpBatchOptions.LINGER, "5"));
+
+        AmqpBatchOptions options = AmqpBatchOptions.fromParameters(params).get();
+        Assert.assertThat(options.getMaxMessages(), CoreMatchers.is(50));
+        Assert.assertThat(options.isSequence(), CoreMatchers.is(false));
+        Assert.assertThat(options.getLingerMillis(), CoreMatchers.is(AmqpBatchOptions.DEFAULT_LINGER));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        DeliveryDefinition def = new DeliveryDefinition("amqp10", "localhost", "pubId", true);
+        AmqpConnectionPool pool = new AmqpConnectionPool(1);
+        BatchingAmqpDeliveryEndpoint ep = new BatchingAmqpDeliveryEndpoint(def, "amqp://localhost", pool, false,
+                new AmqpBatchOptions(100, 1024, 10000, true), this.timer);
+        ep.deliver(Optional.of(new StringStreamable("msg")), false);
+        Assert.assertThat(ep.getPendingCount(), CoreMatchers.is(1));
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(ep);
+        }
+        BatchingAmqpDeliveryEndpoint copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            copy = (BatchingAmqpDeliveryEndpoint) in.readObject();
+        }
+
+        Assert.assertThat(copy.getEffectiveLocation(), CoreMatchers.is(ep.getEffectiveLocation()));
+        Assert.assertThat(copy.getPendingCount(), CoreMatchers.is(0));
+        copy.destroy();
+        pool.close();
+    }
+
+    private BatchingAmqpDeliveryEndpoint createEndpoint(AmqpBatchOptions options, List<List<String>> result)
+            throws URISyntaxException {
+        Publisher publisher = new Publisher(new Connection(new URI("amqp://localhost"), null, null)) {
+            @Override
+            public CompletableFuture<Void> publishBinarySequenceAsync(MessageTemplate template,
+                    List<ByteBuffer> msgs) {
+                List<String> batch = new ArrayList<>();
+                msgs.forEach(m -> batch.add(decode(m, template.getContentType())));
+                result.add(batch);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public CompletableFuture<Void> publishAsync(MessageTemplate template, ByteBuffer msg) {
+                result.add(Collections.singletonList(decode(msg, template.getContentType())));
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+
+        DeliveryDefinition def = new DeliveryDefinition("amqp10", "localhost", "pubId", true);
+        return new BatchingAmqpDeliveryEndpoint(def, "amqp://localhost", new AmqpConnectionPool(1), false,
+                options, this.timer) {
+            @Override
+            protected synchronized Publisher getPublisher() {
+                return publisher;
+            }
+        };
+    }
+
+    private static String decode(ByteBuffer body, ContentType ct) {
+        return ct.getCharset().orElse(StandardCharsets.UTF_8).decode(body.duplicate()).toString();
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.wsn;
+
+/**
+ * Limits the requests in flight to a single consumer and adjusts the limit
+ * to the round-trip times observed. The limit grows while the latency
+ * stays close to the long-term average (gradient) and is cut
+ * multiplicatively on errors and timeouts (AIMD), so each consumer
+ * converges to the concurrency it can sustain.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class AdaptiveConcurrencyLimit {
+
+    /*
+     * the factor applied to the limit on errors
+     */
+    static final double BACKOFF_RATIO = 0.9;
+
+    /*
+     * the weight of a sample in the long-term latency
+     */
+    private static final double LONG_RTT_WEIGHT = 0.05;
+
+    /*
+     * the weight of a newly computed limit
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private double longRtt = -1;
+
+    /**
+     * @param initialLimit the limit to start with
+     * @param minLimit the lower bound of the limit
+     * @param maxLimit the upper bound of the limit. If equal to the lower
+     * bound the limit is fixed
+     */
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException(String.format("Invalid limits: %s to %s", minLimit, maxLimit));
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * waits until fewer requests than the current limit are in flight
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (this.inFlight >= getLimit()) {
+            wait();
+        }
+        this.inFlight++;
+    }
+
+    /**
+     * releases a request that was successfully answered
+     *
+     * @param rtt the round-trip time in nanoseconds
+     */
+    synchronized void onSuccess(long rtt) {
+        int previousInFlight = this.inFlight;
+        release();
+        if (this.minLimit == this.maxLimit) {
+            return;
+        }
+
+        this.longRtt = this.longRtt < 0 ? rtt : (1 - LONG_RTT_WEIGHT) * this.longRtt + LONG_RTT_WEIGHT * rtt;
+
+        /*
+         * the consumer was not the bottleneck, so the sample says nothing
+         * about a higher limit
+         */
+        if (previousInFlight * 2 < this.limit) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, this.longRtt / Math.max(rtt, 1)));
+        double newLimit = this.limit * gradient + Math.sqrt(this.limit);
+        update((1 - SMOOTHING) * this.limit + SMOOTHING * newLimit);
+    }
+
+    /**
+     * releases a request that failed or was rejected due to overload
+     */
+    synchronized void onDropped() {
+        release();
+        update(this.limit * BACKOFF_RATIO);
+    }
+
+    /**
+     * releases a request without adjusting the limit, e.g. if it was cancelled
+     */
+    synchronized void onIgnored() {
+        release();
+    }
+
+    synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    private void release() {
+        this.inFlight--;
+        notifyAll();
+    }
+
+    private void update(double newLimit) {
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, newLimit));
+    }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.wsn;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpEntity;
+import org.n52.subverse.delivery.DeliveryException;
+import org.n52.subverse.delivery.Streamable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the notifications for one consumer into Notify messages with
+ * several NotificationMessage elements. Raw deliveries cannot be combined
+ * and are sent one by one. Batches are sent outside the lock of this
+ * endpoint, one at a time and in order. Batches whose linger time has
+ * elapsed are sent by the sender executor, so a slow consumer does not
+ * block the timer shared by all endpoints. The futures returned by
+ * {@link #deliverAsync(Optional, boolean)} complete once the consumer has
+ * accepted the batch of the notification, and fail if it could not be
+ * delivered.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BatchingWsnConsumerEndpoint extends WsnConsumerEndpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingWsnConsumerEndpoint.class);
+
+    private final WsnBatchOptions options;
+
+    /*
+     * the batch state is not serialized, a deserialized endpoint starts
+     * with an empty batch and sends without lingering. All of it is
+     * guarded by the lock of this endpoint
+     */
+    private final transient ScheduledExecutorService timer;
+    private final transient Executor sender;
+    private transient Batch pending;
+    private transient ScheduledFuture<?> lingerTask;
+    private transient Deque<Batch> ready;
+    private transient boolean sending;
+
+    /**
+     * @param location the URL of the consumer
+     * @param client the HTTP client, shared with other endpoints
+     * @param options the batch limits
+     * @param timer sends batches whose linger time has elapsed
+     * @throws MalformedURLException if the location is not a URL
+     */
+    public BatchingWsnConsumerEndpoint(String location, WsnHttpClient client,
+            WsnBatchOptions options, ScheduledExecutorService timer) throws MalformedURLException {
+        this(location, client, options, timer, null);
+    }
+
+    /**
+     * @param location the URL of the consumer
+     * @param client the HTTP client, shared with other endpoints
+     * @param options the batch limits
+     * @param timer closes batches whose linger time has elapsed
+     * @param sender sends the batches closed by the timer. If null, the
+     * timer sends them
+     * @throws MalformedURLException if the location is not a URL
+     */
+    public BatchingWsnConsumerEndpoint(String location, WsnHttpClient client,
+            WsnBatchOptions options, ScheduledExecutorService timer, Executor sender)
+            throws MalformedURLException {
+        super(location, client);
+        this.options = options;
+        this.timer = timer;
+        this.sender = sender;
+    }
+
+    /**
+     * failed batches are logged once by {@link #send(Batch)}
+     */
+    @Override
+    public void deliver(Optional<Streamable> o, boolean useRaw) {
+        if (useRaw || !o.isPresent()) {
+            super.deliver(o, useRaw);
+            return;
+        }
+        add(o.get());
+    }
+
+    /**
+     * sends the pending batch with the notification and waits for the
+     * outcome
+     */
+    @Override
+    public void tryDeliver(Optional<Streamable> o, boolean useRaw) throws DeliveryException {
+        if (useRaw || !o.isPresent()) {
+            super.tryDeliver(o, useRaw);
+            return;
+        }
+
+        CompletableFuture<Void> result = add(o.get());
+        flush();
+        try {
+            result.get();
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof DeliveryException) {
+                throw (DeliveryException) ex.getCause();
+            }
+            throw new DeliveryException("Could not send request to " + getEffectiveLocation(), ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DeliveryException("Interrupted while waiting for " + getEffectiveLocation(), ex);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> deliverAsync(Optional<Streamable> o, boolean useRaw) {
+        if (useRaw || !o.isPresent()) {
+            return super.deliverAsync(o, useRaw);
+        }
+        return add(o.get());
+    }
+
+    /**
+     * @return the future completing once the batch of the notification has
+     * been accepted by the consumer
+     */
+    private CompletableFuture<Void> add(Streamable s) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        synchronized (this) {
+            if (this.pending == null) {
+                this.pending = new Batch(this.options.getMaxMessages());
+            }
+            this.pending.add(s, result);
+
+            if (this.pending.size() >= this.options.getMaxMessages()
+                    || this.pending.bytes >= this.options.getMaxBytes() || this.timer == null) {
+                closeBatch();
+            }
+            else if (this.lingerTask == null) {
+                this.lingerTask = this.timer.schedule(this::lingerElapsed, this.options.getLingerMillis(),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        sendReady();
+        return result;
+    }
+
+    /**
+     * sends the pending notifications, if any
+     */
+    public void flush() {
+        synchronized (this) {
+            closeBatch();
+        }
+        sendReady();
+    }
+
+    private void lingerElapsed() {
+        synchronized (this) {
+            this.lingerTask = null;
+            closeBatch();
+        }
+        if (this.sender != null) {
+            try {
+                this.sender.execute(this::sendReady);
+                return;
+            }
+            catch (RejectedExecutionException e) {
+                LOG.debug("Batch sender rejected the batch for '{}', sending it on the timer",
+                        getEffectiveLocation());
+            }
+        }
+        sendReady();
+    }
+
+    /**
+     * moves the pending batch to the batches ready to be sent
+     */
+    private void closeBatch() {
+        if (this.lingerTask != null) {
+            this.lingerTask.cancel(false);
+            this.lingerTask = null;
+        }
+        if (this.pending == null) {
+            return;
+        }
+        if (this.ready == null) {
+            this.ready = new ArrayDeque<>();
+        }
+        this.ready.add(this.pending);
+        this.pending = null;
+    }
+
+    /**
+     * sends the ready batches in order. Only one thread sends at a time,
+     * batches closed meanwhile are sent by that thread
+     */
+    private void sendReady() {
+        synchronized (this) {
+            if (this.sending) {
+                return;
+            }
+            this.sending = true;
+        }
+
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                batch = this.ready == null ? null : this.ready.poll();
+                if (batch == null) {
+                    this.sending = false;
+                    return;
+                }
+            }
+            send(batch);
+        }
+    }
+
+    /**
+     * @return the number of notifications waiting to be sent
+     */
+    public synchronized int getPendingCount() {
+        return this.pending == null ? 0 : this.pending.size();
+    }
+
+    private void send(Batch batch) {
+        LOG.debug("Delivering batch of {} notifications to '{}'", batch.size(), getEffectiveLocation());
+        try {
+            Optional<Streamable> first = Optional.of(batch.notifications.get(0));
+            HttpEntity payload = createNotifyPayload(batch.notifications);
+            if (isAsynchronous()) {
+                sendPayloadAsync(first, payload).whenComplete((v, e) -> batch.complete(e));
+            }
+            else {
+                sendPayload(first, payload);
+                batch.complete(null);
+            }
+        }
+        catch (IOException e) {
+            batch.complete(new DeliveryException("Could not encode batch for " + getEffectiveLocation(), e,
+                    false));
+        }
+        catch (DeliveryException | RuntimeException e) {
+            batch.complete(e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flush();
+        super.destroy();
+    }
+
+    private class Batch {
+
+        private final List<Streamable> notifications;
+        private final List<CompletableFuture<Void>> results;
+        private long bytes;
+
+        Batch(int capacity) {
+            this.notifications = new ArrayList<>(capacity);
+            this.results = new ArrayList<>(capacity);
+        }
+
+        void add(Streamable s, CompletableFuture<Void> result) {
+            this.notifications.add(s);
+            this.results.add(result);
+            this.bytes += Math.max(s.getContentLength(), 0);
+        }
+
+        int size() {
+            return this.notifications.size();
+        }
+
+        void complete(Throwable failure) {
+            if (failure == null) {
+                this.results.forEach(r -> r.complete(null));
+                return;
+            }
+            LOG.warn("Could not deliver batch of {} notifications to '{}': {}", size(), getEffectiveLocation(),
+                    failure.getMessage());
+            LOG.debug(failure.getMessage(), failure);
+            this.results.forEach(r -> r.completeExceptionally(failure));
+        }
+
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.wsn;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.xmlbeans.XmlObject;
+import org.n52.subverse.delivery.Streamable;
+
+/**
+ * A SOAP 1.2 envelope written directly to the request. The envelope and
+ * Notify markup are constant byte sequences; the notifications are copied
+ * from their {@link Streamable}s while the request is sent, so the
+ * payloads are never copied into an intermediate document.
+ *
+ * XML payloads are inserted as they are streamed, all other payloads are
+ * wrapped in a CDATA section.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SoapEnvelopeEntity extends AbstractHttpEntity {
+
+    public static final String SOAP_NAMESPACE = "http://www.w3.org/2003/05/soap-envelope";
+    public static final String WSN_NAMESPACE = "http://docs.oasis-open.org/wsn/b-2";
+
+    private static final byte[] ENVELOPE_PREFIX = utf8("<soap:Envelope xmlns:soap=\"" + SOAP_NAMESPACE
+            + "\"><soap:Body>");
+    private static final byte[] ENVELOPE_SUFFIX = utf8("</soap:Body></soap:Envelope>");
+    private static final byte[] NOTIFY_PREFIX = utf8("<soap:Envelope xmlns:soap=\"" + SOAP_NAMESPACE
+            + "\"><soap:Body><wsnt:Notify xmlns:wsnt=\"" + WSN_NAMESPACE + "\">");
+    private static final byte[] NOTIFY_SUFFIX = utf8("</wsnt:Notify></soap:Body></soap:Envelope>");
+    private static final byte[] MESSAGE_PREFIX = utf8("<wsnt:NotificationMessage><wsnt:Message>");
+    private static final byte[] MESSAGE_SUFFIX = utf8("</wsnt:Message></wsnt:NotificationMessage>");
+    private static final byte[] CDATA_PREFIX = utf8("<![CDATA[");
+    private static final byte[] CDATA_SUFFIX = utf8("]]>");
+    private static final byte[] CDATA_MESSAGE_PREFIX = utf8("<wsnt:NotificationMessage><wsnt:Message><![CDATA[");
+    private static final byte[] CDATA_MESSAGE_SUFFIX = utf8("]]></wsnt:Message></wsnt:NotificationMessage>");
+
+    /*
+     * "]]>" must not appear in a CDATA section: it is split into two sections
+     */
+    private static final byte[] CDATA_END_ESCAPED = utf8("]]]]><![CDATA[>");
+
+    private final List<Part> parts;
+    private final long contentLength;
+
+    private SoapEnvelopeEntity(List<Part> parts) {
+        this.parts = parts;
+        long length = 0;
+        for (Part p : parts) {
+            if (p.length() < 0) {
+                length = -1;
+                break;
+            }
+            length += p.length();
+        }
+        this.contentLength = length;
+    }
+
+    /**
+     * @param o the notification
+     * @return an envelope with the notification as its body
+     * @throws IOException on errors reading a non-XML payload
+     */
+    public static SoapEnvelopeEntity raw(Streamable o) throws IOException {
+        List<Part> parts = new ArrayList<>(5);
+        parts.add(new BytesPart(ENVELOPE_PREFIX));
+        if (isXml(o)) {
+            parts.add(new StreamablePart(o));
+        }
+        else {
+            parts.add(new BytesPart(CDATA_PREFIX));
+            parts.add(cdataContent(o));
+            parts.add(new BytesPart(CDATA_SUFFIX));
+        }
+        parts.add(new BytesPart(ENVELOPE_SUFFIX));
+        return new SoapEnvelopeEntity(parts);
+    }
+
+    /**
+     * @param batch the notifications
+     * @return an envelope with a Notify holding one NotificationMessage
+     * per notification
+     * @throws IOException on errors reading a non-XML payload
+     */
+    public static SoapEnvelopeEntity notify(List<Streamable> batch) throws IOException {
+        List<Part> parts = new ArrayList<>(batch.size() * 3 + 2);
+        parts.add(new BytesPart(NOTIFY_PREFIX));
+        for (Streamable o : batch) {
+            if (isXml(o)) {
+                parts.add(new BytesPart(MESSAGE_PREFIX));
+                parts.add(new StreamablePart(o));
+                parts.add(new BytesPart(MESSAGE_SUFFIX));
+            }
+            else {
+                parts.add(new BytesPart(CDATA_MESSAGE_PREFIX));
+                parts.add(cdataContent(o));
+                parts.add(new BytesPart(CDATA_MESSAGE_SUFFIX));
+            }
+        }
+        parts.add(new BytesPart(NOTIFY_SUFFIX));
+        return new SoapEnvelopeEntity(parts);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return this.contentLength;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        List<InputStream> streams = new ArrayList<>(this.parts.size());
+        for (Part p : this.parts) {
+            streams.add(p.open());
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        for (Part p : this.parts) {
+            p.writeTo(out);
+        }
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * XML objects, and encoded XML without the original object (e.g. read
+     * from the dead letter spool)
+     */
+    private static boolean isXml(Streamable o) {
+        if (o.originalObject() instanceof XmlObject) {
+            return true;
+        }
+        String ct = o.getContentType();
+        return o.originalObject() instanceof byte[] && ct != null && ct.contains("xml");
+    }
+
+    /**
+     * the content is streamed as it is, unless it has to be transcoded to
+     * UTF-8 or contains the end of a CDATA section
+     */
+    private static Part cdataContent(Streamable o) throws IOException {
+        ByteBuffer content = o.asByteBuffer();
+        if (!StandardCharsets.UTF_8.equals(o.getCharset())) {
+            content = StandardCharsets.UTF_8.encode(o.getCharset().decode(content));
+        }
+        else if (!containsCDataEnd(content)) {
+            return new StreamablePart(o);
+        }
+
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return new BytesPart(escapeCData(bytes));
+    }
+
+    private static boolean containsCDataEnd(ByteBuffer content) {
+        for (int i = content.position(); i < content.limit() - 2; i++) {
+            if (content.get(i) == ']' && content.get(i + 1) == ']' && content.get(i + 2) == '>') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] escapeCData(byte[] content) {
+        int count = 0;
+        for (int i = 0; i < content.length - 2; i++) {
+            if (isCDataEnd(content, i)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return content;
+        }
+
+        byte[] result = new byte[content.length + count * (CDATA_END_ESCAPED.length - 3)];
+        int pos = 0;
+        int i = 0;
+        while (i < content.length) {
+            if (i < content.length - 2 && isCDataEnd(content, i)) {
+                System.arraycopy(CDATA_END_ESCAPED, 0, result, pos, CDATA_END_ESCAPED.length);
+                pos += CDATA_END_ESCAPED.length;
+                i += 3;
+            }
+            else {
+                result[pos++] = content[i++];
+            }
+        }
+        return result;
+    }
+
+    private static boolean isCDataEnd(byte[] content, int i) {
+        return content[i] == ']' && content[i + 1] == ']' && content[i + 2] == '>';
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private interface Part {
+
+        long length();
+
+        InputStream open() throws IOException;
+
+        void writeTo(OutputStream out) throws IOException;
+
+    }
+
+    private static class BytesPart implements Part {
+
+        private final byte[] bytes;
+
+        BytesPart(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long length() {
+            return this.bytes.length;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(this.bytes);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(this.bytes);
+        }
+
+    }
+
+    private static class StreamablePart implements Part {
+
+        private final Streamable streamable;
+
+        StreamablePart(Streamable streamable) {
+            this.streamable = streamable;
+        }
+
+        @Override
+        public long length() {
+            return this.streamable.getContentLength();
+        }
+
+        @Override
+        public InputStream open() {
+            return this.streamable.asStream();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            this.streamable.writeTo(out);
+        }
+
+    }
+
+}
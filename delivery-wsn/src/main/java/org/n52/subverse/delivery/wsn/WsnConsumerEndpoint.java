@@ -28,31 +28,22 @@
  */
 package org.n52.subverse.delivery.wsn;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.xmlbeans.CDataBookmark;
-import org.apache.xmlbeans.XmlAnySimpleType;
-import org.apache.xmlbeans.XmlCursor;
-import org.apache.xmlbeans.XmlObject;
-import org.apache.xmlbeans.XmlOptions;
 import org.n52.subverse.delivery.DeliveryEndpoint;
+import org.n52.subverse.delivery.DeliveryException;
 import org.n52.subverse.delivery.Streamable;
-import org.oasisOpen.docs.wsn.b2.NotificationMessageHolderType;
-import org.oasisOpen.docs.wsn.b2.NotifyDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3.x2003.x05.soapEnvelope.Body;
-import org.w3.x2003.x05.soapEnvelope.Envelope;
-import org.w3.x2003.x05.soapEnvelope.EnvelopeDocument;
 
 /**
  *
@@ -62,90 +53,189 @@ public class WsnConsumerEndpoint implements DeliveryEndpoint {
 
     private static final Logger LOG = LoggerFactory.getLogger(WsnConsumerEndpoint.class);
     private final URL targetUrl;
-    private final XmlOptions xmlOptions;
+    private final transient WsnHttpClient client;
 
 
-    public WsnConsumerEndpoint(String location, XmlOptions xo) throws MalformedURLException {
+    public WsnConsumerEndpoint(String location) throws MalformedURLException {
+        this(location, new WsnHttpClient());
+    }
+
+    /**
+     * @param location the URL of the consumer
+     * @param client the HTTP client, shared with other endpoints
+     * @throws MalformedURLException if the location is not a URL
+     */
+    public WsnConsumerEndpoint(String location, WsnHttpClient client) throws MalformedURLException {
         this.targetUrl = new URL(location);
-        this.xmlOptions = xo;
+        this.client = client;
     }
 
     @Override
     public void deliver(Optional<Streamable> o, boolean useRaw) {
+        deliverAsync(o, useRaw).whenComplete((v, e) -> {
+            if (e != null) {
+                LOG.warn("Could not deliver to '{}': {}", this.targetUrl, e.getMessage());
+                LOG.debug(e.getMessage(), e);
+            }
+        });
+    }
+
+    @Override
+    public void tryDeliver(Optional<Streamable> o, boolean useRaw) throws DeliveryException {
         LOG.debug("Delivering object to '{}': {}", targetUrl, o);
 
-        if (o.isPresent()) {
-            try {
-                byte[] payload = createPayload(o.get(), useRaw);
+        if (!o.isPresent()) {
+            LOG.warn("Got null object, cannot deliver");
+            return;
+        }
 
-                sendPayload(o, payload);
-            }
-            catch (IOException e) {
-                LOG.warn("Could not delivery streamable {}", o, e);
-            }
+        sendPayload(o, createPayload(o.get(), useRaw));
+    }
+
+    /**
+     * in asynchronous mode, the returned future completes once the consumer
+     * has responded, without blocking the caller
+     */
+    @Override
+    public CompletableFuture<Void> deliverAsync(Optional<Streamable> o, boolean useRaw) {
+        if (!this.client.isAsynchronous() || !o.isPresent()) {
+            return DeliveryEndpoint.super.deliverAsync(o, useRaw);
         }
-        else {
-            LOG.warn("Got null object, cannot deliver");
+
+        LOG.debug("Delivering object to '{}': {}", targetUrl, o);
+        try {
+            return sendPayloadAsync(o, createPayload(o.get(), useRaw));
+        }
+        catch (DeliveryException e) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
         }
     }
 
-    protected void sendPayload(Optional<Streamable> o, byte[] payload) {
-        try (CloseableHttpClient
-                client = HttpClients.createDefault()) {
-            HttpPost post = new HttpPost(this.targetUrl.toURI());
-            post.setEntity(new ByteArrayEntity(payload));
-            post.addHeader("Content-Type", o.get().getContentType() != null ? o.get().getContentType() : "application/soap+xml");
-            client.execute(post);
+    private HttpEntity createPayload(Streamable s, boolean useRaw) throws DeliveryException {
+        try {
+            return useRaw ? SoapEnvelopeEntity.raw(s) : createNotifyPayload(Collections.singletonList(s));
         }
-        catch (IOException | URISyntaxException ex) {
-            LOG.warn("could not send request", ex);
+        catch (IOException e) {
+            throw new DeliveryException("Could not encode streamable " + s, e, false);
         }
     }
 
-    private byte[] createPayload(Streamable o, boolean useRaw) throws IOException {
-        EnvelopeDocument envDoc = EnvelopeDocument.Factory.newInstance();
-        Envelope env = envDoc.addNewEnvelope();
-        Body body = env.addNewBody();
+    /**
+     * @return if requests are sent with the asynchronous client
+     */
+    protected boolean isAsynchronous() {
+        return this.client.isAsynchronous();
+    }
 
-        if (useRaw) {
-            createMessageContent(body, o);
+    /**
+     * sends the payload. In asynchronous mode, waits for the response.
+     *
+     * @param o the notification
+     * @param payload the request entity
+     * @throws DeliveryException if the request failed or was rejected
+     */
+    protected void sendPayload(Optional<Streamable> o, HttpEntity payload) throws DeliveryException {
+        try {
+            if (this.client.isAsynchronous()) {
+                sendPayloadAsync(o, payload).get();
+            }
+            else {
+                int status = this.client.execute(createPost(o, payload));
+                if (status >= 300) {
+                    throw createStatusException(status);
+                }
+            }
         }
-        else {
-            NotifyDocument notifyDoc = NotifyDocument.Factory.newInstance();
-            NotifyDocument.Notify notify = notifyDoc.addNewNotify();
-            NotificationMessageHolderType msg = notify.addNewNotificationMessage();
-            NotificationMessageHolderType.Message message = msg.addNewMessage();
-            createMessageContent(message, o);
-            body.set(notifyDoc);
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof DeliveryException) {
+                throw (DeliveryException) ex.getCause();
+            }
+            throw new DeliveryException("Could not send request to " + this.targetUrl, ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DeliveryException("Interrupted while waiting for " + this.targetUrl, ex);
+        }
+        catch (IOException ex) {
+            throw new DeliveryException("Could not send request to " + this.targetUrl, ex);
         }
-
-        return envDoc.xmlText(this.xmlOptions.setUseCDataBookmarks()).getBytes();
     }
 
-    private void createMessageContent(XmlObject msg, Streamable o) throws IOException {
-        if (o.originalObject() instanceof XmlObject) {
-            msg.set((XmlObject) o.originalObject());
+    /**
+     * sends the payload with the asynchronous client. Blocks only while
+     * the consumer has its limit of requests in flight.
+     *
+     * @param o the notification
+     * @param payload the request entity
+     * @return the outcome, completed exceptionally with a
+     * {@link DeliveryException} if the request failed or was rejected
+     */
+    protected CompletableFuture<Void> sendPayloadAsync(Optional<Streamable> o, HttpEntity payload) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            this.client.executeAsync(createPost(o, payload), getEffectiveLocation()).whenComplete((status, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(new DeliveryException("Could not send request to "
+                            + this.targetUrl, e));
+                }
+                else if (status >= 300) {
+                    result.completeExceptionally(createStatusException(status));
+                }
+                else {
+                    result.complete(null);
+                }
+            });
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(new DeliveryException("Interrupted while waiting to send to "
+                    + this.targetUrl, ex));
         }
-        else {
-            StringBuilder sb = new StringBuilder();
-            createStringFromStreamable(sb, o);
-            XmlAnySimpleType any = XmlAnySimpleType.Factory.newInstance();
-            any.setStringValue(sb.toString());
-            XmlCursor cur = any.newCursor();
-            cur.toFirstContentToken();
-            cur.setBookmark(CDataBookmark.CDATA_BOOKMARK);
-            cur.dispose();
-            msg.set(any);
+        catch (DeliveryException | RuntimeException ex) {
+            result.completeExceptionally(ex);
         }
+        return result;
     }
 
-    private void createStringFromStreamable(StringBuilder sb, Streamable o) throws IOException {
-        InputStream is = o.asStream();
-        while (is.available() > 0) {
-            sb.append((char) is.read());
+    private HttpPost createPost(Optional<Streamable> o, HttpEntity payload) throws DeliveryException {
+        try {
+            HttpPost post = new HttpPost(this.targetUrl.toURI());
+            post.setEntity(payload);
+            post.addHeader("Content-Type", o.get().getContentType() != null ? o.get().getContentType() : "application/soap+xml");
+            return post;
+        }
+        catch (URISyntaxException ex) {
+            throw new DeliveryException("Invalid consumer URL " + this.targetUrl, ex, false);
         }
     }
 
+    private DeliveryException createStatusException(int status) {
+        return new DeliveryException(String.format("Consumer '%s' responded with status %s",
+                this.targetUrl, status), null, isRetryable(status));
+    }
+
+    /**
+     * server errors, timeouts and throttling are temporary, all other
+     * responses reject the notification
+     */
+    static boolean isRetryable(int status) {
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    /**
+     * creates a single Notify envelope holding one NotificationMessage
+     * per streamable
+     *
+     * @param batch the streamables to notify
+     * @return the envelope, streaming the notifications when sent
+     * @throws IOException on errors reading a streamable
+     */
+    protected HttpEntity createNotifyPayload(List<Streamable> batch) throws IOException {
+        return SoapEnvelopeEntity.notify(batch);
+    }
+
     @Override
     public String getEffectiveLocation() {
         return this.targetUrl.toString();
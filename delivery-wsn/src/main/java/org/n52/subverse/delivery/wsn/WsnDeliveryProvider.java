@@ -28,43 +28,141 @@
  */
 package org.n52.subverse.delivery.wsn;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.net.MalformedURLException;
 import java.util.Collections;
 import java.util.Map;
-import javax.inject.Inject;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.n52.iceland.config.annotation.Configurable;
+import org.n52.iceland.config.annotation.Setting;
+import org.n52.iceland.lifecycle.Destroyable;
+import org.n52.subverse.SubverseSettings;
 import org.n52.subverse.delivery.DeliveryDefinition;
 import org.n52.subverse.delivery.DeliveryEndpoint;
+import org.n52.subverse.delivery.DeliveryParameter;
 import org.n52.subverse.delivery.DeliveryProvider;
 import org.n52.subverse.delivery.UnsupportedDeliveryDefinitionException;
-import org.n52.svalbard.xml.XmlOptionsHelper;
 
 /**
+ * Creates WS-N endpoints. All endpoints share the pooled
+ * {@link WsnHttpClient} of the provider. Subscriptions requesting
+ * batching (see {@link WsnBatchOptions}) get a
+ * {@link BatchingWsnConsumerEndpoint}.
  *
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
-public class WsnDeliveryProvider implements DeliveryProvider {
+@Configurable
+public class WsnDeliveryProvider implements DeliveryProvider, Destroyable {
 
     private static final String IDENTIFIER = "http://docs.oasis-open.org/wsn/b-2/NotificationConsumer";
     private static final String ABSTRACT = "WS-BaseNotification allows a NotificationConsumer to receive a Notification in one of two forms:\n" +
             "\n 1. The NotificationConsumer MAY simply receive the \"raw\" Notification (i.e. the application-specific content).\n" +
             "\n 2. The NotificationConsumer MAY receive the Notification data as a Notify message as described below.";
 
-    private XmlOptionsHelper xmlOptions;
+    private final WsnHttpClient httpClient = new WsnHttpClient();
+    private ScheduledExecutorService batchTimer;
+    private ExecutorService batchSender;
 
-    @Inject
-    public void setXmlOptions(XmlOptionsHelper xmlOptions) {
-        this.xmlOptions = xmlOptions;
+    @Setting(SubverseSettings.WSN_MAX_CONNECTIONS)
+    public void setMaxConnections(int max) {
+        this.httpClient.setMaxConnections(max);
+    }
+
+    @Setting(SubverseSettings.WSN_MAX_CONNECTIONS_PER_ROUTE)
+    public void setMaxConnectionsPerRoute(int max) {
+        this.httpClient.setMaxConnectionsPerRoute(max);
+    }
+
+    @Setting(SubverseSettings.WSN_CONNECT_TIMEOUT)
+    public void setConnectTimeout(int timeout) {
+        this.httpClient.setConnectTimeout(timeout);
+    }
+
+    @Setting(SubverseSettings.WSN_SOCKET_TIMEOUT)
+    public void setSocketTimeout(int timeout) {
+        this.httpClient.setSocketTimeout(timeout);
+    }
+
+    @Setting(SubverseSettings.WSN_IDLE_TIMEOUT)
+    public void setIdleTimeout(int timeout) {
+        this.httpClient.setIdleTimeout(timeout);
+    }
+
+    @Setting(SubverseSettings.WSN_ASYNCHRONOUS)
+    public void setAsynchronous(boolean asynchronous) {
+        this.httpClient.setAsynchronous(asynchronous);
+    }
+
+    @Setting(SubverseSettings.WSN_MAX_IN_FLIGHT_PER_CONSUMER)
+    public void setMaxInFlightPerConsumer(int max) {
+        this.httpClient.setMaxInFlightPerConsumer(max);
+    }
+
+    @Setting(SubverseSettings.WSN_ADAPTIVE_IN_FLIGHT)
+    public void setAdaptiveInFlight(boolean adaptive) {
+        this.httpClient.setAdaptiveInFlight(adaptive);
     }
 
     @Override
     public DeliveryEndpoint createDeliveryEndpoint(DeliveryDefinition def) throws UnsupportedDeliveryDefinitionException {
+        Optional<WsnBatchOptions> batch;
         try {
-            return new WsnConsumerEndpoint(def.getLocation(), this.xmlOptions.create());
+            batch = WsnBatchOptions.fromParameters(def.getParameters());
+        } catch (IllegalArgumentException ex) {
+            throw new UnsupportedDeliveryDefinitionException("Invalid batch parameters: " + ex.getMessage(), ex);
+        }
+
+        try {
+            if (batch.isPresent()) {
+                return new BatchingWsnConsumerEndpoint(def.getLocation(), this.httpClient, batch.get(),
+                        getBatchTimer(), getBatchSender());
+            }
+            return new WsnConsumerEndpoint(def.getLocation(), this.httpClient);
         } catch (MalformedURLException ex) {
             throw new UnsupportedDeliveryDefinitionException("Illegal URL provided", ex);
         }
     }
 
+    private synchronized ScheduledExecutorService getBatchTimer() {
+        if (this.batchTimer == null) {
+            this.batchTimer = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
+                    .setNameFormat("subverse-wsn-batch-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return this.batchTimer;
+    }
+
+    /**
+     * sends the batches whose linger time has elapsed. A consumer has at
+     * most one batch in transfer, so a slow consumer only occupies one
+     * thread
+     */
+    private synchronized ExecutorService getBatchSender() {
+        if (this.batchSender == null) {
+            this.batchSender = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("subverse-wsn-batch-send-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return this.batchSender;
+    }
+
+    @Override
+    public DeliveryParameter[] getParameters() {
+        return new DeliveryParameter[] {
+            new DeliveryParameter("integer", WsnBatchOptions.EXTENSION_NAMESPACE,
+                    WsnBatchOptions.MAX_MESSAGES, "1"),
+            new DeliveryParameter("integer", WsnBatchOptions.EXTENSION_NAMESPACE,
+                    WsnBatchOptions.MAX_BYTES, Integer.toString(WsnBatchOptions.DEFAULT_MAX_BYTES)),
+            new DeliveryParameter("integer", WsnBatchOptions.EXTENSION_NAMESPACE,
+                    WsnBatchOptions.LINGER, Long.toString(WsnBatchOptions.DEFAULT_LINGER))
+        };
+    }
+
     @Override
     public boolean supportsDeliveryIdentifier(String id) {
         return IDENTIFIER.equals(id);
@@ -82,7 +180,20 @@ public class WsnDeliveryProvider implements DeliveryProvider {
 
     @Override
     public Map<? extends String, ? extends String> getNamespacePrefixMap() {
-        return Collections.emptyMap();
+        return Collections.singletonMap(WsnBatchOptions.EXTENSION_NAMESPACE, "pubsubsoap");
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (this.batchTimer != null) {
+            this.batchTimer.shutdown();
+            this.batchTimer = null;
+        }
+        if (this.batchSender != null) {
+            this.batchSender.shutdown();
+            this.batchSender = null;
+        }
+        this.httpClient.close();
     }
 
 }
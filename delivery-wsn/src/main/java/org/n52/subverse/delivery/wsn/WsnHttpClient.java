@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.wsn;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The HTTP client shared by the endpoints of a {@link WsnDeliveryProvider}.
+ * Connections are pooled and kept alive between notifications, idle
+ * connections are evicted in the background.
+ *
+ * In asynchronous mode, requests are sent with a non-blocking client and
+ * the caller only waits if the consumer already has the maximum number of
+ * requests in flight. Unless disabled, that number adapts to the latency
+ * and errors of each consumer, see {@link AdaptiveConcurrencyLimit}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class WsnHttpClient implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WsnHttpClient.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+    public static final int DEFAULT_IDLE_TIMEOUT = 60000;
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_CONSUMER = 100;
+    public static final int DEFAULT_INITIAL_IN_FLIGHT_PER_CONSUMER = 10;
+
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private boolean asynchronous;
+    private int maxInFlightPerConsumer = DEFAULT_MAX_IN_FLIGHT_PER_CONSUMER;
+    private boolean adaptiveInFlight = true;
+    private CloseableHttpClient client;
+    private CloseableHttpAsyncClient asyncClient;
+    private ScheduledExecutorService evictor;
+    private final Map<String, AdaptiveConcurrencyLimit> inFlight = new ConcurrentHashMap<>();
+
+    public synchronized void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        reset();
+    }
+
+    public synchronized void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        reset();
+    }
+
+    /**
+     * @param connectTimeout the timeout in milliseconds for establishing a
+     * connection and for obtaining one from the pool
+     */
+    public synchronized void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        reset();
+    }
+
+    /**
+     * @param socketTimeout the timeout in milliseconds for waiting on data of the consumer
+     */
+    public synchronized void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+        reset();
+    }
+
+    /**
+     * @param idleTimeout the time in milliseconds a connection may stay idle
+     * in the pool. Also used as keep-alive duration if the consumer does not
+     * provide one.
+     */
+    public synchronized void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        reset();
+    }
+
+    public synchronized void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public synchronized boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * @param max the maximum number of asynchronous requests to a single
+     * consumer URL waiting for a response. The asynchronous pool allows at
+     * least as many connections per route
+     */
+    public synchronized void setMaxInFlightPerConsumer(int max) {
+        this.maxInFlightPerConsumer = max;
+        this.inFlight.clear();
+        reset();
+    }
+
+    /**
+     * @param adaptive true if the in-flight limit of each consumer should
+     * adapt to its latency and errors, up to the maximum. Otherwise the
+     * maximum is used for every consumer
+     */
+    public synchronized void setAdaptiveInFlight(boolean adaptive) {
+        this.adaptiveInFlight = adaptive;
+        this.inFlight.clear();
+    }
+
+    /**
+     * @param consumer the URL of the consumer
+     * @return the current in-flight limit of the consumer, empty if no
+     * asynchronous request has been sent to it yet
+     */
+    public Optional<Integer> getInFlightLimit(String consumer) {
+        return Optional.ofNullable(this.inFlight.get(consumer)).map(AdaptiveConcurrencyLimit::getLimit);
+    }
+
+    /**
+     * sends the request without waiting for the response. Blocks only
+     * while the consumer has its limit of requests in flight.
+     *
+     * @param post the request
+     * @param consumer the URL of the consumer
+     * @return the status code of the response, completed exceptionally if
+     * the request failed
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public CompletableFuture<Integer> executeAsync(HttpPost post, String consumer) throws InterruptedException {
+        CloseableHttpAsyncClient c;
+        AdaptiveConcurrencyLimit limit;
+        synchronized (this) {
+            c = getAsyncClient();
+            limit = this.inFlight.computeIfAbsent(consumer, k -> createLimit());
+        }
+
+        limit.acquire();
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        long start = System.nanoTime();
+        try {
+            c.execute(post, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    int status = response.getStatusLine().getStatusCode();
+                    if (WsnConsumerEndpoint.isRetryable(status)) {
+                        limit.onDropped();
+                    }
+                    else {
+                        limit.onSuccess(System.nanoTime() - start);
+                    }
+                    result.complete(status);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    if (isLeaseTimeout(ex)) {
+                        /*
+                         * the pool was exhausted, which tells nothing
+                         * about the consumer
+                         */
+                        limit.onIgnored();
+                    }
+                    else {
+                        limit.onDropped();
+                    }
+                    result.completeExceptionally(ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    limit.onIgnored();
+                    result.cancel(false);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            limit.onIgnored();
+            throw e;
+        }
+        return result;
+    }
+
+    static boolean isLeaseTimeout(Exception ex) {
+        return ex instanceof ConnectionPoolTimeoutException || ex instanceof TimeoutException;
+    }
+
+    private AdaptiveConcurrencyLimit createLimit() {
+        if (!this.adaptiveInFlight) {
+            return new AdaptiveConcurrencyLimit(this.maxInFlightPerConsumer, this.maxInFlightPerConsumer,
+                    this.maxInFlightPerConsumer);
+        }
+        return new AdaptiveConcurrencyLimit(DEFAULT_INITIAL_IN_FLIGHT_PER_CONSUMER, 1, this.maxInFlightPerConsumer);
+    }
+
+    /**
+     * posts the entity and consumes the response, returning the
+     * connection to the pool
+     *
+     * @param post the request
+     * @return the status code of the response
+     * @throws IOException on connection problems
+     */
+    public int execute(HttpPost post) throws IOException {
+        try (CloseableHttpResponse response = getClient().execute(post)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    synchronized CloseableHttpClient getClient() {
+        if (this.client == null) {
+            this.client = createClient();
+        }
+        return this.client;
+    }
+
+    private CloseableHttpAsyncClient getAsyncClient() {
+        if (this.asyncClient == null) {
+            try {
+                this.asyncClient = createAsyncClient();
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Could not create asynchronous HTTP client", e);
+            }
+            this.asyncClient.start();
+        }
+        return this.asyncClient;
+    }
+
+    private CloseableHttpAsyncClient createAsyncClient() throws IOException {
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                .setConnectTimeout(this.connectTimeout)
+                .setSoTimeout(this.socketTimeout)
+                .build();
+        PoolingNHttpClientConnectionManager pool = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(reactorConfig));
+        pool.setMaxTotal(this.maxConnections);
+        pool.setDefaultMaxPerRoute(getAsyncMaxConnectionsPerRoute());
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("subverse-wsn-evictor")
+                .setDaemon(true)
+                .build());
+        long idle = this.idleTimeout;
+        this.evictor.scheduleWithFixedDelay(() -> {
+            pool.closeExpiredConnections();
+            pool.closeIdleConnections(idle, TimeUnit.MILLISECONDS);
+        }, idle, idle, TimeUnit.MILLISECONDS);
+
+        LOG.info("Creating asynchronous WS-N HTTP client pool (max {}, {} per route, {} in flight per consumer{})",
+                this.maxConnections, getAsyncMaxConnectionsPerRoute(), this.maxInFlightPerConsumer,
+                this.adaptiveInFlight ? ", adaptive" : "");
+        return HttpAsyncClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(createRequestConfig())
+                .setKeepAliveStrategy(createKeepAliveStrategy())
+                .build();
+    }
+
+    /**
+     * @return the connections per route of the asynchronous pool. Every
+     * request in flight holds a connection, a smaller pool would only let
+     * them wait for a lease
+     */
+    int getAsyncMaxConnectionsPerRoute() {
+        return Math.min(Math.max(this.maxConnectionsPerRoute, this.maxInFlightPerConsumer), this.maxConnections);
+    }
+
+    private RequestConfig createRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectTimeout(this.connectTimeout)
+                .setConnectionRequestTimeout(this.connectTimeout)
+                .setSocketTimeout(this.socketTimeout)
+                .build();
+    }
+
+    private ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+        long fallbackKeepAlive = this.idleTimeout;
+        return new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : fallbackKeepAlive;
+            }
+        };
+    }
+
+    private CloseableHttpClient createClient() {
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(this.maxConnections);
+        pool.setDefaultMaxPerRoute(this.maxConnectionsPerRoute);
+        /*
+         * revalidate connections which were idle for a while before reusing them
+         */
+        pool.setValidateAfterInactivity(1000);
+
+        LOG.info("Creating WS-N HTTP client pool (max {}, {} per route)", this.maxConnections,
+                this.maxConnectionsPerRoute);
+        return HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(createRequestConfig())
+                .setKeepAliveStrategy(createKeepAliveStrategy())
+                .evictExpiredConnections()
+                .evictIdleConnections(this.idleTimeout, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private void reset() {
+        if (this.client != null) {
+            try {
+                this.client.close();
+            }
+            catch (IOException e) {
+                LOG.warn("Could not close HTTP client", e);
+            }
+            this.client = null;
+        }
+        if (this.asyncClient != null) {
+            try {
+                this.asyncClient.close();
+            }
+            catch (IOException e) {
+                LOG.warn("Could not close asynchronous HTTP client", e);
+            }
+            this.asyncClient = null;
+            this.evictor.shutdown();
+            this.evictor = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        reset();
+    }
+
+}
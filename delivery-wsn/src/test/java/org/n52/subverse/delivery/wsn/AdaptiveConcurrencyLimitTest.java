@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.wsn;
+
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void testGrowsWithStableLatency() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+
+        for (int i = 0; i < 50; i++) {
+            saturate(limit);
+            limit.onSuccess(RTT);
+            releaseAll(limit);
+        }
+
+        Assert.assertThat(limit.getLimit() > 10, CoreMatchers.is(true));
+        Assert.assertThat(limit.getLimit() <= 100, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void testShrinksWithRisingLatency() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 1, 100);
+
+        for (int i = 0; i < 20; i++) {
+            saturate(limit);
+            limit.onSuccess(RTT);
+            releaseAll(limit);
+        }
+        int grown = limit.getLimit();
+
+        for (int i = 0; i < 20; i++) {
+            saturate(limit);
+            limit.onSuccess(RTT * 10);
+            releaseAll(limit);
+        }
+
+        Assert.assertThat(limit.getLimit() < grown, CoreMatchers.is(true));
+    }
+
+    @Test
+    public void testShrinksOnErrors() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(50, 2, 100);
+
+        for (int i = 0; i < 100; i++) {
+            limit.acquire();
+            limit.onDropped();
+        }
+
+        Assert.assertThat(limit.getLimit(), CoreMatchers.is(2));
+        Assert.assertThat(limit.getInFlight(), CoreMatchers.is(0));
+    }
+
+    @Test
+    public void testIdleConsumerDoesNotGrow() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+
+        for (int i = 0; i < 50; i++) {
+            limit.acquire();
+            limit.onSuccess(RTT);
+        }
+
+        Assert.assertThat(limit.getLimit(), CoreMatchers.is(10));
+    }
+
+    @Test
+    public void testFixedLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(5, 5, 5);
+
+        saturate(limit);
+        limit.onSuccess(RTT);
+        limit.onDropped();
+
+        Assert.assertThat(limit.getLimit(), CoreMatchers.is(5));
+    }
+
+    private void saturate(AdaptiveConcurrencyLimit limit) throws InterruptedException {
+        while (limit.getInFlight() < limit.getLimit()) {
+            limit.acquire();
+        }
+    }
+
+    private void releaseAll(AdaptiveConcurrencyLimit limit) {
+        while (limit.getInFlight() > 0) {
+            limit.onIgnored();
+        }
+    }
+
+}
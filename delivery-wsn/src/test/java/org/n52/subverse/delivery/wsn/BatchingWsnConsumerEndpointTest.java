@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.wsn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.hamcrest.CoreMatchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.n52.subverse.delivery.DeliveryException;
+import org.n52.subverse.delivery.DeliveryParameter;
+import org.n52.subverse.delivery.Streamable;
+import org.n52.subverse.delivery.streamable.StringStreamable;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BatchingWsnConsumerEndpointTest {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void shutdown() {
+        this.timer.shutdownNow();
+    }
+
+    @Test
+    public void testBatching() throws MalformedURLException, InterruptedException, DeliveryException {
+        WsnBatchOptions options = new WsnBatchOptions(3, WsnBatchOptions.DEFAULT_MAX_BYTES, 200);
+        List<String> result = Collections.synchronizedList(new ArrayList<>());
+        BatchingWsnConsumerEndpoint spied = createEndpoint(options, result);
+
+        for (int i = 0; i < 5; i++) {
+            spied.deliver(Optional.of(new StringStreamable("msg" + i)), false);
+        }
+
+        Assert.assertThat(result.size(), CoreMatchers.is(1));
+        Assert.assertThat(countMessages(result.get(0)), CoreMatchers.is(3));
+        Assert.assertThat(result.get(0), CoreMatchers.containsString("<![CDATA[msg2]]>"));
+        Assert.assertThat(spied.getPendingCount(), CoreMatchers.is(2));
+
+        // the remaining two are sent after the linger time
+        long deadline = System.currentTimeMillis() + 5000;
+        while (result.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertThat(result.size(), CoreMatchers.is(2));
+        Assert.assertThat(countMessages(result.get(1)), CoreMatchers.is(2));
+        Assert.assertThat(result.get(1), CoreMatchers.containsString("<![CDATA[msg4]]>"));
+    }
+
+    @Test
+    public void testMaxBytes() throws MalformedURLException, DeliveryException {
+        WsnBatchOptions options = new WsnBatchOptions(100, 10, 60000);
+        List<String> result = Collections.synchronizedList(new ArrayList<>());
+        BatchingWsnConsumerEndpoint spied = createEndpoint(options, result);
+
+        spied.deliver(Optional.of(new StringStreamable("hahaha")), false);
+        Assert.assertThat(result.size(), CoreMatchers.is(0));
+
+        spied.deliver(Optional.of(new StringStreamable("hohoho")), false);
+        Assert.assertThat(result.size(), CoreMatchers.is(1));
+        Assert.assertThat(countMessages(result.get(0)), CoreMatchers.is(2));
+    }
+
+    @Test
+    public void testFailedBatch() throws Exception {
+        WsnBatchOptions options = new WsnBatchOptions(2, WsnBatchOptions.DEFAULT_MAX_BYTES, 60000);
+        BatchingWsnConsumerEndpoint endpoint = new BatchingWsnConsumerEndpoint("http://test.test",
+                new WsnHttpClient(), options, this.timer) {
+            @Override
+            protected void sendPayload(Optional<Streamable> o, HttpEntity payload) throws DeliveryException {
+                throw new DeliveryException("consumer unavailable");
+            }
+        };
+
+        CompletableFuture<Void> first = endpoint.deliverAsync(Optional.of(new StringStreamable("msg0")), false);
+        Assert.assertThat(first.isDone(), CoreMatchers.is(false));
+        CompletableFuture<Void> second = endpoint.deliverAsync(Optional.of(new StringStreamable("msg1")), false);
+
+        /*
+         * both notifications of the batch are reported
+         */
+        for (CompletableFuture<Void> f : Arrays.asList(first, second)) {
+            try {
+                f.get(5, TimeUnit.SECONDS);
+                Assert.fail("batch failed");
+            }
+            catch (ExecutionException e) {
+                Assert.assertThat(e.getCause().getMessage(), CoreMatchers.is("consumer unavailable"));
+            }
+        }
+
+        try {
+            endpoint.tryDeliver(Optional.of(new StringStreamable("msg2")), false);
+            Assert.fail("batch failed");
+        }
+        catch (DeliveryException e) {
+            Assert.assertThat(endpoint.getPendingCount(), CoreMatchers.is(0));
+        }
+    }
+
+    @Test
+    public void testOptionsFromParameters() {
+        Assert.assertThat(WsnBatchOptions.fromParameters(Collections.emptyList()).isPresent(),
+                CoreMatchers.is(false));
+
+        List<DeliveryParameter> params = new ArrayList<>();
+        params.add(new DeliveryParameter("text", WsnBatchOptions.EXTENSION_NAMESPACE, "maxMessages", "50"));
+        params.add(new DeliveryParameter("text", WsnBatchOptions.EXTENSION_NAMESPACE, "linger", "250"));
+        params.add(new DeliveryParameter("text", "http://other.ns", "maxBytes", "1"));
+
+        WsnBatchOptions options = WsnBatchOptions.fromParameters(params).get();
+        Assert.assertThat(options.getMaxMessages(), CoreMatchers.is(50));
+        Assert.assertThat(options.getMaxBytes(), CoreMatchers.is(WsnBatchOptions.DEFAULT_MAX_BYTES));
+        Assert.assertThat(options.getLingerMillis(), CoreMatchers.is(250L));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        WsnBatchOptions options = new WsnBatchOptions(100, WsnBatchOptions.DEFAULT_MAX_BYTES, 60000);
+        BatchingWsnConsumerEndpoint endpoint = new BatchingWsnConsumerEndpoint("http://test.test",
+                new WsnHttpClient(), options, this.timer);
+        endpoint.deliver(Optional.of(new StringStreamable("msg")), false);
+        Assert.assertThat(endpoint.getPendingCount(), CoreMatchers.is(1));
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(endpoint);
+        }
+        BatchingWsnConsumerEndpoint copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            copy = (BatchingWsnConsumerEndpoint) in.readObject();
+        }
+
+        Assert.assertThat(copy.getEffectiveLocation(), CoreMatchers.is(endpoint.getEffectiveLocation()));
+        Assert.assertThat(copy.getPendingCount(), CoreMatchers.is(0));
+        copy.destroy();
+    }
+
+    private BatchingWsnConsumerEndpoint createEndpoint(WsnBatchOptions options, List<String> result)
+            throws MalformedURLException, DeliveryException {
+        BatchingWsnConsumerEndpoint c = new BatchingWsnConsumerEndpoint("http://test.test", new WsnHttpClient(),
+                options, this.timer);
+        BatchingWsnConsumerEndpoint spied = Mockito.spy(c);
+
+        Mockito.doAnswer((Answer<Void>) (InvocationOnMock invocation) -> {
+            Object[] args = invocation.getArguments();
+            result.add(EntityUtils.toString((HttpEntity) args[1], StandardCharsets.UTF_8));
+            return null;
+        }).when(spied).sendPayload(Matchers.any(), Matchers.any());
+
+        return spied;
+    }
+
+    private int countMessages(String payload) {
+        int count = 0;
+        int index = payload.indexOf("<![CDATA[");
+        while (index >= 0) {
+            count++;
+            index = payload.indexOf("<![CDATA[", index + 1);
+        }
+        return count;
+    }
+
+}
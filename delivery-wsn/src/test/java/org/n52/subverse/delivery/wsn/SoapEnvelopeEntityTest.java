@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.wsn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.http.util.EntityUtils;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.subverse.delivery.streamable.GenericStreamable;
+import org.n52.subverse.delivery.streamable.StringStreamable;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SoapEnvelopeEntityTest {
+
+    @Test
+    public void testNotify() throws IOException, XmlException {
+        String xml = "<a:aixm xmlns:a=\"http://a.test\">ü</a:aixm>";
+        SoapEnvelopeEntity entity = SoapEnvelopeEntity.notify(Arrays.asList(
+                new StringStreamable("hahaha"), xmlStreamable(xml)));
+
+        String result = write(entity);
+        Assert.assertThat(result, CoreMatchers.startsWith("<soap:Envelope"));
+        Assert.assertThat(result, CoreMatchers.containsString(
+                "<wsnt:NotificationMessage><wsnt:Message><![CDATA[hahaha]]></wsnt:Message>"));
+        Assert.assertThat(result, CoreMatchers.containsString("<wsnt:Message>" + xml + "</wsnt:Message>"));
+        Assert.assertThat(entity.getContentLength(), CoreMatchers.is((long) result.getBytes(StandardCharsets.UTF_8).length));
+        Assert.assertThat(EntityUtils.toString(entity, StandardCharsets.UTF_8), CoreMatchers.is(result));
+
+        XmlObject parsed = XmlObject.Factory.parse(result);
+        Assert.assertThat(parsed.selectPath("declare namespace wsnt='" + SoapEnvelopeEntity.WSN_NAMESPACE
+                + "' .//wsnt:NotificationMessage").length, CoreMatchers.is(2));
+    }
+
+    @Test
+    public void testCDataEscaping() throws IOException {
+        SoapEnvelopeEntity entity = SoapEnvelopeEntity.raw(new StringStreamable("a]]>b"));
+
+        String result = write(entity);
+        Assert.assertThat(result, CoreMatchers.containsString("<soap:Body><![CDATA[a]]]]><![CDATA[>b]]></soap:Body>"));
+    }
+
+    private String write(SoapEnvelopeEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private GenericStreamable xmlStreamable(String xml) throws XmlException {
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        return new GenericStreamable("application/xml", XmlObject.Factory.parse(xml)) {
+            @Override
+            public InputStream asStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public int getContentLength() {
+                return bytes.length;
+            }
+        };
+    }
+
+}
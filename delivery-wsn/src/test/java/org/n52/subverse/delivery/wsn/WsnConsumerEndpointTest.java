@@ -29,10 +29,12 @@
 package org.n52.subverse.delivery.wsn;
 
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import org.apache.xmlbeans.XmlOptions;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
 import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Test;
@@ -40,6 +42,7 @@ import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.n52.subverse.delivery.DeliveryException;
 import org.n52.subverse.delivery.streamable.StringStreamable;
 
 /**
@@ -49,15 +52,15 @@ import org.n52.subverse.delivery.streamable.StringStreamable;
 public class WsnConsumerEndpointTest {
 
     @Test
-    public void testDelivery() throws MalformedURLException {
-        WsnConsumerEndpoint c = new WsnConsumerEndpoint("http://test.test", new XmlOptions());
+    public void testDelivery() throws MalformedURLException, DeliveryException {
+        WsnConsumerEndpoint c = new WsnConsumerEndpoint("http://test.test");
         WsnConsumerEndpoint spied = Mockito.spy(c);
 
         List<String> result = new ArrayList<>(1);
 
         Mockito.doAnswer((Answer<Void>) (InvocationOnMock invocation) -> {
             Object[] args = invocation.getArguments();
-            result.add(new String((byte[]) args[1]));
+            result.add(EntityUtils.toString((HttpEntity) args[1], StandardCharsets.UTF_8));
             return null;
         }).when(spied).sendPayload(Matchers.any(), Matchers.any());
 
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.wsn;
+
+import java.net.ConnectException;
+import java.util.concurrent.TimeoutException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class WsnHttpClientTest {
+
+    @Test
+    public void testAsyncPoolFitsInFlightLimit() {
+        try (WsnHttpClient client = new WsnHttpClient()) {
+            client.setMaxConnectionsPerRoute(20);
+            client.setMaxInFlightPerConsumer(100);
+            Assert.assertThat(client.getAsyncMaxConnectionsPerRoute(), CoreMatchers.is(100));
+
+            client.setMaxConnections(50);
+            Assert.assertThat(client.getAsyncMaxConnectionsPerRoute(), CoreMatchers.is(50));
+
+            client.setMaxInFlightPerConsumer(10);
+            Assert.assertThat(client.getAsyncMaxConnectionsPerRoute(), CoreMatchers.is(20));
+        }
+    }
+
+    @Test
+    public void testLeaseTimeoutIsNotAConsumerFailure() {
+        Assert.assertThat(WsnHttpClient.isLeaseTimeout(new ConnectionPoolTimeoutException()), CoreMatchers.is(true));
+        Assert.assertThat(WsnHttpClient.isLeaseTimeout(new TimeoutException()), CoreMatchers.is(true));
+        Assert.assertThat(WsnHttpClient.isLeaseTimeout(new ConnectTimeoutException()), CoreMatchers.is(false));
+        Assert.assertThat(WsnHttpClient.isLeaseTimeout(new ConnectException()), CoreMatchers.is(false));
+    }
+
+}
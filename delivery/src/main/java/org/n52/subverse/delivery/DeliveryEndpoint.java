@@ -30,6 +30,7 @@ package org.n52.subverse.delivery;
 
 import java.io.Serializable;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  *
@@ -39,6 +40,42 @@ public interface DeliveryEndpoint extends Serializable {
 
     void deliver(Optional<Streamable> o, boolean asRaw);
 
+    /**
+     * delivers like {@link #deliver(Optional, boolean)}, but reports a
+     * failure to the caller instead of only logging it. Endpoints not able
+     * to detect failures just deliver.
+     *
+     * @param o the notification
+     * @param asRaw if the notification should be delivered without wrapper
+     * @throws DeliveryException if the notification was not delivered
+     */
+    default void tryDeliver(Optional<Streamable> o, boolean asRaw) throws DeliveryException {
+        deliver(o, asRaw);
+    }
+
+    /**
+     * starts the delivery and reports its outcome through the returned
+     * future. Endpoints sending asynchronously complete it once the consumer
+     * has responded, all others deliver via
+     * {@link #tryDeliver(Optional, boolean)} before returning.
+     *
+     * @param o the notification
+     * @param asRaw if the notification should be delivered without wrapper
+     * @return the outcome, completed exceptionally with a
+     * {@link DeliveryException} if the notification was not delivered
+     */
+    default CompletableFuture<Void> deliverAsync(Optional<Streamable> o, boolean asRaw) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            tryDeliver(o, asRaw);
+            result.complete(null);
+        }
+        catch (DeliveryException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
     String getEffectiveLocation();
 
     void destroy();
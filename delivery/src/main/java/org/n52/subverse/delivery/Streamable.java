@@ -28,9 +28,20 @@
  */
 package org.n52.subverse.delivery;
 
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
+ * The encoded content of a notification. Implementations holding their
+ * bytes in memory should override the bulk methods ({@link #writeTo(OutputStream)},
+ * {@link #writeTo(WritableByteChannel)} and {@link #asByteBuffer()}); the
+ * defaults read {@link #asStream()}.
  *
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
@@ -40,8 +51,41 @@ public interface Streamable {
 
     String getContentType();
 
+    /**
+     * @return the length of the content in bytes
+     */
     int getContentLength();
 
     Object originalObject();
 
+    /**
+     * @return the charset of textual content
+     */
+    default Charset getCharset() {
+        return StandardCharsets.UTF_8;
+    }
+
+    default void writeTo(OutputStream out) throws IOException {
+        try (InputStream is = asStream()) {
+            ByteStreams.copy(is, out);
+        }
+    }
+
+    default void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = asByteBuffer();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return a read-only view of the content
+     * @throws IOException on errors reading the content
+     */
+    default ByteBuffer asByteBuffer() throws IOException {
+        try (InputStream is = asStream()) {
+            return ByteBuffer.wrap(ByteStreams.toByteArray(is)).asReadOnlyBuffer();
+        }
+    }
+
 }
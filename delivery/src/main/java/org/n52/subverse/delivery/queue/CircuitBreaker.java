@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the recent deliveries to one consumer. If too many of them
+ * failed or were slow, the circuit opens and deliveries are not attempted
+ * until the open duration has passed. Then a single delivery probes the
+ * consumer (half-open): on success the circuit closes, otherwise it opens
+ * again. Other deliveries are rejected while the probe is in flight; a
+ * probe without outcome after the open duration is considered lost and
+ * another one is allowed.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final CircuitBreakerOptions options;
+    private final int minimumCalls;
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int index;
+    private int count;
+    private int failures;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+    private long probeStartedAt;
+
+    /**
+     * @param name the name used for logging, e.g. the consumer location
+     * @param options the thresholds
+     */
+    public CircuitBreaker(String name, CircuitBreakerOptions options) {
+        this.name = name;
+        this.options = options;
+        this.failed = new boolean[options.getWindowSize()];
+        this.slow = new boolean[options.getWindowSize()];
+        this.minimumCalls = Math.max(1, options.getWindowSize() / 2);
+    }
+
+    /**
+     * @return true if a delivery may be attempted
+     */
+    public synchronized boolean allowRequest() {
+        long now = System.currentTimeMillis();
+        if (this.state == State.OPEN) {
+            if (now - this.openedAt < this.options.getOpenDuration()) {
+                return false;
+            }
+            this.state = State.HALF_OPEN;
+            this.probing = false;
+            LOG.info("Circuit for {} half-open, probing the consumer", this.name);
+        }
+        if (this.state == State.HALF_OPEN) {
+            if (this.probing && now - this.probeStartedAt < this.options.getOpenDuration()) {
+                return false;
+            }
+            this.probing = true;
+            this.probeStartedAt = now;
+        }
+        return true;
+    }
+
+    /**
+     * @param success if the delivery succeeded
+     * @param duration the duration of the delivery in milliseconds
+     */
+    public synchronized void record(boolean success, long duration) {
+        boolean isSlow = duration >= this.options.getSlowCallDuration();
+
+        if (this.state == State.HALF_OPEN) {
+            this.probing = false;
+            if (success && !isSlow) {
+                this.state = State.CLOSED;
+                reset();
+                LOG.info("Circuit for {} closed", this.name);
+            }
+            else {
+                open();
+            }
+            return;
+        }
+
+        if (this.count == this.failed.length) {
+            this.failures -= this.failed[this.index] ? 1 : 0;
+            this.slowCalls -= this.slow[this.index] ? 1 : 0;
+        }
+        else {
+            this.count++;
+        }
+        this.failed[this.index] = !success;
+        this.slow[this.index] = isSlow;
+        this.failures += success ? 0 : 1;
+        this.slowCalls += isSlow ? 1 : 0;
+        this.index = (this.index + 1) % this.failed.length;
+
+        if (this.state == State.CLOSED && this.count >= this.minimumCalls
+                && (this.failures * 100 >= this.options.getFailureRateThreshold() * this.count
+                || this.slowCalls * 100 >= this.options.getSlowCallRateThreshold() * this.count)) {
+            LOG.warn("Circuit for {} opened: {} failed and {} slow of the last {} deliveries", this.name,
+                    this.failures, this.slowCalls, this.count);
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.openedAt = System.currentTimeMillis();
+        reset();
+    }
+
+    private void reset() {
+        this.index = 0;
+        this.count = 0;
+        this.failures = 0;
+        this.slowCalls = 0;
+    }
+
+}
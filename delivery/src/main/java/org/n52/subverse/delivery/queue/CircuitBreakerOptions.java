@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import com.google.common.base.MoreObjects;
+import java.util.Locale;
+
+/**
+ * The thresholds of the {@link CircuitBreaker} of a subscription.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CircuitBreakerOptions {
+
+    public static final CircuitBreakerOptions DISABLED = new CircuitBreakerOptions(0, 100, Long.MAX_VALUE, 100, 0);
+
+    public static final CircuitBreakerOptions DEFAULT = new CircuitBreakerOptions(20, 50, 10000, 80, 30000);
+
+    private static final String OFF = "off";
+
+    private final int windowSize;
+    private final int failureRateThreshold;
+    private final long slowCallDuration;
+    private final int slowCallRateThreshold;
+    private final long openDuration;
+
+    /**
+     * @param windowSize the number of recent deliveries evaluated, 0 to
+     * disable the circuit breaker
+     * @param failureRateThreshold the percentage of failed deliveries
+     * opening the circuit
+     * @param slowCallDuration the duration in milliseconds from which a
+     * delivery counts as slow
+     * @param slowCallRateThreshold the percentage of slow deliveries
+     * opening the circuit
+     * @param openDuration the time in milliseconds before a delivery is
+     * let through again to probe the consumer
+     */
+    public CircuitBreakerOptions(int windowSize, int failureRateThreshold, long slowCallDuration,
+            int slowCallRateThreshold, long openDuration) {
+        if (windowSize < 0 || failureRateThreshold < 1 || failureRateThreshold > 100 || slowCallDuration < 1
+                || slowCallRateThreshold < 1 || slowCallRateThreshold > 100 || openDuration < 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker options");
+        }
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openDuration = openDuration;
+    }
+
+    public boolean isEnabled() {
+        return windowSize > 0;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    public int getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * parses the circuit breaker options. Format:
+     * [windowSize]|[failureRate]|[slowCallDuration]|[slowCallRate]|[openDuration]
+     * with rates in percent and durations in milliseconds, or "off".
+     *
+     * @param value the settings value
+     * @return the options, {@link #DEFAULT} for an empty value
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static CircuitBreakerOptions parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        if (OFF.equals(value.trim().toLowerCase(Locale.ROOT))) {
+            return DISABLED;
+        }
+
+        String[] parts = value.trim().split("\\|");
+        if (parts.length != 5) {
+            throw new IllegalArgumentException("Invalid circuit breaker definition: " + value);
+        }
+
+        try {
+            return new CircuitBreakerOptions(Integer.parseInt(parts[0].trim()),
+                    Integer.parseInt(parts[1].trim()),
+                    Long.parseLong(parts[2].trim()),
+                    Integer.parseInt(parts[3].trim()),
+                    Long.parseLong(parts[4].trim()));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid circuit breaker definition: " + value, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("windowSize", windowSize)
+                .add("failureRateThreshold", failureRateThreshold)
+                .add("slowCallDuration", slowCallDuration)
+                .add("slowCallRateThreshold", slowCallRateThreshold)
+                .add("openDuration", openDuration)
+                .toString();
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.n52.subverse.delivery.DeliveryEndpoint;
+import org.n52.subverse.delivery.DeliveryException;
+import org.n52.subverse.delivery.Streamable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps deliveries that failed all attempts on local disk and retries them
+ * in the background. Records are appended to segment files; a new
+ * segment is started once the current one exceeds the segment size. A
+ * replay takes all segments, delivers their records to the endpoints
+ * registered for the record keys, appends records failing again to a new
+ * segment and deletes the replayed segments. A segment of which no record
+ * was delivered or expired is kept as it is instead of being rewritten.
+ * Records older than the retention time are discarded. Once the segments
+ * reach the maximum size, further records are rejected.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class DeadLetterSpool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeadLetterSpool.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dlq";
+    private static final int RECORD_MARKER = 0x44_4C_51_31;
+    private static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final long DEFAULT_MAX_SIZE = 1024 * 1024 * 1024;
+
+    private final Path directory;
+    private final long retention;
+    private final long segmentSize;
+    private final long maxSize;
+    private final Map<String, DeliveryEndpoint> endpoints = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService replayer;
+    private long nextSegment;
+    private DataOutputStream active;
+    private long activeSize;
+    private long size;
+    private boolean closed;
+
+    /**
+     * @param directory the directory of the segment files
+     * @param retention the time in milliseconds a record is kept
+     * @param replayInterval the delay in milliseconds between two replays
+     * @throws IOException if the directory cannot be created or read
+     */
+    public DeadLetterSpool(Path directory, long retention, long replayInterval) throws IOException {
+        this(directory, retention, replayInterval, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    public DeadLetterSpool(Path directory, long retention, long replayInterval, long segmentSize)
+            throws IOException {
+        this(directory, retention, replayInterval, segmentSize, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param directory the directory of the segment files
+     * @param retention the time in milliseconds a record is kept
+     * @param replayInterval the delay in milliseconds between two replays
+     * @param segmentSize the size in bytes after which a new segment is
+     * started
+     * @param maxSize the maximum size in bytes of all segments
+     * @throws IOException if the directory cannot be created or read
+     */
+    public DeadLetterSpool(Path directory, long retention, long replayInterval, long segmentSize, long maxSize)
+            throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.retention = retention;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        for (Path segment : listSegments()) {
+            this.nextSegment = Math.max(this.nextSegment, segmentNumber(segment) + 1);
+            this.size += Files.size(segment);
+        }
+
+        this.replayer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("subverse-dead-letters")
+                .setDaemon(true)
+                .build());
+        if (replayInterval > 0) {
+            this.replayer.scheduleWithFixedDelay(this::replaySafely, replayInterval, replayInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+        LOG.info("Dead letter spool in {}, retention {} ms", this.directory, retention);
+    }
+
+    /**
+     * @param key the key of the records, e.g. a subscription id
+     * @param endpoint the endpoint receiving the replayed records
+     */
+    public void register(String key, DeliveryEndpoint endpoint) {
+        this.endpoints.put(key, endpoint);
+    }
+
+    public void unregister(String key) {
+        this.endpoints.remove(key);
+    }
+
+    /**
+     * appends a delivery to the spool
+     *
+     * @param key the key of the endpoint
+     * @param payload the notification
+     * @param asRaw if the notification is delivered without wrapper
+     * @throws IOException if the record could not be written or the spool
+     * is full
+     */
+    public void append(String key, Streamable payload, boolean asRaw) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(Math.max(payload.getContentLength(), 32));
+        payload.writeTo(content);
+        append(new Record(System.currentTimeMillis(), key, payload.getContentType(), asRaw,
+                payload.originalObject() instanceof String, payload.getCharset().name(), content.toByteArray()),
+                true);
+    }
+
+    /**
+     * @param bounded if the record is rejected once the spool is full.
+     * Records rewritten by a replay are already accounted for by their
+     * segment
+     */
+    private synchronized void append(Record r, boolean bounded) throws IOException {
+        if (this.closed) {
+            throw new IOException("Dead letter spool is closed");
+        }
+        if (bounded && this.size >= this.maxSize) {
+            throw new IOException(String.format("Dead letter spool is full (%d bytes)", this.size));
+        }
+        if (this.active == null) {
+            Path segment = this.directory.resolve(segmentName(this.nextSegment++));
+            this.active = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            this.activeSize = 0;
+        }
+
+        long written = r.write(this.active);
+        this.activeSize += written;
+        this.size += written;
+        this.active.flush();
+
+        if (this.activeSize >= this.segmentSize) {
+            closeActive();
+        }
+    }
+
+    private void closeActive() throws IOException {
+        if (this.active != null) {
+            this.active.close();
+            this.active = null;
+        }
+    }
+
+    private void replaySafely() {
+        try {
+            replay();
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.warn("Could not replay dead letters", e);
+        }
+    }
+
+    /**
+     * delivers all spooled records once. Records are delivered at least
+     * once: if the records failing again cannot be written, the segment is
+     * kept and the replay stops, so records delivered from it before are
+     * delivered again by the next replay.
+     *
+     * @throws IOException on errors writing the segments
+     */
+    public void replay() throws IOException {
+        List<Path> segments;
+        synchronized (this) {
+            closeActive();
+            segments = listSegments();
+        }
+
+        long now = System.currentTimeMillis();
+        Set<String> failing = new HashSet<>();
+        int delivered = 0;
+        int expired = 0;
+
+        for (Path segment : segments) {
+            List<Record> remaining = new ArrayList<>();
+            int done = 0;
+            boolean corrupt = false;
+            long segmentLength;
+            DataInputStream input;
+
+            try {
+                segmentLength = Files.size(segment);
+                input = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)));
+            }
+            catch (IOException e) {
+                LOG.warn("Could not read dead letter segment {}, keeping it", segment, e);
+                continue;
+            }
+
+            try (DataInputStream in = input) {
+                Record r;
+                while ((r = Record.read(in)) != null) {
+                    if (now - r.timestamp > this.retention) {
+                        expired++;
+                        done++;
+                    }
+                    else if (redeliver(r, failing)) {
+                        delivered++;
+                        done++;
+                    }
+                    else {
+                        remaining.add(r);
+                    }
+                }
+            }
+            catch (IOException e) {
+                LOG.warn("Dead letter segment {} is corrupt, skipping its remainder", segment, e);
+                corrupt = true;
+            }
+
+            if (done == 0 && !corrupt) {
+                /*
+                 * nothing changed, e.g. all records are for failing
+                 * subscriptions: do not rewrite the segment
+                 */
+                continue;
+            }
+
+            for (Record r : remaining) {
+                append(r, false);
+            }
+            Files.delete(segment);
+            synchronized (this) {
+                this.size -= segmentLength;
+            }
+        }
+
+        if (delivered > 0 || expired > 0) {
+            LOG.info("Replayed dead letters: {} delivered, {} expired", delivered, expired);
+        }
+    }
+
+    private boolean redeliver(Record r, Set<String> failing) {
+        DeliveryEndpoint endpoint = this.endpoints.get(r.key);
+        if (endpoint == null || failing.contains(r.key)) {
+            return false;
+        }
+
+        try {
+            endpoint.tryDeliver(Optional.of(r.toStreamable()), r.asRaw);
+            return true;
+        }
+        catch (DeliveryException | RuntimeException e) {
+            /*
+             * do not try the other records of this endpoint in this replay
+             */
+            failing.add(r.key);
+            LOG.debug("Dead letter for {} could not be delivered: {}", endpoint.getEffectiveLocation(),
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(result::add);
+        }
+        Collections.sort(result, (a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        return result;
+    }
+
+    private static String segmentName(long number) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        this.replayer.shutdown();
+        try {
+            closeActive();
+        }
+        catch (IOException e) {
+            LOG.warn("Could not close dead letter segment", e);
+        }
+    }
+
+    private static class Record {
+
+        private final long timestamp;
+        private final String key;
+        private final String contentType;
+        private final boolean asRaw;
+        private final boolean text;
+        private final String charset;
+        private final byte[] content;
+
+        Record(long timestamp, String key, String contentType, boolean asRaw, boolean text, String charset,
+                byte[] content) {
+            this.timestamp = timestamp;
+            this.key = key;
+            this.contentType = contentType;
+            this.asRaw = asRaw;
+            this.text = text;
+            this.charset = charset;
+            this.content = content;
+        }
+
+        long write(DataOutputStream out) throws IOException {
+            int before = out.size();
+            out.writeInt(RECORD_MARKER);
+            out.writeLong(this.timestamp);
+            out.writeUTF(this.key);
+            out.writeUTF(this.contentType != null ? this.contentType : "");
+            out.writeBoolean(this.asRaw);
+            out.writeBoolean(this.text);
+            out.writeUTF(this.charset);
+            out.writeInt(this.content.length);
+            out.write(this.content);
+            return out.size() - before;
+        }
+
+        /**
+         * @return the next record, or null at the end of the segment
+         */
+        static Record read(DataInputStream in) throws IOException {
+            int marker;
+            try {
+                marker = in.readInt();
+            }
+            catch (EOFException e) {
+                return null;
+            }
+            if (marker != RECORD_MARKER) {
+                throw new IOException("Invalid record marker");
+            }
+
+            long timestamp = in.readLong();
+            String key = in.readUTF();
+            String contentType = in.readUTF();
+            boolean asRaw = in.readBoolean();
+            boolean text = in.readBoolean();
+            String charset = in.readUTF();
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            return new Record(timestamp, key, contentType.isEmpty() ? null : contentType, asRaw, text, charset,
+                    content);
+        }
+
+        Streamable toStreamable() {
+            return new SpooledStreamable(this.contentType, this.text, Charset.forName(this.charset), this.content);
+        }
+
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import com.google.common.base.MoreObjects;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The outbound queue configuration of a delivery provider.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class DeliveryQueueOptions {
+
+    /**
+     * the provider key matching every delivery provider
+     */
+    public static final String ANY_PROVIDER = "*";
+
+    public static final DeliveryQueueOptions DEFAULT = new DeliveryQueueOptions(1000,
+            QueueOverflowPolicy.DROP_OLDEST, 4);
+
+    private final int capacity;
+    private final QueueOverflowPolicy overflowPolicy;
+    private final int concurrency;
+
+    /**
+     * @param capacity the number of deliveries queued per subscription
+     * @param overflowPolicy the policy applied if a queue is full
+     * @param concurrency the number of deliveries of the provider's
+     * subscriptions running in parallel on platform threads
+     */
+    public DeliveryQueueOptions(int capacity, QueueOverflowPolicy overflowPolicy, int concurrency) {
+        if (capacity < 1 || concurrency < 1) {
+            throw new IllegalArgumentException("Capacity and concurrency must be positive");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.concurrency = concurrency;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public QueueOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * parses the queue options of the delivery providers.
+     * Format: [provider]|[capacity]|[policy]|[concurrency],... where
+     * provider is the identifier of the delivery provider or * for all
+     * providers without an own entry.
+     *
+     * @param value the settings value
+     * @return the options per provider identifier
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static Map<String, DeliveryQueueOptions> parse(String value) {
+        Map<String, DeliveryQueueOptions> result = new HashMap<>();
+        if (value == null || value.trim().isEmpty()) {
+            return result;
+        }
+
+        for (String entry : value.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+
+            String[] parts = entry.trim().split("\\|");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Invalid delivery queue definition: " + entry);
+            }
+
+            try {
+                result.put(parts[0].trim(), new DeliveryQueueOptions(Integer.parseInt(parts[1].trim()),
+                        QueueOverflowPolicy.valueOf(parts[2].trim().toUpperCase(Locale.ROOT)),
+                        Integer.parseInt(parts[3].trim())));
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid delivery queue definition: " + entry, e);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("capacity", capacity)
+                .add("overflowPolicy", overflowPolicy)
+                .add("concurrency", concurrency)
+                .toString();
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.n52.subverse.delivery.DeliveryEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains the outbound queues of the subscriptions of one delivery
+ * provider. At most {@link DeliveryQueueOptions#getConcurrency()}
+ * deliveries run in parallel, the deliveries of a single subscription
+ * are executed one after the other.
+ *
+ * With {@link DeliveryExecution#VIRTUAL} every drain runs on its own virtual
+ * thread, so blocking endpoints do not tie up platform threads. The
+ * concurrency of the provider does not apply then; the deliveries are
+ * only bounded by the optional permits shared by all schedulers.
+ *
+ * Failed deliveries are retried according to the {@link RetryOptions}.
+ * While a subscription waits for its next attempt, its queue is paused;
+ * no thread is blocked. Deliveries failing all attempts go to the
+ * {@link DeadLetterSpool}, if available.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class DeliveryScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeliveryScheduler.class);
+
+    private final String name;
+    private final DeliveryQueueOptions options;
+    private final ExecutorService executor;
+    private final Semaphore globalPermits;
+    private final RetryOptions retryOptions;
+    private final DeadLetterSpool deadLetters;
+    private final ScheduledExecutorService retryTimer;
+    private final CircuitBreakerOptions circuitBreakerOptions;
+    private final QuarantineOptions quarantineOptions;
+    private final ExecutorService quarantine;
+
+    public DeliveryScheduler(String name, DeliveryQueueOptions options) {
+        this(name, options, DeliveryExecution.PLATFORM, null);
+    }
+
+    public DeliveryScheduler(String name, DeliveryQueueOptions options, DeliveryExecution execution,
+            Semaphore globalPermits) {
+        this(name, options, execution, globalPermits, RetryOptions.NONE, null);
+    }
+
+    /**
+     * @param name the name of the scheduler, used for its threads
+     * @param options the queue options
+     * @param execution the kind of threads to use
+     * @param globalPermits permits shared by all schedulers, limiting the
+     * overall number of in-flight deliveries on virtual threads. might be null
+     * @param retryOptions the retries of failed deliveries
+     * @param deadLetters the spool for deliveries failing all attempts. might be null
+     */
+    public DeliveryScheduler(String name, DeliveryQueueOptions options, DeliveryExecution execution,
+            Semaphore globalPermits, RetryOptions retryOptions, DeadLetterSpool deadLetters) {
+        this(name, options, execution, globalPermits, retryOptions, deadLetters, CircuitBreakerOptions.DISABLED,
+                QuarantineOptions.DISABLED);
+    }
+
+    /**
+     * @param name the name of the scheduler, used for its threads
+     * @param options the queue options
+     * @param execution the kind of threads to use
+     * @param globalPermits permits shared by all schedulers, limiting the
+     * overall number of in-flight deliveries on virtual threads. might be null
+     * @param retryOptions the retries of failed deliveries
+     * @param deadLetters the spool for deliveries failing all attempts. might be null
+     * @param circuitBreakerOptions the circuit breaker of each subscription
+     * @param quarantineOptions the quarantine of slow subscriptions
+     */
+    public DeliveryScheduler(String name, DeliveryQueueOptions options, DeliveryExecution execution,
+            Semaphore globalPermits, RetryOptions retryOptions, DeadLetterSpool deadLetters,
+            CircuitBreakerOptions circuitBreakerOptions, QuarantineOptions quarantineOptions) {
+        this.name = name;
+        this.circuitBreakerOptions = circuitBreakerOptions;
+        this.quarantineOptions = quarantineOptions;
+        this.options = options;
+        this.retryOptions = retryOptions;
+        this.deadLetters = deadLetters;
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("subverse-retry-" + name)
+                .setDaemon(true)
+                .build());
+
+        if (quarantineOptions.isEnabled()) {
+            this.quarantine = Executors.newFixedThreadPool(quarantineOptions.getConcurrency(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("subverse-quarantine-" + name + "-%d")
+                            .setDaemon(true)
+                            .build());
+        }
+        else {
+            this.quarantine = null;
+        }
+
+        ExecutorService virtual = null;
+        if (execution == DeliveryExecution.VIRTUAL) {
+            virtual = VirtualThreads.newThreadPerTaskExecutor().orElse(null);
+            if (virtual == null) {
+                LOG.warn("Virtual threads are not supported by this runtime, using platform threads for '{}'",
+                        name);
+            }
+        }
+
+        if (virtual != null) {
+            this.executor = virtual;
+            this.globalPermits = globalPermits;
+        }
+        else {
+            this.executor = Executors.newFixedThreadPool(options.getConcurrency(), new ThreadFactoryBuilder()
+                    .setNameFormat("subverse-delivery-" + name + "-%d")
+                    .setDaemon(true)
+                    .build());
+            this.globalPermits = null;
+        }
+    }
+
+    public DeliveryQueueOptions getOptions() {
+        return options;
+    }
+
+    public RetryOptions getRetryOptions() {
+        return retryOptions;
+    }
+
+    public CircuitBreakerOptions getCircuitBreakerOptions() {
+        return circuitBreakerOptions;
+    }
+
+    public QuarantineOptions getQuarantineOptions() {
+        return quarantineOptions;
+    }
+
+    DeadLetterSpool getDeadLetters() {
+        return deadLetters;
+    }
+
+    /**
+     * @param endpoint the endpoint of a subscription
+     * @return an endpoint queueing the deliveries and passing them to the
+     * given endpoint on the threads of this scheduler
+     */
+    public QueuedDeliveryEndpoint decorate(DeliveryEndpoint endpoint) {
+        return decorate(endpoint, null);
+    }
+
+    /**
+     * @param endpoint the endpoint of a subscription
+     * @param key the key of the subscription in the dead letter spool,
+     * stable across restarts. might be null if failed deliveries should
+     * not be spooled
+     * @return an endpoint queueing the deliveries and passing them to the
+     * given endpoint on the threads of this scheduler
+     */
+    public QueuedDeliveryEndpoint decorate(DeliveryEndpoint endpoint, String key) {
+        return new QueuedDeliveryEndpoint(endpoint, this, key);
+    }
+
+    boolean schedule(Runnable task, long delay) {
+        try {
+            this.retryTimer.schedule(task, delay, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    boolean execute(Runnable drain) {
+        return execute(drain, false);
+    }
+
+    /**
+     * @param drain the drain task of a subscription
+     * @param quarantined if the subscription is quarantined. Its drain then
+     * runs on the quarantine pool, not holding any of the regular threads
+     * or permits
+     * @return false if the scheduler is shut down
+     */
+    boolean execute(Runnable drain, boolean quarantined) {
+        try {
+            if (quarantined && this.quarantine != null) {
+                this.quarantine.execute(drain);
+            }
+            else if (this.globalPermits == null) {
+                this.executor.execute(drain);
+            }
+            else {
+                this.executor.execute(() -> runWithPermits(drain));
+            }
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            LOG.warn("Delivery scheduler '{}' is shut down, deliveries discarded", name);
+            return false;
+        }
+    }
+
+    private void runWithPermits(Runnable drain) {
+        this.globalPermits.acquireUninterruptibly();
+        try {
+            drain.run();
+        }
+        finally {
+            this.globalPermits.release();
+        }
+    }
+
+    public void shutdown() {
+        this.retryTimer.shutdown();
+        this.executor.shutdown();
+        if (this.quarantine != null) {
+            this.quarantine.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DeliveryScheduler{name=%s, options=%s, retry=%s, circuitBreaker=%s, quarantine=%s}",
+                name, options, retryOptions, circuitBreakerOptions, quarantineOptions);
+    }
+
+}
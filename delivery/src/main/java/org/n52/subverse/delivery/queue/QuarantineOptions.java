@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Subscriptions whose average delivery latency exceeds a threshold are
+ * drained by a separate, smaller thread pool, so they cannot occupy the
+ * threads of the healthy ones. They return once their latency has dropped
+ * below half the threshold.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class QuarantineOptions {
+
+    public static final QuarantineOptions DISABLED = new QuarantineOptions(0, 1);
+
+    public static final QuarantineOptions DEFAULT = new QuarantineOptions(2000, 2);
+
+    private final long latencyThreshold;
+    private final int concurrency;
+
+    /**
+     * @param latencyThreshold the average latency in milliseconds from
+     * which a subscription is quarantined, 0 to disable quarantine
+     * @param concurrency the number of threads of the quarantine pool
+     */
+    public QuarantineOptions(long latencyThreshold, int concurrency) {
+        if (latencyThreshold < 0 || concurrency < 1) {
+            throw new IllegalArgumentException("Invalid quarantine options");
+        }
+        this.latencyThreshold = latencyThreshold;
+        this.concurrency = concurrency;
+    }
+
+    public boolean isEnabled() {
+        return latencyThreshold > 0;
+    }
+
+    public long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * parses the quarantine options. Format: [latencyThreshold]|[concurrency]
+     *
+     * @param value the settings value
+     * @return the options, {@link #DEFAULT} for an empty value
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static QuarantineOptions parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT;
+        }
+
+        String[] parts = value.trim().split("\\|");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid quarantine definition: " + value);
+        }
+
+        try {
+            return new QuarantineOptions(Long.parseLong(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid quarantine definition: " + value, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("latencyThreshold", latencyThreshold)
+                .add("concurrency", concurrency)
+                .toString();
+    }
+
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.n52.subverse.delivery.DeliveryEndpoint;
+import org.n52.subverse.delivery.DeliveryException;
+import org.n52.subverse.delivery.Streamable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decouples the caller of {@link #deliver(Optional, boolean)} from the
+ * actual delivery. Deliveries are put into a bounded queue and passed to
+ * the wrapped endpoint by a {@link DeliveryScheduler}, so a slow consumer
+ * does not stall the caller.
+ *
+ * A failed delivery is retried after a backoff before any later delivery
+ * of the subscription. If all attempts fail, it is handed to the dead
+ * letter spool of the scheduler. Endpoints sending asynchronously report
+ * the outcome once the consumer has responded; their failed deliveries are
+ * retried after the backoff as well, but may be overtaken by later ones.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class QueuedDeliveryEndpoint implements DeliveryEndpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueuedDeliveryEndpoint.class);
+    private static final long DROP_LOG_INTERVAL = 1000;
+
+    /*
+     * the number of deliveries processed before the drain task yields to the
+     * queues of other subscriptions
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    /*
+     * the weight of the latest delivery in the average latency
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final DeliveryEndpoint delegate;
+    private final transient DeliveryScheduler scheduler;
+    private final transient QueueOverflowPolicy overflowPolicy;
+    private final transient BlockingQueue<Delivery> queue;
+    private final transient ConcurrentLinkedQueue<Delivery> retries = new ConcurrentLinkedQueue<>();
+    private final transient AtomicBoolean scheduled = new AtomicBoolean();
+    private final transient AtomicLong dropped = new AtomicLong();
+    private final transient AtomicLong shortCircuited = new AtomicLong();
+    private final transient AtomicInteger shortCircuitSpooled = new AtomicInteger();
+    private final transient int shortCircuitSpoolLimit;
+    private final transient RetryOptions retryOptions;
+    private final transient DeadLetterSpool deadLetters;
+    private final transient CircuitBreaker circuitBreaker;
+    private final transient QuarantineOptions quarantineOptions;
+    private final String key;
+    private transient Delivery pendingRetry;
+    private transient double averageLatency = -1;
+    private volatile boolean quarantined;
+    private volatile boolean destroyed;
+
+    QueuedDeliveryEndpoint(DeliveryEndpoint delegate, DeliveryScheduler scheduler, String key) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.overflowPolicy = scheduler.getOptions().getOverflowPolicy();
+        this.queue = new ArrayBlockingQueue<>(scheduler.getOptions().getCapacity());
+        this.shortCircuitSpoolLimit = scheduler.getOptions().getCapacity();
+        this.retryOptions = scheduler.getRetryOptions();
+        this.key = key;
+        this.circuitBreaker = scheduler.getCircuitBreakerOptions().isEnabled()
+                ? new CircuitBreaker(delegate.getEffectiveLocation(), scheduler.getCircuitBreakerOptions())
+                : null;
+        this.quarantineOptions = scheduler.getQuarantineOptions();
+        this.deadLetters = key != null ? scheduler.getDeadLetters() : null;
+        if (this.deadLetters != null) {
+            this.deadLetters.register(key, delegate);
+        }
+    }
+
+    public DeliveryEndpoint getDelegate() {
+        return delegate;
+    }
+
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return the number of deliveries not attempted because the circuit
+     * was open
+     */
+    public long getShortCircuitedCount() {
+        return this.shortCircuited.get();
+    }
+
+    /**
+     * @return the state of the circuit breaker, empty if disabled
+     */
+    public Optional<CircuitBreaker.State> getCircuitState() {
+        return Optional.ofNullable(this.circuitBreaker).map(CircuitBreaker::getState);
+    }
+
+    public boolean isQuarantined() {
+        return this.quarantined;
+    }
+
+    @Override
+    public void deliver(Optional<Streamable> o, boolean asRaw) {
+        if (this.destroyed) {
+            return;
+        }
+
+        Delivery delivery = new Delivery(o, asRaw);
+        if (!this.queue.offer(delivery)) {
+            if (this.overflowPolicy == QueueOverflowPolicy.DROP_OLDEST) {
+                while (!this.queue.offer(delivery)) {
+                    if (this.queue.poll() != null) {
+                        onDropped();
+                    }
+                }
+            }
+            else {
+                onDropped();
+                return;
+            }
+        }
+
+        scheduleDrain();
+    }
+
+    private void onDropped() {
+        long count = this.dropped.incrementAndGet();
+        if (count % DROP_LOG_INTERVAL == 1) {
+            LOG.warn("Delivery queue of {} saturated, {} message(s) dropped so far",
+                    this.delegate.getEffectiveLocation(), count);
+        }
+    }
+
+    private void scheduleDrain() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            if (!this.scheduler.execute(this::drain, this.quarantined)) {
+                this.queue.clear();
+                this.retries.clear();
+                this.scheduled.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        int processed = 0;
+        Delivery next;
+        while (processed < DRAIN_BATCH && !this.destroyed && (next = nextDelivery()) != null) {
+            if (!attempt(next)) {
+                /*
+                 * the drain continues with the retry, the queue stays paused
+                 */
+                return;
+            }
+            processed++;
+        }
+
+        this.scheduled.set(false);
+        if (!this.destroyed && (!this.queue.isEmpty() || !this.retries.isEmpty())) {
+            scheduleDrain();
+        }
+    }
+
+    private Delivery nextDelivery() {
+        Delivery result = this.pendingRetry;
+        if (result != null) {
+            this.pendingRetry = null;
+            return result;
+        }
+        result = this.retries.poll();
+        return result != null ? result : this.queue.poll();
+    }
+
+    /**
+     * @return false if a retry of the delivery has been scheduled
+     */
+    private boolean attempt(Delivery delivery) {
+        if (this.circuitBreaker != null && !this.circuitBreaker.allowRequest()) {
+            onShortCircuited(delivery);
+            return true;
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> outcome;
+        try {
+            outcome = this.delegate.deliverAsync(delivery.payload, delivery.asRaw);
+        }
+        catch (RuntimeException e) {
+            onCompleted(false, start);
+            LOG.warn("Delivery to {} failed", this.delegate.getEffectiveLocation(), e);
+            return true;
+        }
+
+        if (!outcome.isDone()) {
+            /*
+             * the consumer responds later, the drain continues meanwhile
+             */
+            outcome.whenComplete((v, e) -> onOutcome(delivery, start, e, true));
+            return true;
+        }
+        return onOutcome(delivery, start, outcome.handle((v, e) -> e).join(), false);
+    }
+
+    /**
+     * @param failure the reason the delivery failed, null on success
+     * @param async true if the drain did not wait for the outcome
+     * @return false if a retry of the delivery has been scheduled before
+     * any later delivery
+     */
+    private boolean onOutcome(Delivery delivery, long start, Throwable failure, boolean async) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure == null) {
+            onCompleted(true, start);
+            return true;
+        }
+        if (!(failure instanceof DeliveryException)) {
+            onCompleted(false, start);
+            LOG.warn("Delivery to {} failed", this.delegate.getEffectiveLocation(), failure);
+            return true;
+        }
+
+        DeliveryException e = (DeliveryException) failure;
+        /*
+         * a rejected delivery does not say anything about the health
+         * of the consumer
+         */
+        onCompleted(!e.isRetryable(), start);
+        delivery.attempts++;
+        if (e.isRetryable() && delivery.attempts < this.retryOptions.getMaxAttempts()) {
+            long backoff = this.retryOptions.getBackoff(delivery.attempts);
+            LOG.debug("Delivery to {} failed ({}), retrying in {} ms", this.delegate.getEffectiveLocation(),
+                    e.getMessage(), backoff);
+            if (async) {
+                if (this.scheduler.schedule(() -> retry(delivery), backoff)) {
+                    return true;
+                }
+            }
+            else {
+                this.pendingRetry = delivery;
+                if (this.scheduler.schedule(this::resume, backoff)) {
+                    return false;
+                }
+                this.pendingRetry = null;
+            }
+        }
+        onFailed(delivery, e);
+        return true;
+    }
+
+    private void retry(Delivery delivery) {
+        if (!this.destroyed) {
+            this.retries.add(delivery);
+            scheduleDrain();
+        }
+    }
+
+    private void resume() {
+        if (!this.scheduler.execute(this::drain, this.quarantined)) {
+            this.pendingRetry = null;
+            this.queue.clear();
+            this.retries.clear();
+            this.scheduled.set(false);
+        }
+    }
+
+    /*
+     * asynchronous outcomes are reported by the threads of the endpoint
+     */
+    private synchronized void onCompleted(boolean success, long start) {
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (this.circuitBreaker != null) {
+            this.circuitBreaker.record(success, duration);
+            if (this.circuitBreaker.getState() == CircuitBreaker.State.CLOSED) {
+                this.shortCircuitSpooled.set(0);
+            }
+        }
+        if (this.quarantineOptions.isEnabled()) {
+            updateQuarantine(duration);
+        }
+    }
+
+    private void updateQuarantine(long duration) {
+        this.averageLatency = this.averageLatency < 0 ? duration
+                : (1 - LATENCY_WEIGHT) * this.averageLatency + LATENCY_WEIGHT * duration;
+
+        long threshold = this.quarantineOptions.getLatencyThreshold();
+        if (!this.quarantined && this.averageLatency > threshold) {
+            this.quarantined = true;
+            LOG.warn("Deliveries to {} take {} ms on average, moved to the quarantine pool",
+                    this.delegate.getEffectiveLocation(), Math.round(this.averageLatency));
+        }
+        else if (this.quarantined && this.averageLatency < threshold / 2.0) {
+            this.quarantined = false;
+            LOG.info("Deliveries to {} take {} ms on average, released from the quarantine pool",
+                    this.delegate.getEffectiveLocation(), Math.round(this.averageLatency));
+        }
+    }
+
+    /**
+     * deliveries are not attempted while the circuit is open. Up to the
+     * queue capacity of them are spooled to the dead letters if available,
+     * so the replay delivers them once the consumer has recovered. Further
+     * ones are discarded until the circuit has closed again
+     */
+    private void onShortCircuited(Delivery delivery) {
+        long count = this.shortCircuited.incrementAndGet();
+        if (this.deadLetters != null && delivery.payload.isPresent()
+                && this.shortCircuitSpooled.incrementAndGet() <= this.shortCircuitSpoolLimit) {
+            try {
+                this.deadLetters.append(this.key, delivery.payload.get(), delivery.asRaw);
+                return;
+            }
+            catch (IOException ioe) {
+                LOG.debug("Could not spool short-circuited delivery: {}", ioe.getMessage());
+            }
+        }
+        if (count % DROP_LOG_INTERVAL == 1) {
+            LOG.warn("Circuit for {} open, {} message(s) short-circuited so far", this.delegate.getEffectiveLocation(),
+                    count);
+        }
+    }
+
+    private void onFailed(Delivery delivery, DeliveryException e) {
+        if (this.deadLetters != null && e.isRetryable() && delivery.payload.isPresent()) {
+            try {
+                this.deadLetters.append(this.key, delivery.payload.get(), delivery.asRaw);
+                LOG.info("Delivery to {} failed {} time(s), moved to dead letters: {}",
+                        this.delegate.getEffectiveLocation(), delivery.attempts, e.getMessage());
+                return;
+            }
+            catch (IOException ioe) {
+                LOG.warn("Could not spool failed delivery", ioe);
+            }
+        }
+        LOG.warn("Delivery to {} failed {} time(s), discarded: {}", this.delegate.getEffectiveLocation(),
+                delivery.attempts, e.getMessage());
+        LOG.debug(e.getMessage(), e);
+    }
+
+    @Override
+    public String getEffectiveLocation() {
+        return this.delegate.getEffectiveLocation();
+    }
+
+    /**
+     * discards all pending deliveries and destroys the wrapped endpoint.
+     * Spooled dead letters are kept until they expire. A deserialized copy
+     * has no queue, only its wrapped endpoint is destroyed
+     */
+    @Override
+    public void destroy() {
+        this.destroyed = true;
+        if (this.queue != null) {
+            this.queue.clear();
+            this.retries.clear();
+        }
+        if (this.deadLetters != null) {
+            this.deadLetters.unregister(this.key);
+        }
+        this.delegate.destroy();
+    }
+
+    private static class Delivery {
+
+        private final Optional<Streamable> payload;
+        private final boolean asRaw;
+        private int attempts;
+
+        Delivery(Optional<Streamable> payload, boolean asRaw) {
+            this.payload = payload;
+            this.asRaw = asRaw;
+        }
+
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import com.google.common.base.MoreObjects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The retries of failed deliveries. The backoff doubles with every
+ * attempt, up to a maximum. Half of each delay is random, so
+ * subscriptions failing at the same time do not retry in lockstep.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RetryOptions {
+
+    public static final RetryOptions NONE = new RetryOptions(1, 0, 0);
+
+    public static final RetryOptions DEFAULT = new RetryOptions(5, 500, 30000);
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    /**
+     * @param maxAttempts the number of attempts per delivery, including
+     * the first one
+     * @param initialBackoff the delay before the first retry in milliseconds
+     * @param maxBackoff the maximum delay in milliseconds
+     */
+    public RetryOptions(int maxAttempts, long initialBackoff, long maxBackoff) {
+        if (maxAttempts < 1 || initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid retry options: %s attempts, backoff %s to %s ms",
+                    maxAttempts, initialBackoff, maxBackoff));
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * @param failedAttempts the number of failed attempts so far (at least 1)
+     * @return the delay in milliseconds before the next attempt
+     */
+    public long getBackoff(int failedAttempts) {
+        long delay = this.initialBackoff;
+        for (int i = 1; i < failedAttempts && delay < this.maxBackoff; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, this.maxBackoff);
+
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    /**
+     * parses the retry options. Format: [maxAttempts]|[initialBackoff]|[maxBackoff]
+     *
+     * @param value the settings value
+     * @return the options, {@link #DEFAULT} for an empty value
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static RetryOptions parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT;
+        }
+
+        String[] parts = value.trim().split("\\|");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid retry definition: " + value);
+        }
+
+        try {
+            return new RetryOptions(Integer.parseInt(parts[0].trim()),
+                    Long.parseLong(parts[1].trim()),
+                    Long.parseLong(parts[2].trim()));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid retry definition: " + value, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("maxAttempts", maxAttempts)
+                .add("initialBackoff", initialBackoff)
+                .add("maxBackoff", maxBackoff)
+                .toString();
+    }
+
+}
@@ -28,49 +28,49 @@
  */
 package org.n52.subverse.delivery.streamable;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
-import org.n52.subverse.delivery.Streamable;
 
 /**
+ * A string payload, encoded with an explicit charset (UTF-8 unless
+ * specified otherwise).
  *
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
-public class StringStreamable implements Streamable {
+public class StringStreamable extends BytesStreamable {
 
     private final String payload;
-    private String contentType;
+    private final Charset charset;
+    private volatile byte[] bytes;
 
     public StringStreamable(String payload) {
         this(payload, null);
     }
 
     public StringStreamable(String payload, String contentType) {
-        Objects.requireNonNull(payload);
-        this.payload = payload;
-        this.contentType = contentType != null ? contentType : "text/plain";
-    }
-
-    @Override
-    public InputStream asStream() {
-        byte[] bytes = payload.getBytes();
-        return new ByteArrayInputStream(bytes);
+        this(payload, contentType, StandardCharsets.UTF_8);
     }
 
-    @Override
-    public String getContentType() {
-        return this.contentType;
+    public StringStreamable(String payload, String contentType, Charset charset) {
+        super(contentType != null ? contentType : "text/plain", Objects.requireNonNull(payload));
+        this.payload = payload;
+        this.charset = Objects.requireNonNull(charset);
     }
 
     @Override
-    public int getContentLength() {
-        return payload.length();
+    protected byte[] getBytes() {
+        byte[] result = this.bytes;
+        if (result == null) {
+            result = this.payload.getBytes(this.charset);
+            this.bytes = result;
+        }
+        return result;
     }
 
     @Override
-    public Object originalObject() {
-        return this.payload;
+    public Charset getCharset() {
+        return this.charset;
     }
 
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void testFailureRate() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", new CircuitBreakerOptions(4, 50, 1000, 100, 50));
+
+        breaker.record(true, 10);
+        breaker.record(false, 10);
+        Assert.assertThat(breaker.getState(), CoreMatchers.is(CircuitBreaker.State.OPEN));
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(false));
+
+        Thread.sleep(100);
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(true));
+        Assert.assertThat(breaker.getState(), CoreMatchers.is(CircuitBreaker.State.HALF_OPEN));
+
+        breaker.record(false, 10);
+        Assert.assertThat(breaker.getState(), CoreMatchers.is(CircuitBreaker.State.OPEN));
+
+        Thread.sleep(100);
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(true));
+        breaker.record(true, 10);
+        Assert.assertThat(breaker.getState(), CoreMatchers.is(CircuitBreaker.State.CLOSED));
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void testSingleProbe() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", new CircuitBreakerOptions(4, 50, 1000, 100, 50));
+
+        breaker.record(false, 10);
+        breaker.record(false, 10);
+        Thread.sleep(100);
+
+        /*
+         * only one probe until its outcome is known
+         */
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(true));
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(false));
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(false));
+
+        breaker.record(true, 10);
+        Assert.assertThat(breaker.getState(), CoreMatchers.is(CircuitBreaker.State.CLOSED));
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(true));
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void testLostProbe() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", new CircuitBreakerOptions(4, 50, 1000, 100, 50));
+
+        breaker.record(false, 10);
+        breaker.record(false, 10);
+        Thread.sleep(100);
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(true));
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(false));
+
+        Thread.sleep(100);
+        Assert.assertThat(breaker.allowRequest(), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void testSlowCalls() {
+        CircuitBreaker breaker = new CircuitBreaker("test", new CircuitBreakerOptions(4, 100, 1000, 75, 50));
+
+        breaker.record(true, 2000);
+        breaker.record(true, 10);
+        breaker.record(true, 2000);
+        Assert.assertThat(breaker.getState(), CoreMatchers.is(CircuitBreaker.State.CLOSED));
+
+        breaker.record(true, 2000);
+        Assert.assertThat(breaker.getState(), CoreMatchers.is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        CircuitBreaker breaker = new CircuitBreaker("test", new CircuitBreakerOptions(4, 50, 1000, 100, 50));
+
+        for (int i = 0; i < 10; i++) {
+            breaker.record(i % 4 != 3, 10);
+            Assert.assertThat(breaker.getState(), CoreMatchers.is(CircuitBreaker.State.CLOSED));
+        }
+    }
+
+    @Test
+    public void testParse() {
+        CircuitBreakerOptions options = CircuitBreakerOptions.parse("10|40|500|60|1000");
+        Assert.assertThat(options.getWindowSize(), CoreMatchers.is(10));
+        Assert.assertThat(options.getFailureRateThreshold(), CoreMatchers.is(40));
+        Assert.assertThat(options.getSlowCallDuration(), CoreMatchers.is(500L));
+        Assert.assertThat(options.getSlowCallRateThreshold(), CoreMatchers.is(60));
+        Assert.assertThat(options.getOpenDuration(), CoreMatchers.is(1000L));
+
+        Assert.assertThat(CircuitBreakerOptions.parse("off").isEnabled(), CoreMatchers.is(false));
+        Assert.assertThat(CircuitBreakerOptions.parse(""), CoreMatchers.is(CircuitBreakerOptions.DEFAULT));
+    }
+
+}
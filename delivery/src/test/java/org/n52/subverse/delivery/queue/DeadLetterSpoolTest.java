@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.subverse.delivery.DeliveryEndpoint;
+import org.n52.subverse.delivery.DeliveryException;
+import org.n52.subverse.delivery.Streamable;
+import org.n52.subverse.delivery.streamable.StringStreamable;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class DeadLetterSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplay() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        RecordingEndpoint target = new RecordingEndpoint();
+
+        DeadLetterSpool spool = new DeadLetterSpool(dir, 60000, 0, 64);
+        spool.append("sub-1", new StringStreamable("Grüße", "text/plain"), false);
+        spool.append("sub-1", new StringStreamable("second"), true);
+        spool.append("sub-2", new StringStreamable("unknown"), false);
+        Assert.assertThat(countSegments(dir), CoreMatchers.is(2L));
+
+        /*
+         * the endpoint is down: all records stay
+         */
+        target.available = false;
+        spool.register("sub-1", target);
+        spool.replay();
+        Assert.assertThat(target.received.size(), CoreMatchers.is(0));
+        Assert.assertThat(target.attempts, CoreMatchers.is(1));
+        spool.close();
+
+        /*
+         * a new spool picks up the segments of the previous one
+         */
+        spool = new DeadLetterSpool(dir, 60000, 0, 64);
+        target.available = true;
+        spool.register("sub-1", target);
+        spool.replay();
+        Assert.assertThat(target.received.toString(), CoreMatchers.is("[Grüße, second]"));
+        Assert.assertThat(target.raw.toString(), CoreMatchers.is("[false, true]"));
+
+        /*
+         * the record of the unregistered subscription is still spooled
+         */
+        target.received.clear();
+        spool.register("sub-2", target);
+        spool.replay();
+        Assert.assertThat(target.received.toString(), CoreMatchers.is("[unknown]"));
+        Assert.assertThat(countSegments(dir), CoreMatchers.is(0L));
+        spool.close();
+    }
+
+    @Test
+    public void testExpiry() throws IOException, InterruptedException {
+        Path dir = folder.newFolder().toPath();
+        RecordingEndpoint target = new RecordingEndpoint();
+
+        DeadLetterSpool spool = new DeadLetterSpool(dir, 1, 0);
+        spool.register("sub-1", target);
+        spool.append("sub-1", new StringStreamable("old"), false);
+        Thread.sleep(20);
+        spool.replay();
+
+        Assert.assertThat(target.attempts, CoreMatchers.is(0));
+        Assert.assertThat(countSegments(dir), CoreMatchers.is(0L));
+        spool.close();
+    }
+
+    @Test
+    public void testFailingRecordsAreNotRewritten() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        RecordingEndpoint target = new RecordingEndpoint();
+        target.available = false;
+
+        DeadLetterSpool spool = new DeadLetterSpool(dir, 60000, 0);
+        spool.register("sub-1", target);
+        spool.append("sub-1", new StringStreamable("first"), false);
+        spool.append("sub-1", new StringStreamable("second"), false);
+        spool.replay();
+        spool.replay();
+
+        /*
+         * the segment of the failing subscription is kept as it is
+         */
+        Assert.assertThat(listSegments(dir).toString(), CoreMatchers.containsString("segment-00000000000000000000"));
+        Assert.assertThat(countSegments(dir), CoreMatchers.is(1L));
+
+        target.available = true;
+        spool.replay();
+        Assert.assertThat(target.received.toString(), CoreMatchers.is("[first, second]"));
+        Assert.assertThat(countSegments(dir), CoreMatchers.is(0L));
+        spool.close();
+    }
+
+    @Test
+    public void testMaxSize() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        RecordingEndpoint target = new RecordingEndpoint();
+
+        DeadLetterSpool spool = new DeadLetterSpool(dir, 60000, 0, 1024, 10);
+        spool.append("sub-1", new StringStreamable("first"), false);
+        try {
+            spool.append("sub-1", new StringStreamable("second"), false);
+            Assert.fail("spool is full");
+        }
+        catch (IOException e) {
+            Assert.assertThat(e.getMessage(), CoreMatchers.containsString("full"));
+        }
+
+        /*
+         * delivered records free the space
+         */
+        spool.register("sub-1", target);
+        spool.replay();
+        Assert.assertThat(target.received.toString(), CoreMatchers.is("[first]"));
+        spool.append("sub-1", new StringStreamable("third"), false);
+        spool.close();
+    }
+
+    private List<Path> listSegments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(Path::getFileName).collect(Collectors.toList());
+        }
+    }
+
+    private long countSegments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static class RecordingEndpoint implements DeliveryEndpoint {
+
+        private final List<Object> received = new CopyOnWriteArrayList<>();
+        private final List<Boolean> raw = new CopyOnWriteArrayList<>();
+        private volatile boolean available = true;
+        private volatile int attempts;
+
+        @Override
+        public void deliver(Optional<Streamable> o, boolean asRaw) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void tryDeliver(Optional<Streamable> o, boolean asRaw) throws DeliveryException {
+            this.attempts++;
+            if (!this.available) {
+                throw new DeliveryException("down");
+            }
+            Assert.assertThat(o.get().getContentLength(),
+                    CoreMatchers.is(((String) o.get().originalObject()).getBytes(StandardCharsets.UTF_8).length));
+            this.received.add(o.get().originalObject());
+            this.raw.add(asRaw);
+        }
+
+        @Override
+        public String getEffectiveLocation() {
+            return "recording";
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+    }
+
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.queue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.subverse.delivery.DeliveryEndpoint;
+import org.n52.subverse.delivery.DeliveryException;
+import org.n52.subverse.delivery.Streamable;
+import org.n52.subverse.delivery.streamable.StringStreamable;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class QueuedDeliveryEndpointTest {
+
+    @Test
+    public void testSlowConsumerDoesNotBlockCaller() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingEndpoint slow = new BlockingEndpoint(release);
+        DeliveryScheduler scheduler = new DeliveryScheduler("test",
+                new DeliveryQueueOptions(2, QueueOverflowPolicy.DROP_OLDEST, 1));
+
+        try {
+            QueuedDeliveryEndpoint endpoint = scheduler.decorate(slow);
+
+            endpoint.deliver(payload("1"), false);
+            Assert.assertThat(slow.started.await(5, TimeUnit.SECONDS), CoreMatchers.is(true));
+
+            /*
+             * the first delivery is stuck, the queue holds the two latest
+             */
+            for (int i = 2; i <= 5; i++) {
+                endpoint.deliver(payload(Integer.toString(i)), false);
+            }
+            Assert.assertThat(endpoint.getDroppedCount(), CoreMatchers.is(2L));
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (slow.received.size() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Assert.assertThat(slow.received.toString(), CoreMatchers.is("[1, 4, 5]"));
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualExecution() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(0);
+        Semaphore global = new Semaphore(2);
+        DeliveryScheduler scheduler = new DeliveryScheduler("test",
+                new DeliveryQueueOptions(100, QueueOverflowPolicy.DROP_NEWEST, 100),
+                DeliveryExecution.VIRTUAL, global);
+
+        try {
+            BlockingEndpoint[] targets = new BlockingEndpoint[50];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = new BlockingEndpoint(release);
+                scheduler.decorate(targets[i]).deliver(payload(Integer.toString(i)), false);
+            }
+
+            for (BlockingEndpoint target : targets) {
+                Assert.assertThat(target.started.await(5, TimeUnit.SECONDS), CoreMatchers.is(true));
+            }
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testRetryKeepsOrder() throws InterruptedException {
+        FailingEndpoint flaky = new FailingEndpoint(2);
+        DeliveryScheduler scheduler = new DeliveryScheduler("test",
+                new DeliveryQueueOptions(10, QueueOverflowPolicy.DROP_NEWEST, 1),
+                DeliveryExecution.PLATFORM, null, new RetryOptions(3, 10, 20), null);
+
+        try {
+            QueuedDeliveryEndpoint endpoint = scheduler.decorate(flaky);
+            for (int i = 1; i <= 3; i++) {
+                endpoint.deliver(payload(Integer.toString(i)), false);
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (flaky.received.size() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Assert.assertThat(flaky.received.toString(), CoreMatchers.is("[1, 2, 3]"));
+            Assert.assertThat(flaky.attempts.get(), CoreMatchers.is(5));
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsynchronousFailureIsRetried() throws InterruptedException {
+        FailingEndpoint flaky = new AsyncFailingEndpoint(1);
+        DeliveryScheduler scheduler = new DeliveryScheduler("test",
+                new DeliveryQueueOptions(10, QueueOverflowPolicy.DROP_NEWEST, 1),
+                DeliveryExecution.PLATFORM, null, new RetryOptions(3, 10, 20), null);
+
+        try {
+            QueuedDeliveryEndpoint endpoint = scheduler.decorate(flaky);
+            endpoint.deliver(payload("1"), false);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (flaky.received.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Assert.assertThat(flaky.received.toString(), CoreMatchers.is("[1]"));
+            Assert.assertThat(flaky.attempts.get(), CoreMatchers.is(2));
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testBackoff() {
+        RetryOptions retry = RetryOptions.parse("5|100|1000");
+        for (int i = 0; i < 100; i++) {
+            long first = retry.getBackoff(1);
+            Assert.assertThat(first >= 50 && first <= 100, CoreMatchers.is(true));
+            long third = retry.getBackoff(3);
+            Assert.assertThat(third >= 200 && third <= 400, CoreMatchers.is(true));
+            long capped = retry.getBackoff(10);
+            Assert.assertThat(capped >= 500 && capped <= 1000, CoreMatchers.is(true));
+        }
+    }
+
+    @Test
+    public void testDestroyDeserializedCopy() throws IOException, ClassNotFoundException {
+        DeliveryScheduler scheduler = new DeliveryScheduler("test",
+                new DeliveryQueueOptions(10, QueueOverflowPolicy.DROP_NEWEST, 1));
+
+        try {
+            QueuedDeliveryEndpoint endpoint = scheduler.decorate(new DestroyableEndpoint(), "sub-1");
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+                out.writeObject(endpoint);
+            }
+            QueuedDeliveryEndpoint copy;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+                copy = (QueuedDeliveryEndpoint) in.readObject();
+            }
+
+            copy.destroy();
+            Assert.assertThat(((DestroyableEndpoint) copy.getDelegate()).destroyed, CoreMatchers.is(true));
+            Assert.assertThat(((DestroyableEndpoint) endpoint.getDelegate()).destroyed, CoreMatchers.is(false));
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testDestroyUnregistersDeadLetters() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("dead-letters");
+        DeadLetterSpool spool = new DeadLetterSpool(dir, 60000, 0);
+        FailingEndpoint down = new FailingEndpoint(1);
+        DeliveryScheduler scheduler = new DeliveryScheduler("test",
+                new DeliveryQueueOptions(10, QueueOverflowPolicy.DROP_NEWEST, 1),
+                DeliveryExecution.PLATFORM, null, new RetryOptions(1, 10, 20), spool);
+
+        try {
+            QueuedDeliveryEndpoint endpoint = scheduler.decorate(down, "sub-1");
+            endpoint.deliver(payload("1"), false);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (countFiles(dir) == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertThat(countFiles(dir), CoreMatchers.is(1L));
+
+            /*
+             * the unsubscribed consumer does not get the spooled delivery
+             */
+            endpoint.destroy();
+            spool.replay();
+            Assert.assertThat(down.attempts.get(), CoreMatchers.is(1));
+            Assert.assertThat(down.received.isEmpty(), CoreMatchers.is(true));
+        }
+        finally {
+            scheduler.shutdown();
+            spool.close();
+        }
+    }
+
+    @Test
+    public void testShortCircuitedDeliveriesAreSpooledUpToCapacity() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("dead-letters");
+        DeadLetterSpool spool = new DeadLetterSpool(dir, 60000, 0);
+        FailingEndpoint down = new FailingEndpoint(1);
+        DeliveryScheduler scheduler = new DeliveryScheduler("test",
+                new DeliveryQueueOptions(2, QueueOverflowPolicy.DROP_NEWEST, 1),
+                DeliveryExecution.PLATFORM, null, new RetryOptions(1, 10, 20), spool,
+                new CircuitBreakerOptions(2, 50, 10000, 100, 60000), QuarantineOptions.DISABLED);
+
+        try {
+            QueuedDeliveryEndpoint endpoint = scheduler.decorate(down, "sub-1");
+            endpoint.deliver(payload("1"), false);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (endpoint.getCircuitState().get() != CircuitBreaker.State.OPEN
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            for (int i = 2; i <= 6; i++) {
+                endpoint.deliver(payload(Integer.toString(i)), false);
+                while (endpoint.getShortCircuitedCount() < i - 1 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+            }
+            Assert.assertThat(endpoint.getShortCircuitedCount(), CoreMatchers.is(5L));
+
+            /*
+             * the failed delivery and two short-circuited ones were spooled
+             */
+            spool.replay();
+            Assert.assertThat(down.received.toString(), CoreMatchers.is("[1, 2, 3]"));
+        }
+        finally {
+            scheduler.shutdown();
+            spool.close();
+        }
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static Optional<Streamable> payload(String value) {
+        return Optional.of(new StringStreamable(value));
+    }
+
+    private static class BlockingEndpoint implements DeliveryEndpoint {
+
+        private final CountDownLatch release;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final List<Object> received = new CopyOnWriteArrayList<>();
+
+        BlockingEndpoint(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void deliver(Optional<Streamable> o, boolean asRaw) {
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(o.get().originalObject());
+        }
+
+        @Override
+        public String getEffectiveLocation() {
+            return "test";
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+    }
+
+    /**
+     * fails the first attempts
+     */
+    private static class FailingEndpoint implements DeliveryEndpoint {
+
+        private final int failures;
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final List<Object> received = new CopyOnWriteArrayList<>();
+
+        FailingEndpoint(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public void deliver(Optional<Streamable> o, boolean asRaw) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void tryDeliver(Optional<Streamable> o, boolean asRaw) throws DeliveryException {
+            if (this.attempts.incrementAndGet() <= this.failures) {
+                throw new DeliveryException("consumer unavailable");
+            }
+            this.received.add(o.get().originalObject());
+        }
+
+        @Override
+        public String getEffectiveLocation() {
+            return "failing";
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+    }
+
+    /**
+     * responds after the delivery returned, failing the first attempts
+     */
+    private static class AsyncFailingEndpoint extends FailingEndpoint {
+
+        AsyncFailingEndpoint(int failures) {
+            super(failures);
+        }
+
+        @Override
+        public CompletableFuture<Void> deliverAsync(Optional<Streamable> o, boolean asRaw) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            new Thread(() -> {
+                try {
+                    Thread.sleep(20);
+                    tryDeliver(o, asRaw);
+                    result.complete(null);
+                }
+                catch (DeliveryException | InterruptedException e) {
+                    result.completeExceptionally(e);
+                }
+            }).start();
+            return result;
+        }
+
+    }
+
+    private static class DestroyableEndpoint implements DeliveryEndpoint {
+
+        private boolean destroyed;
+
+        @Override
+        public void deliver(Optional<Streamable> o, boolean asRaw) {
+        }
+
+        @Override
+        public String getEffectiveLocation() {
+            return "destroyable";
+        }
+
+        @Override
+        public void destroy() {
+            this.destroyed = true;
+        }
+
+    }
+
+}
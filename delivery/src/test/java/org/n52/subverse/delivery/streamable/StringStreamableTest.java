@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.delivery.streamable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class StringStreamableTest {
+
+    @Test
+    public void testByteLength() throws IOException {
+        StringStreamable s = new StringStreamable("Grüße");
+
+        Assert.assertThat(s.getContentLength(), CoreMatchers.is(7));
+        Assert.assertThat(s.getCharset(), CoreMatchers.is(StandardCharsets.UTF_8));
+
+        StringStreamable latin = new StringStreamable("Grüße", "text/plain", StandardCharsets.ISO_8859_1);
+        Assert.assertThat(latin.getContentLength(), CoreMatchers.is(5));
+    }
+
+    @Test
+    public void testBulkAccess() throws IOException {
+        StringStreamable s = new StringStreamable("Grüße");
+        byte[] expected = "Grüße".getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        s.writeTo(out);
+        Assert.assertThat(out.toByteArray(), CoreMatchers.is(expected));
+
+        out = new ByteArrayOutputStream();
+        s.writeTo(Channels.newChannel(out));
+        Assert.assertThat(out.toByteArray(), CoreMatchers.is(expected));
+
+        ByteBuffer buffer = s.asByteBuffer();
+        Assert.assertThat(buffer.isReadOnly(), CoreMatchers.is(true));
+        Assert.assertThat(buffer.remaining(), CoreMatchers.is(expected.length));
+        Assert.assertThat(StandardCharsets.UTF_8.decode(buffer).toString(), CoreMatchers.is("Grüße"));
+    }
+
+}
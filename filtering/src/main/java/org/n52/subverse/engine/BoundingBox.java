@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A geographic bounding box in decimal degrees (WGS84).
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class BoundingBox {
+
+    static final BoundingBox WORLD = new BoundingBox(-90, -180, 90, 180);
+
+    private final double minLat;
+    private final double minLon;
+    private final double maxLat;
+    private final double maxLon;
+
+    BoundingBox(double minLat, double minLon, double maxLat, double maxLon) {
+        this.minLat = Math.min(minLat, maxLat);
+        this.minLon = Math.min(minLon, maxLon);
+        this.maxLat = Math.max(minLat, maxLat);
+        this.maxLon = Math.max(minLon, maxLon);
+    }
+
+    double getMinLat() {
+        return minLat;
+    }
+
+    double getMinLon() {
+        return minLon;
+    }
+
+    double getMaxLat() {
+        return maxLat;
+    }
+
+    double getMaxLon() {
+        return maxLon;
+    }
+
+    boolean contains(double lat, double lon) {
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    /**
+     * @param other another box
+     * @return the intersection of both boxes, null if they are disjoint
+     */
+    BoundingBox intersection(BoundingBox other) {
+        double nMinLat = Math.max(minLat, other.minLat);
+        double nMinLon = Math.max(minLon, other.minLon);
+        double nMaxLat = Math.min(maxLat, other.maxLat);
+        double nMaxLon = Math.min(maxLon, other.maxLon);
+        if (nMinLat > nMaxLat || nMinLon > nMaxLon) {
+            return null;
+        }
+        return new BoundingBox(nMinLat, nMinLon, nMaxLat, nMaxLon);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("minLat", minLat)
+                .add("minLon", minLon)
+                .add("maxLat", maxLat)
+                .add("maxLon", maxLon)
+                .toString();
+    }
+
+}
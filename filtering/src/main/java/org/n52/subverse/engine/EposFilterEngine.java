@@ -29,17 +29,12 @@
 package org.n52.subverse.engine;
 
 import org.n52.subverse.subscription.UnknownSubscriptionException;
-import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import net.opengis.fes.x20.FilterDocument;
 import net.opengis.fes.x20.FilterType;
 import org.apache.xmlbeans.XmlObject;
-import org.apache.xmlbeans.XmlOptions;
-import org.n52.epos.engine.EposEngine;
 import org.n52.epos.engine.rules.RuleInstance;
 import org.n52.epos.event.EposEvent;
 import org.n52.epos.filter.EposFilter;
@@ -50,16 +45,38 @@ import org.n52.epos.rules.PassiveFilterAlreadyPresentException;
 import org.n52.epos.rules.Rule;
 import org.n52.epos.rules.RuleListener;
 import org.n52.epos.transform.TransformationException;
-import org.n52.epos.transform.TransformationRepository;
 import org.n52.subverse.delivery.DeliveryDefinition;
 import org.n52.subverse.delivery.DeliveryEndpoint;
 import org.n52.subverse.delivery.Streamable;
-import org.n52.subverse.delivery.streamable.GenericStreamable;
 import org.n52.subverse.delivery.streamable.StringStreamable;
 import org.n52.subverse.subscription.Subscription;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Matches incoming messages against the registered subscriptions. Matching
+ * is partitioned into a configurable number of {@link FilterShard}s, each
+ * with its own rule set and worker thread. Messages are routed to a shard
+ * by their publication identifier, so the ordering of a publication's
+ * messages is preserved. If partitioning by key is enabled, messages
+ * are routed by the partition key provided by the producer instead and every
+ * shard holds its own copy of the rules.
+ *
+ * Within a shard rules are indexed by publication identifier. Messages of
+ * publications without any subscription are discarded before they are
+ * transformed or queued. Subscriptions with equivalent filters share a
+ * single rule, so the filter is instantiated and evaluated only once.
+ * Messages are transformed into an {@link EposEvent} only when a filter
+ * actually inspects a property, matches of subscriptions without a filter
+ * are delivered from the raw message.
+ *
+ * Each shard buffers at most {@link #setQueueCapacity(int)} messages. What
+ * happens to messages arriving at a saturated shard is determined by the
+ * {@link OverloadPolicy}.
+ *
+ * The shards are created by {@link #init()} once the engine is configured,
+ * or on first use. Changing the configuration afterwards replaces them:
+ * the new shards take over immediately, the previous ones process their
+ * buffered messages before they are shut down.
  *
  * @author <a href="mailto:m.rieke@52north.org">Matthes Rieke</a>
  */
@@ -67,86 +84,342 @@ public class EposFilterEngine implements FilterEngine {
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(EposFilterEngine.class);
 
-    private final EposEngine engine = EposEngine.getInstance();
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    public static final long DEFAULT_BLOCK_TIMEOUT = 5000;
+
+    /*
+     * the time replaced shards get to process their buffered messages
+     */
+    private static final long DRAIN_TIMEOUT = 30000;
+
+    private final Map<String, Registration> registrations = new HashMap<>();
+    private final TransformerCache transformers = new TransformerCache();
+
+    private volatile FilterShard[] shards;
+
+    private int shardCount;
+
+    private volatile boolean partitionByKey;
+
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+
+    private long blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+
+    /**
+     * creates the shards using the current configuration. Does nothing if
+     * they already exist.
+     */
+    public synchronized void init() {
+        if (this.shards == null) {
+            this.shards = createShards(resolveShardCount(this.shardCount));
+            LOG.info("Filter engine using {} shard(s), partitioned by {}", this.shards.length,
+                    this.partitionByKey ? "key" : "publication");
+        }
+    }
+
+    private FilterShard[] getShards() {
+        FilterShard[] result = this.shards;
+        if (result == null) {
+            synchronized (this) {
+                init();
+                result = this.shards;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param count the number of matching partitions. A value smaller than 1
+     * uses the number of available processors.
+     */
+    public synchronized void setShardCount(int count) {
+        this.shardCount = count;
+        redistribute();
+    }
+
+    public int getShardCount() {
+        return getShards().length;
+    }
+
+    /**
+     * @param partitionByKey if true, messages are distributed by the partition
+     * key provided by the producer and all rules are replicated to every shard.
+     * Otherwise messages and rules are placed by publication identifier.
+     */
+    public synchronized void setPartitionByKey(boolean partitionByKey) {
+        this.partitionByKey = partitionByKey;
+        redistribute();
+    }
+
+    public boolean isPartitionByKey() {
+        return partitionByKey;
+    }
+
+    /**
+     * @param capacity the number of messages each shard buffers before the
+     * overload policy applies
+     */
+    public synchronized void setQueueCapacity(int capacity) {
+        this.queueCapacity = capacity > 0 ? capacity : DEFAULT_QUEUE_CAPACITY;
+        redistribute();
+    }
+
+    public synchronized void setOverloadPolicy(OverloadPolicy policy) {
+        this.overloadPolicy = policy != null ? policy : OverloadPolicy.BLOCK;
+        redistribute();
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * @param timeout the maximum time in milliseconds a producer waits
+     * for capacity when using {@link OverloadPolicy#BLOCK}
+     */
+    public synchronized void setBlockTimeout(long timeout) {
+        this.blockTimeout = timeout;
+        redistribute();
+    }
 
-    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    /**
+     * @return the number of messages currently buffered across all shards
+     */
+    public int getQueueDepth() {
+        int result = 0;
+        for (FilterShard shard : getShards()) {
+            result += shard.getQueueDepth();
+        }
+        return result;
+    }
 
-    private final Map<String, Rule> rules = new HashMap<>();
+    /**
+     * @return the number of messages dropped by the current shards due to
+     * a saturated ingest buffer
+     */
+    public long getDroppedMessageCount() {
+        long result = 0;
+        for (FilterShard shard : getShards()) {
+            result += shard.getDroppedCount();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of messages rejected by the current shards due to
+     * a saturated ingest buffer
+     */
+    public long getRejectedMessageCount() {
+        long result = 0;
+        for (FilterShard shard : getShards()) {
+            result += shard.getRejectedCount();
+        }
+        return result;
+    }
 
     @Override
-    public void filterMessage(Object message, String publicationId) {
+    public void filterMessage(Object message, String publicationId) throws EngineOverloadedException {
         filterMessage(message, publicationId, null);
     }
 
     @Override
-    public void filterMessage(final Object message, final String publicationId, final String contentType) {
-        executor.submit(() -> {
-            if (rules.isEmpty()) {
-                LOG.trace("No rules registered at the moment, no filtering required!");
+    public void filterMessage(Object message, String publicationId, String contentType)
+            throws EngineOverloadedException {
+        filterMessage(message, publicationId, contentType, null);
+    }
+
+    @Override
+    public void filterMessage(final Object message, final String publicationId, final String contentType,
+            final Object partitionKey) throws EngineOverloadedException {
+        FilterShard[] current = getShards();
+        while (true) {
+            FilterShard shard = selectShard(current, publicationId, partitionKey);
+
+            if (!shard.hasRules(publicationId)) {
+                LOG.trace("No rules registered for publication '{}', no filtering required!", publicationId);
+                return;
+            }
+
+            if (shard.submit(createTask(shard, message, publicationId, contentType))) {
                 return;
             }
 
-            EposEvent event = null;
+            /*
+             * the shards have been replaced meanwhile, use the new ones
+             */
+            FilterShard[] next = this.shards;
+            if (next == current) {
+                LOG.warn("Shard of publication '{}' is shut down, message discarded", publicationId);
+                return;
+            }
+            current = next;
+        }
+    }
+
+    private Runnable createTask(FilterShard shard, Object message, String publicationId, String contentType) {
+        return () -> {
+            if (!shard.hasRules(publicationId)) {
+                LOG.trace("No rules registered for publication '{}', no filtering required!", publicationId);
+                return;
+            }
+
+            LazyEposEvent event;
             if (message instanceof EposEvent) {
-                event = (EposEvent) message;
+                event = new LazyEposEvent((EposEvent) message, publicationId);
             }
             else {
-                try {
-                    event = TransformationRepository.Instance.transform(message, EposEvent.class, contentType);
-                } catch (TransformationException ex) {
-                    LOG.warn("could not transform to EposEvent: {}", ex.getMessage());
-                }
-
-                if (event == null) {
-                    LOG.info("Using Generic event");
-                    event = new GenericEposEvent(message, contentType);
-                }
+                event = new LazyEposEvent(message, contentType, publicationId,
+                        () -> transform(message, publicationId, contentType));
             }
 
-            event.setValue(PublicationFilter.KEY, publicationId);
+            shard.filterEvent(event, publicationId);
+        };
+    }
+
+    private EposEvent transform(Object message, String publicationId, String contentType) {
+        EposEvent event = null;
+        try {
+            event = this.transformers.transform(message, publicationId, contentType);
+        } catch (TransformationException ex) {
+            LOG.warn("could not transform to EposEvent: {}", ex.getMessage());
+        }
 
-            this.engine.filterEvent(event);
-        });
+        if (event == null) {
+            LOG.info("Using Generic event");
+            event = new GenericEposEvent(message, contentType);
+        }
+        return event;
     }
 
     @Override
     public synchronized void register(Subscription result, DeliveryEndpoint deliveryEndpoint)
             throws SubscriptionRegistrationException {
+        Registration reg = new Registration(result, deliveryEndpoint);
+        placeRules(reg, getShards());
+        this.registrations.put(result.getId(), reg);
+    }
+
+    @Override
+    public synchronized void removeSubscription(String subscriptionId) throws UnknownSubscriptionException {
+        if (!this.registrations.containsKey(subscriptionId)) {
+            throw new UnknownSubscriptionException("Subscription unknown: "+subscriptionId);
+        }
+        for (FilterShard shard : getShards()) {
+            shard.removeRule(subscriptionId);
+        }
+        this.registrations.remove(subscriptionId);
+    }
+
+    /**
+     * stops all matching threads. Already queued messages are still processed.
+     */
+    public synchronized void shutdown() {
+        if (this.shards == null) {
+            return;
+        }
+        for (FilterShard shard : this.shards) {
+            shard.shutdown();
+        }
+    }
+
+    private FilterShard selectShard(FilterShard[] candidates, String publicationId, Object partitionKey) {
+        Object key = this.partitionByKey && partitionKey != null ? partitionKey : publicationId;
+        if (key == null || candidates.length == 1) {
+            return candidates[0];
+        }
+        return candidates[Math.floorMod(key.hashCode(), candidates.length)];
+    }
+
+    private void placeRules(Registration reg, FilterShard[] targets) throws SubscriptionRegistrationException {
+        String pubId = reg.subscription.getOptions().getPublicationIdentifier();
         try {
-            boolean useRaw = false;
-            Optional<DeliveryDefinition> delDef = result.getOptions().getDeliveryDefinition();
-            if (delDef.isPresent()) {
-                useRaw = delDef.get().isUseRaw();
+            if (this.partitionByKey || pubId == null) {
+                /*
+                 * rules of the root publication (or when partitioning by key) might
+                 * match on every shard, each shard gets its own instance
+                 */
+                for (FilterShard shard : targets) {
+                    addRule(shard, reg, pubId);
+                }
+            }
+            else {
+                addRule(selectShard(targets, pubId, null), reg, pubId);
             }
-
-            Optional<XmlObject> filter = result.getOptions().getFilter();
-            Rule rule = createRule(filter, deliveryEndpoint, result.getOptions().getPublicationIdentifier(),
-                    useRaw);
-            this.engine.registerRule(rule);
-            this.rules.put(result.getId(), rule);
         } catch (FilterInstantiationException ex) {
+            for (FilterShard shard : targets) {
+                shard.removeRule(reg.subscription.getId());
+            }
             LOG.warn("Could not instantiate rule: {}", ex.getMessage());
             throw new SubscriptionRegistrationException("Could not instantiate rule", ex);
         }
     }
 
-    @Override
-    public synchronized void removeSubscription(String subscriptionId) throws UnknownSubscriptionException {
-        if (!this.rules.containsKey(subscriptionId)) {
-            throw new UnknownSubscriptionException("Subscription unknown: "+subscriptionId);
+    private void redistribute() {
+        FilterShard[] previous = this.shards;
+        if (previous == null) {
+            /*
+             * not yet started, the shards are created once configured
+             */
+            return;
         }
-        this.engine.unregisterRule(this.rules.get(subscriptionId));
-        this.rules.remove(subscriptionId);
+
+        FilterShard[] next = createShards(resolveShardCount(this.shardCount));
+
+        for (Registration reg : this.registrations.values()) {
+            try {
+                placeRules(reg, next);
+            } catch (SubscriptionRegistrationException ex) {
+                LOG.warn("Could not re-register subscription '{}'", reg.subscription.getId(), ex);
+            }
+        }
+
+        this.shards = next;
+        for (FilterShard shard : previous) {
+            shard.shutdown();
+        }
+        for (FilterShard shard : previous) {
+            try {
+                if (!shard.awaitTermination(DRAIN_TIMEOUT)) {
+                    LOG.warn("Replaced shard did not process its buffered messages within {} ms", DRAIN_TIMEOUT);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        LOG.info("Filter engine using {} shard(s), partitioned by {}", next.length,
+                this.partitionByKey ? "key" : "publication");
+    }
+
+    private static int resolveShardCount(int count) {
+        return count < 1 ? Runtime.getRuntime().availableProcessors() : count;
+    }
+
+    private FilterShard[] createShards(int count) {
+        FilterShard[] result = new FilterShard[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = new FilterShard(i, this.queueCapacity, this.overloadPolicy, this.blockTimeout);
+        }
+        return result;
+    }
+
+    private void addRule(FilterShard shard, Registration reg, String pubId) throws FilterInstantiationException {
+        shard.addRule(reg.subscription.getId(), pubId, reg.filterKey, reg.constraints, reg.listener,
+                listener -> createRule(reg.filter, listener));
     }
 
-    private Rule createRule(Optional<XmlObject> filter, DeliveryEndpoint endpoint, String pubId, boolean useRaw)
+    private Rule createRule(Optional<XmlObject> filter, RuleListener listener)
             throws FilterInstantiationException {
-        Rule rule = new RuleInstance(new LocalRuleListener(endpoint, useRaw));
+        Rule rule = new RuleInstance(listener);
 
         if (filter.isPresent()) {
             try {
                 EposFilter instantiate = FilterInstantiationRepository.Instance
-                    .instantiate(prepare(filter.get()));
+                    .instantiate(filter.get());
 
                 rule.setPassiveFilter((PassiveFilter) instantiate);
             } catch (PassiveFilterAlreadyPresentException ex) {
@@ -155,14 +428,10 @@ public class EposFilterEngine implements FilterEngine {
             }
         }
 
-        if (pubId != null) {
-            rule.addActiveFilter(new PublicationFilter(pubId));
-        }
-
         return rule;
     }
 
-    private XmlObject prepare(XmlObject obj) {
+    private static XmlObject prepare(XmlObject obj) {
         if (obj instanceof FilterType) {
             FilterDocument doc = FilterDocument.Factory.newInstance();
             doc.setFilter((FilterType) obj);
@@ -180,32 +449,37 @@ public class EposFilterEngine implements FilterEngine {
             return new StringStreamable((String) o, contentType);
         }
         else if (o instanceof XmlObject) {
-            return new GenericStreamable("application/xml", o) {
-                private String xml;
+            return new XmlStreamable((XmlObject) o);
+        }
 
-                @Override
-                public InputStream asStream() {
-                    return new StringStreamable(getXml()).asStream();
-                }
+        return null;
+    }
 
-                public synchronized String getXml() {
-                    if (this.xml == null) {
-                        this.xml = ((XmlObject) o).xmlText(new XmlOptions().setSaveOuter());
-                    }
-                    return xml;
-                }
 
-                @Override
-                public int getContentLength() {
-                    return getXml().length();
-                }
-            };
+    private class Registration {
+
+        private final Subscription subscription;
+        private final Optional<XmlObject> filter;
+        private final String filterKey;
+        private final FilterConstraints constraints;
+        private final RuleListener listener;
+
+        Registration(Subscription subscription, DeliveryEndpoint endpoint) {
+            this.subscription = subscription;
+            this.filter = subscription.getOptions().getFilter().map(EposFilterEngine::prepare);
+            this.filterKey = FilterCanonicalizer.canonicalize(this.filter.orElse(null));
+            this.constraints = FilterConstraints.extract(this.filter);
+
+            boolean useRaw = false;
+            Optional<DeliveryDefinition> delDef = subscription.getOptions().getDeliveryDefinition();
+            if (delDef.isPresent()) {
+                useRaw = delDef.get().isUseRaw();
+            }
+            this.listener = new LocalRuleListener(endpoint, useRaw);
         }
 
-        return null;
     }
 
-
     private class LocalRuleListener implements RuleListener {
 
         private final DeliveryEndpoint endpoint;
@@ -219,21 +493,28 @@ public class EposFilterEngine implements FilterEngine {
         @Override
         public void onMatchingEvent(EposEvent event) {
             //TODO implement UseRaw
-            this.endpoint.deliver(Optional.ofNullable(createStreamable(
-                    event.getOriginalObject(),
-                    event.getContentType())),
+            this.endpoint.deliver(Optional.ofNullable(streamable(event, event.getOriginalObject())),
                     this.useRaw);
         }
 
         @Override
         public void onMatchingEvent(EposEvent event, Object desiredOutputToConsumer) {
             //TODO implement UseRaw
-            this.endpoint.deliver(Optional.ofNullable(createStreamable(
-                    desiredOutputToConsumer,
-                    event.getContentType())),
+            this.endpoint.deliver(Optional.ofNullable(streamable(event, desiredOutputToConsumer)),
                     this.useRaw);
         }
 
+        private Streamable streamable(EposEvent event, Object payload) {
+            if (payload == null) {
+                return null;
+            }
+            if (event instanceof LazyEposEvent) {
+                return ((LazyEposEvent) event).getStreamable(payload, event.getContentType(),
+                        EposFilterEngine.this::createStreamable);
+            }
+            return createStreamable(payload, event.getContentType());
+        }
+
         @Override
         public Object getEndpointReference() {
             return this.endpoint;
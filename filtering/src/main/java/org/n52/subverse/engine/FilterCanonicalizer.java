@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.xmlbeans.XmlObject;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Creates a canonical representation of filter documents. Two filters
+ * that only differ in namespace prefixes, attribute order, comments or
+ * formatting whitespace share the same representation. Prefixed names
+ * in property references and QName attribute values are resolved to their
+ * namespace as well; literals are kept as they are.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class FilterCanonicalizer {
+
+    /**
+     * the canonical representation of an absent filter
+     */
+    static final String NO_FILTER = "";
+
+    private static final String XMLNS_NAMESPACE = "http://www.w3.org/2000/xmlns/";
+
+    /*
+     * a prefixed name within an XPath expression
+     */
+    private static final Pattern PREFIXED_NAME = Pattern.compile(
+            "(?<![\\w.\\-])([A-Za-z_][\\w.\\-]*):([A-Za-z_][\\w.\\-]*)");
+
+    /*
+     * an attribute value consisting of a single prefixed name
+     */
+    private static final Pattern QNAME_VALUE = Pattern.compile("([A-Za-z_][\\w.\\-]*):([A-Za-z_][\\w.\\-]*)");
+
+    private FilterCanonicalizer() {
+    }
+
+    static String canonicalize(XmlObject filter) {
+        if (filter == null) {
+            return NO_FILTER;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        append(sb, filter.getDomNode());
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, Node node) {
+        switch (node.getNodeType()) {
+            case Node.DOCUMENT_NODE:
+            case Node.DOCUMENT_FRAGMENT_NODE:
+                appendChildren(sb, node);
+                break;
+            case Node.ELEMENT_NODE:
+                sb.append('<');
+                appendName(sb, node);
+                appendAttributes(sb, node.getAttributes());
+                sb.append('>');
+                appendChildren(sb, node);
+                sb.append("</>");
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                String text = node.getNodeValue().trim();
+                if (isPropertyReference(node.getParentNode())) {
+                    text = resolvePath(text, node.getParentNode());
+                }
+                if (!text.isEmpty()) {
+                    sb.append('"').append(text.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void appendChildren(StringBuilder sb, Node node) {
+        NodeList children = node.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            append(sb, children.item(i));
+        }
+    }
+
+    private static void appendName(StringBuilder sb, Node node) {
+        String localName = node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+        if (node.getNamespaceURI() != null) {
+            sb.append('{').append(node.getNamespaceURI()).append('}');
+        }
+        sb.append(localName);
+    }
+
+    private static void appendAttributes(StringBuilder sb, NamedNodeMap attributes) {
+        if (attributes == null || attributes.getLength() == 0) {
+            return;
+        }
+
+        List<String> result = new ArrayList<>(attributes.getLength());
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attr = (Attr) attributes.item(i);
+            if (XMLNS_NAMESPACE.equals(attr.getNamespaceURI()) || attr.getName().startsWith("xmlns")) {
+                continue;
+            }
+
+            StringBuilder a = new StringBuilder();
+            appendName(a, attr);
+            a.append("=\"").append(resolveQName(attr.getValue(), attr.getOwnerElement())).append('"');
+            result.add(a.toString());
+        }
+
+        Collections.sort(result);
+        for (String a : result) {
+            sb.append(' ').append(a);
+        }
+    }
+
+    /**
+     * @return true if the node holds an XPath expression, i.e. it is a
+     * fes:ValueReference or an ogc:PropertyName of older filter versions
+     */
+    private static boolean isPropertyReference(Node node) {
+        return node != null && node.getNodeType() == Node.ELEMENT_NODE
+                && ("ValueReference".equals(node.getLocalName()) || "PropertyName".equals(node.getLocalName()));
+    }
+
+    /**
+     * replaces the prefixes of names outside of string literals with
+     * their namespace
+     */
+    private static String resolvePath(String path, Node context) {
+        StringBuilder result = new StringBuilder(path.length());
+        int start = 0;
+        char quote = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (quote == 0 && (c == '\'' || c == '"')) {
+                result.append(resolveNames(path.substring(start, i), context));
+                start = i;
+                quote = c;
+            }
+            else if (c == quote) {
+                result.append(path, start, i + 1);
+                start = i + 1;
+                quote = 0;
+            }
+        }
+        if (quote == 0) {
+            result.append(resolveNames(path.substring(start), context));
+        }
+        else {
+            result.append(path, start, path.length());
+        }
+        return result.toString();
+    }
+
+    private static String resolveNames(String expression, Node context) {
+        Matcher m = PREFIXED_NAME.matcher(expression);
+        StringBuffer result = new StringBuffer(expression.length());
+        while (m.find()) {
+            String namespace = lookupNamespace(context, m.group(1));
+            String replacement = namespace != null ? "{" + namespace + "}" + m.group(2) : m.group();
+            m.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        m.appendTail(result);
+        return result.toString();
+    }
+
+    private static String resolveQName(String value, Node context) {
+        Matcher m = QNAME_VALUE.matcher(value.trim());
+        if (!m.matches()) {
+            return value;
+        }
+        String namespace = lookupNamespace(context, m.group(1));
+        return namespace != null ? "{" + namespace + "}" + m.group(2) : value;
+    }
+
+    /**
+     * resolves the prefix by the namespace declarations in scope. Does not
+     * rely on DOM level 3, which is not supported by every implementation
+     */
+    private static String lookupNamespace(Node context, String prefix) {
+        for (Node n = context; n != null; n = n.getParentNode()) {
+            if (n.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            Attr declaration = ((Element) n).getAttributeNode("xmlns:" + prefix);
+            if (declaration != null) {
+                return declaration.getValue();
+            }
+            if (prefix.equals(n.getPrefix()) && n.getNamespaceURI() != null) {
+                return n.getNamespaceURI();
+            }
+        }
+        return null;
+    }
+
+}
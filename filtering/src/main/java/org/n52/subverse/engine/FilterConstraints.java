@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.xmlbeans.XmlObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Necessary conditions of a subscription filter which can be checked
+ * without evaluating the filter itself. They are used to index rules so
+ * that an event only touches the rules it can possibly match.
+ *
+ * Only conditions that hold for every matching event are extracted, i.e.
+ * the top-level operator of the filter or direct operands of a top-level
+ * fes:And. These are the ranges of numeric comparisons with a literal,
+ * everything else is ignored. Spatial operators are not extracted: the
+ * events of this service, e.g. ADS-B reports, carry their position in
+ * numeric latitude and longitude properties, not in a geometry.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class FilterConstraints {
+
+    static final FilterConstraints NONE = new FilterConstraints(Collections.emptyMap(), true);
+
+    /*
+     * the constraints of a filter no event can match, e.g. a > 10 and a < 5
+     */
+    static final FilterConstraints UNSATISFIABLE = new FilterConstraints(Collections.emptyMap(), false);
+
+    private final Map<String, NumericRange> ranges;
+    private final boolean satisfiable;
+
+    private FilterConstraints(Map<String, NumericRange> ranges, boolean satisfiable) {
+        this.ranges = ranges;
+        this.satisfiable = satisfiable;
+    }
+
+    /**
+     * @return false if no event can match the filter
+     */
+    boolean isSatisfiable() {
+        return satisfiable;
+    }
+
+    /**
+     * @param property the property
+     * @return the range the property of every matching event lies in, if
+     * known
+     */
+    Optional<NumericRange> getRange(String property) {
+        return Optional.ofNullable(ranges.get(property));
+    }
+
+    /**
+     * @return the ranges the numeric properties of every matching event
+     * lie in, in document order of the filter
+     */
+    Map<String, NumericRange> getRanges() {
+        return Collections.unmodifiableMap(ranges);
+    }
+
+    static FilterConstraints extract(Optional<XmlObject> filter) {
+        if (!filter.isPresent()) {
+            return NONE;
+        }
+
+        Node node = filter.get().getDomNode();
+        Element root = node instanceof Document ? ((Document) node).getDocumentElement()
+                : node instanceof Element ? (Element) node : null;
+        if (root == null) {
+            return NONE;
+        }
+
+        if (!"Filter".equals(root.getLocalName())) {
+            return NONE;
+        }
+
+        List<Element> operators = new ArrayList<>();
+        for (Element op : childElements(root)) {
+            if ("And".equals(op.getLocalName())) {
+                operators.addAll(childElements(op));
+            }
+            else {
+                operators.add(op);
+            }
+        }
+
+        Map<String, NumericRange> ranges = new LinkedHashMap<>();
+        for (Element op : operators) {
+            comparisonConstraint(op, ranges);
+        }
+
+        if (ranges.values().stream().anyMatch(NumericRange::isEmpty)) {
+            return UNSATISFIABLE;
+        }
+        if (ranges.isEmpty()) {
+            return NONE;
+        }
+        return new FilterConstraints(ranges, true);
+    }
+
+    private static void comparisonConstraint(Element op, Map<String, NumericRange> target) {
+        String name = op.getLocalName();
+        if (name == null) {
+            return;
+        }
+
+        NumericRange range;
+        String property;
+        if ("PropertyIsBetween".equals(name)) {
+            List<Element> operands = childElements(op);
+            if (operands.size() != 3 || !"ValueReference".equals(operands.get(0).getLocalName())) {
+                return;
+            }
+            property = operands.get(0).getTextContent().trim();
+            double lower = boundaryLiteral(operands.get(1), "LowerBoundary");
+            double upper = boundaryLiteral(operands.get(2), "UpperBoundary");
+            if (Double.isNaN(lower) || Double.isNaN(upper)) {
+                return;
+            }
+            range = new NumericRange(lower, true, upper, true);
+        }
+        else {
+            List<Element> operands = childElements(op);
+            if (operands.size() != 2) {
+                return;
+            }
+
+            boolean reversed;
+            Element reference;
+            Element literal;
+            if ("ValueReference".equals(operands.get(0).getLocalName())) {
+                reference = operands.get(0);
+                literal = operands.get(1);
+                reversed = false;
+            }
+            else {
+                literal = operands.get(0);
+                reference = operands.get(1);
+                reversed = true;
+            }
+            if (!"ValueReference".equals(reference.getLocalName())) {
+                return;
+            }
+            double value = literalValue(literal);
+            if (Double.isNaN(value)) {
+                return;
+            }
+
+            property = reference.getTextContent().trim();
+            switch (name) {
+                case "PropertyIsGreaterThan":
+                    range = reversed ? NumericRange.atMost(value, false) : NumericRange.atLeast(value, false);
+                    break;
+                case "PropertyIsGreaterThanOrEqualTo":
+                    range = reversed ? NumericRange.atMost(value, true) : NumericRange.atLeast(value, true);
+                    break;
+                case "PropertyIsLessThan":
+                    range = reversed ? NumericRange.atLeast(value, false) : NumericRange.atMost(value, false);
+                    break;
+                case "PropertyIsLessThanOrEqualTo":
+                    range = reversed ? NumericRange.atLeast(value, true) : NumericRange.atMost(value, true);
+                    break;
+                default:
+                    return;
+            }
+        }
+
+        if (property.isEmpty()) {
+            return;
+        }
+        target.merge(property, range, NumericRange::intersection);
+    }
+
+    private static double boundaryLiteral(Element boundary, String expectedName) {
+        if (!expectedName.equals(boundary.getLocalName())) {
+            return Double.NaN;
+        }
+        List<Element> children = childElements(boundary);
+        return children.size() == 1 ? literalValue(children.get(0)) : Double.NaN;
+    }
+
+    private static double literalValue(Element literal) {
+        if (!"Literal".equals(literal.getLocalName()) || !childElements(literal).isEmpty()) {
+            return Double.NaN;
+        }
+        try {
+            double value = Double.parseDouble(literal.getTextContent().trim());
+            return Double.isInfinite(value) ? Double.NaN : value;
+        }
+        catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static List<Element> childElements(Element parent) {
+        List<Element> result = new ArrayList<>();
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE) {
+                result.add((Element) n);
+            }
+        }
+        return result;
+    }
+
+}
@@ -38,9 +38,23 @@ import org.n52.subverse.subscription.Subscription;
  */
 public interface FilterEngine {
 
-    void filterMessage(Object message, String publicationId);
+    void filterMessage(Object message, String publicationId) throws EngineOverloadedException;
 
-    void filterMessage(Object message, String publicationId, String contentType);
+    void filterMessage(Object message, String publicationId, String contentType)
+            throws EngineOverloadedException;
+
+    /**
+     * @param message the message to filter
+     * @param publicationId the publication the message belongs to
+     * @param contentType the content type of the message, may be null
+     * @param partitionKey a key (e.g. an aircraft identifier) used to
+     * distribute messages of one publication across matching partitions.
+     * Messages sharing a key are matched in order. May be null.
+     * @throws EngineOverloadedException if the message cannot be accepted
+     * as the ingest buffer is saturated
+     */
+    void filterMessage(Object message, String publicationId, String contentType, Object partitionKey)
+            throws EngineOverloadedException;
 
     void register(Subscription result, DeliveryEndpoint deliveryEndpoint)
             throws SubscriptionRegistrationException;
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.n52.epos.event.EposEvent;
+import org.n52.epos.filter.FilterInstantiationException;
+import org.n52.epos.rules.RuleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single matching partition of the {@link EposFilterEngine}. Each shard
+ * owns its own rule set and a dedicated worker thread, so events routed
+ * to the same shard are matched in submission order.
+ *
+ * Rules are indexed by the publication they subscribe to, so an event only
+ * touches the rules of its publication and those of the root publication.
+ * Subscriptions of the same publication with an equivalent filter share
+ * one {@link SharedRule}. Within a publication, the {@link RuleSet} narrows
+ * the rules down further, e.g. by the position of the event.
+ *
+ * Incoming messages are buffered in a bounded queue. If it is saturated,
+ * the {@link OverloadPolicy} of the shard decides what happens to the new
+ * message.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class FilterShard {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FilterShard.class);
+    private static final long DROP_LOG_INTERVAL = 1000;
+
+    private final int index;
+    private final ExecutorService executor;
+    private final Map<String, RuleSet> publicationRules = new ConcurrentHashMap<>();
+    private final RuleSet rootRules = new RuleSet();
+    private final Map<String, SharedRule> subscriptionRules = new ConcurrentHashMap<>();
+    private final Map<String, String> subscriptionPublications = new ConcurrentHashMap<>();
+    private final BlockingQueue<Runnable> queue;
+    private final OverloadPolicy policy;
+    private final long blockTimeout;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean running = true;
+
+    FilterShard(int index, int capacity, OverloadPolicy policy, long blockTimeout) {
+        this.index = index;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.blockTimeout = blockTimeout;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("subverse-filter-shard-" + index)
+                .setDaemon(true)
+                .build());
+        this.executor.submit(this::drain);
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @param subscriptionId the subscription the rule belongs to
+     * @param publicationId the subscribed publication, null for the root
+     * publication
+     * @param filterKey the canonical representation of the subscription's filter
+     * @param constraints the constraints extracted from the subscription's filter
+     * @param listener the listener of the subscription
+     * @param factory creates the rule if no equivalent one is present
+     * @throws FilterInstantiationException if the rule could not be created
+     */
+    synchronized void addRule(String subscriptionId, String publicationId, String filterKey,
+            FilterConstraints constraints, RuleListener listener, SharedRule.RuleFactory factory)
+            throws FilterInstantiationException {
+        RuleSet rules = publicationId == null ? this.rootRules
+                : this.publicationRules.get(publicationId);
+
+        SharedRule shared = rules != null ? rules.get(filterKey) : null;
+        if (shared == null) {
+            shared = SharedRule.create(filterKey, constraints, factory);
+            shared.addListener(subscriptionId, listener);
+            if (rules == null) {
+                rules = new RuleSet();
+                this.publicationRules.put(publicationId, rules);
+            }
+            rules.add(shared);
+        }
+        else {
+            LOG.debug("Sharing rule of {} subscription(s) with subscription '{}'", shared.getListenerCount(),
+                    subscriptionId);
+            shared.addListener(subscriptionId, listener);
+        }
+
+        if (publicationId != null) {
+            this.subscriptionPublications.put(subscriptionId, publicationId);
+        }
+        this.subscriptionRules.put(subscriptionId, shared);
+    }
+
+    synchronized boolean removeRule(String subscriptionId) {
+        SharedRule shared = this.subscriptionRules.remove(subscriptionId);
+        if (shared == null) {
+            return false;
+        }
+
+        shared.removeListener(subscriptionId);
+        String publicationId = this.subscriptionPublications.remove(subscriptionId);
+        if (shared.isUnused()) {
+            RuleSet rules = publicationId == null ? this.rootRules
+                    : this.publicationRules.get(publicationId);
+            if (rules != null) {
+                rules.remove(shared);
+                if (rules.isEmpty() && publicationId != null) {
+                    this.publicationRules.remove(publicationId);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param publicationId the publication of an event
+     * @return true if any rule might match events of the publication
+     */
+    boolean hasRules(String publicationId) {
+        return !this.rootRules.isEmpty()
+                || (publicationId != null && this.publicationRules.containsKey(publicationId));
+    }
+
+    int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    /**
+     * @param task the matching of a message
+     * @return false if the shard has been shut down and did not take the
+     * task, true if it was queued or handled by the overload policy
+     * @throws EngineOverloadedException if the policy rejected the task
+     */
+    boolean submit(Runnable task) throws EngineOverloadedException {
+        if (!this.running) {
+            return false;
+        }
+
+        switch (this.policy) {
+            case DROP_NEWEST:
+                if (!this.queue.offer(task)) {
+                    onDropped();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!this.queue.offer(task)) {
+                    if (this.queue.poll() != null) {
+                        onDropped();
+                    }
+                }
+                break;
+            case REJECT:
+                if (!this.queue.offer(task)) {
+                    onRejected();
+                }
+                break;
+            case BLOCK:
+            default:
+                try {
+                    if (!this.queue.offer(task, this.blockTimeout, TimeUnit.MILLISECONDS)) {
+                        onRejected();
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new EngineOverloadedException("Interrupted while waiting for ingest capacity", ex);
+                }
+                break;
+        }
+
+        /*
+         * the shard might have been shut down meanwhile and its worker
+         * already finished. Take the task back unless it was processed
+         */
+        return this.running || !this.queue.remove(task);
+    }
+
+    private void onDropped() {
+        long count = this.dropped.incrementAndGet();
+        if (count % DROP_LOG_INTERVAL == 1) {
+            LOG.warn("Ingest buffer of shard {} saturated, {} message(s) dropped so far", index, count);
+        }
+    }
+
+    private void onRejected() throws EngineOverloadedException {
+        long count = this.rejected.incrementAndGet();
+        if (count % DROP_LOG_INTERVAL == 1) {
+            LOG.warn("Ingest buffer of shard {} saturated, {} message(s) rejected so far", index, count);
+        }
+        throw new EngineOverloadedException(String.format("Ingest buffer of shard %s is saturated", index));
+    }
+
+    private void drain() {
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                Runnable task = this.queue.poll(1, TimeUnit.SECONDS);
+                if (task != null) {
+                    task.run();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                LOG.warn("Error while filtering message on shard {}", index, ex);
+            }
+        }
+    }
+
+    void filterEvent(EposEvent event, String publicationId) {
+        if (publicationId != null) {
+            RuleSet rules = this.publicationRules.get(publicationId);
+            if (rules != null) {
+                filterEvent(event, rules);
+            }
+        }
+
+        filterEvent(event, this.rootRules);
+    }
+
+    private void filterEvent(EposEvent event, RuleSet rules) {
+        rules.candidates(event, rule -> {
+            try {
+                if (rule.isFilterless()) {
+                    /*
+                     * nothing to evaluate, avoids resolving lazy events
+                     */
+                    rule.onMatchingEvent(event);
+                }
+                else {
+                    rule.getRule().filter(event);
+                }
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Rule evaluation failed on shard {}", index, e);
+            }
+        });
+    }
+
+    /**
+     * stops accepting messages. Already buffered messages are still processed.
+     */
+    void shutdown() {
+        this.running = false;
+        this.executor.shutdown();
+    }
+
+    /**
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if all buffered messages have been processed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitTermination(long timeout) throws InterruptedException {
+        return this.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+}
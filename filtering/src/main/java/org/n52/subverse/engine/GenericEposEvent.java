@@ -37,6 +37,8 @@ import org.n52.epos.event.MapEposEvent;
  */
 public class GenericEposEvent implements EposEvent {
 
+    static final String DEFAULT_CONTENT_TYPE = "text/plain";
+
     private final Object originalObject;
     private final long creationTime;
     private final String contentType;
@@ -49,7 +51,7 @@ public class GenericEposEvent implements EposEvent {
     public GenericEposEvent(Object message, String ct) {
         this.originalObject = message;
         this.creationTime = System.currentTimeMillis();
-        this.contentType = ct == null ? "text/plain" : ct;
+        this.contentType = ct == null ? DEFAULT_CONTENT_TYPE : ct;
     }
 
     @Override
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A centered interval tree over {@link NumericRange}s. A stabbing query
+ * for a single value costs O(log n + k).
+ *
+ * Updates only mark the tree as stale, it is rebuilt on the next query.
+ * This keeps registration cheap while bursts of (un)subscriptions are
+ * folded into a single rebuild. Lookups may run concurrently with updates.
+ * Empty ranges are kept, but never returned by a query.
+ *
+ * @param <T> the type of the indexed entries
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class IntervalIndex<T> {
+
+    private final Map<T, NumericRange> entries = new ConcurrentHashMap<>();
+    private volatile Node<T> root;
+    private volatile boolean stale;
+
+    void add(T entry, NumericRange range) {
+        this.entries.put(entry, range);
+        this.stale = true;
+    }
+
+    boolean remove(T entry) {
+        if (this.entries.remove(entry) != null) {
+            this.stale = true;
+            return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    boolean isEmpty() {
+        return this.entries.isEmpty();
+    }
+
+    void forEach(Consumer<T> consumer) {
+        this.entries.keySet().forEach(consumer);
+    }
+
+    /**
+     * passes every entry whose range contains the value to the consumer
+     *
+     * @param value the value
+     * @param consumer receives the candidates
+     */
+    void query(double value, Consumer<T> consumer) {
+        Node<T> node = currentRoot();
+        while (node != null) {
+            if (value < node.center) {
+                for (Entry<T> e : node.byLower) {
+                    if (e.range.getLower() > value) {
+                        break;
+                    }
+                    if (e.range.contains(value)) {
+                        consumer.accept(e.value);
+                    }
+                }
+                node = node.left;
+            }
+            else if (value > node.center) {
+                for (Entry<T> e : node.byUpper) {
+                    if (e.range.getUpper() < value) {
+                        break;
+                    }
+                    if (e.range.contains(value)) {
+                        consumer.accept(e.value);
+                    }
+                }
+                node = node.right;
+            }
+            else {
+                for (Entry<T> e : node.byLower) {
+                    if (e.range.contains(value)) {
+                        consumer.accept(e.value);
+                    }
+                }
+                node = null;
+            }
+        }
+    }
+
+    private Node<T> currentRoot() {
+        if (this.stale) {
+            synchronized (this) {
+                if (this.stale) {
+                    this.stale = false;
+                    List<Entry<T>> snapshot = new ArrayList<>(this.entries.size());
+                    this.entries.forEach((k, v) -> {
+                        if (!v.isEmpty()) {
+                            snapshot.add(new Entry<>(k, v));
+                        }
+                    });
+                    this.root = build(snapshot);
+                }
+            }
+        }
+        return this.root;
+    }
+
+    private static <T> Node<T> build(List<Entry<T>> entries) {
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        double[] endpoints = new double[entries.size() * 2];
+        int i = 0;
+        for (Entry<T> e : entries) {
+            endpoints[i++] = e.range.getLower();
+            endpoints[i++] = e.range.getUpper();
+        }
+        Arrays.sort(endpoints);
+        double center = endpoints[endpoints.length / 2];
+        if (Double.isInfinite(center)) {
+            /*
+             * many half-open ranges: pick the finite endpoint closest to
+             * the median
+             */
+            center = finiteNear(endpoints, endpoints.length / 2);
+        }
+
+        List<Entry<T>> left = new ArrayList<>();
+        List<Entry<T>> right = new ArrayList<>();
+        List<Entry<T>> overlapping = new ArrayList<>();
+        for (Entry<T> e : entries) {
+            if (e.range.getUpper() < center) {
+                left.add(e);
+            }
+            else if (e.range.getLower() > center) {
+                right.add(e);
+            }
+            else {
+                overlapping.add(e);
+            }
+        }
+
+        if (left.size() == entries.size() || right.size() == entries.size()) {
+            /*
+             * no progress, e.g. for ranges that are not well-formed. Keep
+             * them in a single node instead of recursing forever
+             */
+            return new Node<>(center, entries);
+        }
+
+        Node<T> node = new Node<>(center, overlapping);
+        node.left = build(left);
+        node.right = build(right);
+        return node;
+    }
+
+    private static double finiteNear(double[] sorted, int index) {
+        for (int d = 0; d < sorted.length; d++) {
+            if (index - d >= 0 && !Double.isInfinite(sorted[index - d])) {
+                return sorted[index - d];
+            }
+            if (index + d < sorted.length && !Double.isInfinite(sorted[index + d])) {
+                return sorted[index + d];
+            }
+        }
+        return 0;
+    }
+
+    private static class Entry<T> {
+
+        private final T value;
+        private final NumericRange range;
+
+        Entry(T value, NumericRange range) {
+            this.value = value;
+            this.range = range;
+        }
+
+    }
+
+    private static class Node<T> {
+
+        private final double center;
+        private final List<Entry<T>> byLower;
+        private final List<Entry<T>> byUpper;
+        private Node<T> left;
+        private Node<T> right;
+
+        Node(double center, List<Entry<T>> overlapping) {
+            this.center = center;
+            this.byLower = new ArrayList<>(overlapping);
+            this.byLower.sort(Comparator.comparingDouble(e -> e.range.getLower()));
+            this.byUpper = new ArrayList<>(overlapping);
+            this.byUpper.sort(Comparator.comparingDouble((Entry<T> e) -> e.range.getUpper()).reversed());
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import org.n52.epos.event.EposEvent;
+import org.n52.epos.event.MapEposEvent;
+import org.n52.subverse.delivery.Streamable;
+
+/**
+ * An event that defers the transformation of the raw message until a
+ * property is actually requested. The transformed event is created at most
+ * once. The raw message, its content type and the publication can be
+ * accessed without triggering the transformation.
+ *
+ * The event also holds the {@link Streamable}s created for its delivery,
+ * so the payload is serialized once regardless of the number of
+ * subscriptions it matches.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class LazyEposEvent implements NumericEposEvent {
+
+    private final Object message;
+    private final String contentType;
+    private final String publication;
+    private final Supplier<EposEvent> transformation;
+    private volatile EposEvent delegate;
+    private List<PayloadEntry> payloads;
+
+    /**
+     * @param message the raw message
+     * @param contentType the content type of the raw message, might be null
+     * @param publication the publication of the message
+     * @param transformation creates the actual event, must not return null
+     */
+    LazyEposEvent(Object message, String contentType, String publication, Supplier<EposEvent> transformation) {
+        this.message = message;
+        this.contentType = contentType;
+        this.publication = publication;
+        this.transformation = transformation;
+    }
+
+    /**
+     * wraps an event which does not require a transformation
+     *
+     * @param event the event
+     * @param publication the publication of the event
+     */
+    LazyEposEvent(EposEvent event, String publication) {
+        this(event.getOriginalObject(), event.getContentType(), publication, () -> event);
+        resolve();
+    }
+
+    boolean isResolved() {
+        return this.delegate != null;
+    }
+
+    EposEvent resolve() {
+        EposEvent result = this.delegate;
+        if (result == null) {
+            synchronized (this) {
+                result = this.delegate;
+                if (result == null) {
+                    result = this.transformation.get();
+                    result.setValue(PublicationFilter.KEY, this.publication);
+                    this.delegate = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param payload the object to deliver
+     * @param payloadContentType the content type of the object
+     * @param factory creates the streamable if the payload has not been
+     * requested for this event yet
+     * @return the streamable shared by all deliveries of the payload
+     */
+    synchronized Streamable getStreamable(Object payload, String payloadContentType,
+            BiFunction<Object, String, Streamable> factory) {
+        if (this.payloads == null) {
+            this.payloads = new ArrayList<>(2);
+        }
+        else {
+            for (PayloadEntry e : this.payloads) {
+                if (e.payload == payload && Objects.equals(e.contentType, payloadContentType)) {
+                    return e.streamable;
+                }
+            }
+        }
+
+        Streamable result = factory.apply(payload, payloadContentType);
+        this.payloads.add(new PayloadEntry(payload, payloadContentType, result));
+        return result;
+    }
+
+    @Override
+    public void setValue(CharSequence key, Object value) {
+        resolve().setValue(key, value);
+    }
+
+    @Override
+    public Object getValue(CharSequence key) {
+        if (MapEposEvent.ORIGNIAL_OBJECT_KEY.equals(key)) {
+            return getOriginalObject();
+        }
+        else if (PublicationFilter.KEY.equals(key)) {
+            return this.publication;
+        }
+        return resolve().getValue(key);
+    }
+
+    @Override
+    public double getNumericValue(CharSequence key) {
+        EposEvent resolved = resolve();
+        if (resolved instanceof NumericEposEvent) {
+            return ((NumericEposEvent) resolved).getNumericValue(key);
+        }
+        Object value = resolved.getValue(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    @Override
+    public Object getOriginalObject() {
+        EposEvent resolved = this.delegate;
+        return resolved != null ? resolved.getOriginalObject() : this.message;
+    }
+
+    @Override
+    public long getStartTime() {
+        return resolve().getStartTime();
+    }
+
+    @Override
+    public long getEndTime() {
+        return resolve().getEndTime();
+    }
+
+    @Override
+    public void addCausalAncestor(EposEvent event) {
+        resolve().addCausalAncestor(event);
+    }
+
+    @Override
+    public void setOriginalObject(Object input) {
+        resolve().setOriginalObject(input);
+    }
+
+    @Override
+    public String getContentType() {
+        EposEvent resolved = this.delegate;
+        if (resolved != null) {
+            return resolved.getContentType();
+        }
+        return this.contentType == null ? GenericEposEvent.DEFAULT_CONTENT_TYPE : this.contentType;
+    }
+
+    private static class PayloadEntry {
+
+        private final Object payload;
+        private final String contentType;
+        private final Streamable streamable;
+
+        PayloadEntry(Object payload, String contentType, Streamable streamable) {
+            this.payload = payload;
+            this.contentType = contentType;
+            this.streamable = streamable;
+        }
+
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A range of numeric values, each bound either inclusive or exclusive.
+ * Unbounded sides are represented by infinity.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class NumericRange {
+
+    private final double lower;
+    private final boolean lowerInclusive;
+    private final double upper;
+    private final boolean upperInclusive;
+
+    NumericRange(double lower, boolean lowerInclusive, double upper, boolean upperInclusive) {
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    static NumericRange atLeast(double value, boolean inclusive) {
+        return new NumericRange(value, inclusive, Double.POSITIVE_INFINITY, false);
+    }
+
+    static NumericRange atMost(double value, boolean inclusive) {
+        return new NumericRange(Double.NEGATIVE_INFINITY, false, value, inclusive);
+    }
+
+    double getLower() {
+        return lower;
+    }
+
+    double getUpper() {
+        return upper;
+    }
+
+    /**
+     * @return true if no value lies within the range, e.g. the
+     * intersection of disjoint ranges
+     */
+    boolean isEmpty() {
+        return lower > upper || (lower == upper && !(lowerInclusive && upperInclusive));
+    }
+
+    boolean contains(double value) {
+        boolean aboveLower = lowerInclusive ? value >= lower : value > lower;
+        boolean belowUpper = upperInclusive ? value <= upper : value < upper;
+        return aboveLower && belowUpper;
+    }
+
+    NumericRange intersection(NumericRange other) {
+        double nLower;
+        boolean nLowerInclusive;
+        if (lower > other.lower) {
+            nLower = lower;
+            nLowerInclusive = lowerInclusive;
+        }
+        else if (lower < other.lower) {
+            nLower = other.lower;
+            nLowerInclusive = other.lowerInclusive;
+        }
+        else {
+            nLower = lower;
+            nLowerInclusive = lowerInclusive && other.lowerInclusive;
+        }
+
+        double nUpper;
+        boolean nUpperInclusive;
+        if (upper < other.upper) {
+            nUpper = upper;
+            nUpperInclusive = upperInclusive;
+        }
+        else if (upper > other.upper) {
+            nUpper = other.upper;
+            nUpperInclusive = other.upperInclusive;
+        }
+        else {
+            nUpper = upper;
+            nUpperInclusive = upperInclusive && other.upperInclusive;
+        }
+
+        return new NumericRange(nLower, nLowerInclusive, nUpper, nUpperInclusive);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("lower", lower)
+                .add("lowerInclusive", lowerInclusive)
+                .add("upper", upper)
+                .add("upperInclusive", upperInclusive)
+                .toString();
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.n52.epos.event.EposEvent;
+
+/**
+ * The rules of one publication within a {@link FilterShard}. Rules are
+ * stored by their filter key and indexed by the {@link FilterConstraints}
+ * of their filter, so that an event is only evaluated against the rules
+ * it can possibly match. Each rule is indexed by a single constraint:
+ * the area given by the ranges of both the latitude and the longitude if
+ * present, otherwise the range of its first numeric comparison. Rules
+ * without any are always evaluated, rules that cannot match any event
+ * never.
+ *
+ * Modifications are expected to be serialized by the owning shard,
+ * candidate lookups may run concurrently.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class RuleSet {
+
+    /*
+     * the properties holding the position of an event in decimal degrees,
+     * as used by ADS-B reports. A filter restricting both, e.g. by
+     * fes:PropertyIsBetween, is indexed by the resulting area
+     */
+    static final String LATITUDE_KEY = "lat";
+    static final String LONGITUDE_KEY = "lon";
+
+    private final Map<String, SharedRule> rules = new ConcurrentHashMap<>();
+    private final Set<SharedRule> unindexed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final SpatialIndex<SharedRule> spatialIndex = new SpatialIndex<>();
+    private final Map<String, IntervalIndex<SharedRule>> rangeIndexes = new ConcurrentHashMap<>();
+    private final Map<SharedRule, String> rangeProperties = new ConcurrentHashMap<>();
+
+    SharedRule get(String filterKey) {
+        return this.rules.get(filterKey);
+    }
+
+    void add(SharedRule rule) {
+        this.rules.put(rule.getFilterKey(), rule);
+
+        FilterConstraints constraints = rule.getConstraints();
+        if (!constraints.isSatisfiable()) {
+            return;
+        }
+        Optional<BoundingBox> box = area(constraints);
+        Iterator<Map.Entry<String, NumericRange>> ranges = constraints.getRanges().entrySet().iterator();
+        if (box.isPresent()) {
+            this.spatialIndex.add(rule, box.get());
+        }
+        else if (ranges.hasNext()) {
+            Map.Entry<String, NumericRange> range = ranges.next();
+            this.rangeIndexes.computeIfAbsent(range.getKey(), k -> new IntervalIndex<>())
+                    .add(rule, range.getValue());
+            this.rangeProperties.put(rule, range.getKey());
+        }
+        else {
+            this.unindexed.add(rule);
+        }
+    }
+
+    void remove(SharedRule rule) {
+        this.rules.remove(rule.getFilterKey(), rule);
+        if (this.spatialIndex.remove(rule)) {
+            return;
+        }
+
+        String property = this.rangeProperties.remove(rule);
+        if (property != null) {
+            IntervalIndex<SharedRule> index = this.rangeIndexes.get(property);
+            if (index != null) {
+                index.remove(rule);
+                if (index.isEmpty()) {
+                    this.rangeIndexes.remove(property);
+                }
+            }
+            return;
+        }
+
+        this.unindexed.remove(rule);
+    }
+
+    /**
+     * @return the area of the latitude and longitude ranges, empty if
+     * the filter does not restrict both or the area lies outside of the
+     * valid coordinates
+     */
+    static Optional<BoundingBox> area(FilterConstraints constraints) {
+        Optional<NumericRange> lat = constraints.getRange(LATITUDE_KEY);
+        Optional<NumericRange> lon = constraints.getRange(LONGITUDE_KEY);
+        if (!lat.isPresent() || !lon.isPresent()) {
+            return Optional.empty();
+        }
+
+        /*
+         * open ranges are clamped to the valid coordinates
+         */
+        return Optional.ofNullable(BoundingBox.WORLD.intersection(new BoundingBox(lat.get().getLower(),
+                lon.get().getLower(), lat.get().getUpper(), lon.get().getUpper())));
+    }
+
+    boolean isEmpty() {
+        return this.rules.isEmpty();
+    }
+
+    int size() {
+        return this.rules.size();
+    }
+
+    /**
+     * passes every rule that might match the event to the consumer
+     *
+     * @param event the event
+     * @param consumer receives the candidate rules
+     */
+    void candidates(EposEvent event, Consumer<SharedRule> consumer) {
+        this.unindexed.forEach(consumer);
+
+        if (this.spatialIndex.size() > 0) {
+            double lat = numericValue(event, LATITUDE_KEY);
+            double lon = numericValue(event, LONGITUDE_KEY);
+            if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                /*
+                 * without a position we cannot tell anything about the
+                 * spatial rules
+                 */
+                this.spatialIndex.forEach(consumer);
+            }
+            else {
+                this.spatialIndex.query(lat, lon, consumer);
+            }
+        }
+
+        for (Map.Entry<String, IntervalIndex<SharedRule>> index : this.rangeIndexes.entrySet()) {
+            double value = numericValue(event, index.getKey());
+            if (Double.isNaN(value)) {
+                index.getValue().forEach(consumer);
+            }
+            else {
+                index.getValue().query(value, consumer);
+            }
+        }
+    }
+
+    static double numericValue(EposEvent event, String key) {
+        if (event instanceof NumericEposEvent) {
+            return ((NumericEposEvent) event).getNumericValue(key);
+        }
+
+        Object value = event.getValue(key);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.NaN;
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.n52.epos.event.EposEvent;
+import org.n52.epos.filter.FilterInstantiationException;
+import org.n52.epos.rules.Rule;
+import org.n52.epos.rules.RuleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A rule shared by all subscriptions with an equivalent filter. The filter
+ * is instantiated and evaluated once, matches are fanned out to the
+ * listeners of every subscription sharing it.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class SharedRule implements RuleListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedRule.class);
+
+    private final String filterKey;
+    private final FilterConstraints constraints;
+    private final Map<String, RuleListener> listeners = new ConcurrentHashMap<>();
+    private Rule rule;
+
+    private SharedRule(String filterKey, FilterConstraints constraints) {
+        this.filterKey = filterKey;
+        this.constraints = constraints;
+    }
+
+    static SharedRule create(String filterKey, FilterConstraints constraints, RuleFactory factory)
+            throws FilterInstantiationException {
+        SharedRule result = new SharedRule(filterKey, constraints);
+        result.rule = factory.createRule(result);
+        return result;
+    }
+
+    String getFilterKey() {
+        return filterKey;
+    }
+
+    /**
+     * @return true if the rule matches every event of its publication
+     */
+    boolean isFilterless() {
+        return FilterCanonicalizer.NO_FILTER.equals(filterKey);
+    }
+
+    FilterConstraints getConstraints() {
+        return constraints;
+    }
+
+    Rule getRule() {
+        return rule;
+    }
+
+    void addListener(String subscriptionId, RuleListener listener) {
+        this.listeners.put(subscriptionId, listener);
+    }
+
+    boolean removeListener(String subscriptionId) {
+        return this.listeners.remove(subscriptionId) != null;
+    }
+
+    boolean isUnused() {
+        return this.listeners.isEmpty();
+    }
+
+    int getListenerCount() {
+        return this.listeners.size();
+    }
+
+    @Override
+    public void onMatchingEvent(EposEvent event) {
+        for (RuleListener l : this.listeners.values()) {
+            try {
+                l.onMatchingEvent(event);
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Could not dispatch matching event to {}", l.getEndpointReference(), e);
+            }
+        }
+    }
+
+    @Override
+    public void onMatchingEvent(EposEvent event, Object desiredOutputToConsumer) {
+        for (RuleListener l : this.listeners.values()) {
+            try {
+                l.onMatchingEvent(event, desiredOutputToConsumer);
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Could not dispatch matching event to {}", l.getEndpointReference(), e);
+            }
+        }
+    }
+
+    @Override
+    public Object getEndpointReference() {
+        return this.filterKey;
+    }
+
+    /**
+     * creates the EPOS rule backing a shared rule
+     */
+    interface RuleFactory {
+
+        Rule createRule(RuleListener listener) throws FilterInstantiationException;
+
+    }
+
+}
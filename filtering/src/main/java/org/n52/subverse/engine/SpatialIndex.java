@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A uniform grid over geographic coordinates. Every entry is registered
+ * in each cell its bounding box overlaps, a position lookup only has to
+ * visit a single cell. Entries covering a large area are kept in a
+ * separate list instead of flooding the grid.
+ *
+ * Updates are incremental. Lookups may run concurrently with updates.
+ *
+ * @param <T> the type of the indexed entries
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class SpatialIndex<T> {
+
+    static final double DEFAULT_CELL_SIZE = 1.0;
+    private static final int MAX_CELLS_PER_ENTRY = 4096;
+
+    private final double cellSize;
+    private final int columns;
+    private final Map<Integer, Set<T>> cells = new ConcurrentHashMap<>();
+    private final Map<T, BoundingBox> entries = new ConcurrentHashMap<>();
+    private final Set<T> large = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    SpatialIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    SpatialIndex(double cellSize) {
+        this.cellSize = cellSize;
+        this.columns = (int) Math.ceil(360 / cellSize) + 1;
+    }
+
+    void add(T entry, BoundingBox box) {
+        remove(entry);
+        this.entries.put(entry, box);
+
+        int minRow = row(box.getMinLat()), maxRow = row(box.getMaxLat());
+        int minCol = column(box.getMinLon()), maxCol = column(box.getMaxLon());
+        if ((long) (maxRow - minRow + 1) * (maxCol - minCol + 1) > MAX_CELLS_PER_ENTRY) {
+            this.large.add(entry);
+            return;
+        }
+
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minCol; c <= maxCol; c++) {
+                this.cells.computeIfAbsent(cellKey(r, c), k -> Collections.newSetFromMap(new ConcurrentHashMap<>()))
+                        .add(entry);
+            }
+        }
+    }
+
+    boolean remove(T entry) {
+        BoundingBox box = this.entries.remove(entry);
+        if (box == null) {
+            return false;
+        }
+
+        if (this.large.remove(entry)) {
+            return true;
+        }
+
+        for (int r = row(box.getMinLat()); r <= row(box.getMaxLat()); r++) {
+            for (int c = column(box.getMinLon()); c <= column(box.getMaxLon()); c++) {
+                Integer key = cellKey(r, c);
+                Set<T> cell = this.cells.get(key);
+                if (cell != null) {
+                    cell.remove(entry);
+                    if (cell.isEmpty()) {
+                        this.cells.remove(key, cell);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * passes every entry whose bounding box contains the position to the
+     * consumer
+     *
+     * @param lat the latitude in decimal degrees
+     * @param lon the longitude in decimal degrees
+     * @param consumer receives the candidates
+     */
+    void query(double lat, double lon, Consumer<T> consumer) {
+        Set<T> cell = this.cells.get(cellKey(row(lat), column(lon)));
+        if (cell != null) {
+            visit(cell, lat, lon, consumer);
+        }
+        visit(this.large, lat, lon, consumer);
+    }
+
+    private void visit(Set<T> candidates, double lat, double lon, Consumer<T> consumer) {
+        for (T t : candidates) {
+            BoundingBox box = this.entries.get(t);
+            if (box != null && box.contains(lat, lon)) {
+                consumer.accept(t);
+            }
+        }
+    }
+
+    void forEach(Consumer<T> consumer) {
+        this.entries.keySet().forEach(consumer);
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    private int row(double lat) {
+        return (int) Math.floor((clamp(lat, -90, 90) + 90) / cellSize);
+    }
+
+    private int column(double lon) {
+        return (int) Math.floor((clamp(lon, -180, 180) + 180) / cellSize);
+    }
+
+    private int cellKey(int row, int column) {
+        return row * columns + column;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+}
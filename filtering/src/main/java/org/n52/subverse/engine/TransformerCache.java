@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import org.n52.epos.event.EposEvent;
+import org.n52.epos.transform.EposTransformer;
+import org.n52.epos.transform.TransformationException;
+import org.n52.epos.transform.TransformationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers which {@link EposTransformer} handled the messages of a stream,
+ * identified by publication, content type and class of the message. Later
+ * messages of the stream are passed to that transformer directly, without
+ * asking every transformer whether it supports the message. Only if the
+ * cached transformer fails, the transformers are consulted again.
+ *
+ * If none of the transformers found via the {@link ServiceLoader}
+ * supports a message, it is passed to the {@link TransformationRepository}.
+ * This outcome is remembered as well, later messages of a stream without a
+ * transformer go to the repository directly.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class TransformerCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransformerCache.class);
+
+    private final List<EposTransformer> transformers;
+
+    /*
+     * the transformer of each stream, empty if the stream is left to the
+     * repository
+     */
+    private final Map<StreamKey, Optional<EposTransformer>> cache = new ConcurrentHashMap<>();
+
+    TransformerCache() {
+        this(loadTransformers());
+    }
+
+    TransformerCache(List<EposTransformer> transformers) {
+        List<EposTransformer> sorted = new ArrayList<>(transformers);
+        sorted.sort(Comparator.comparingInt((EposTransformer t) -> t.getPriority()).reversed());
+        this.transformers = Collections.unmodifiableList(sorted);
+    }
+
+    private static List<EposTransformer> loadTransformers() {
+        List<EposTransformer> result = new ArrayList<>();
+        for (EposTransformer t : ServiceLoader.load(EposTransformer.class)) {
+            result.add(t);
+        }
+        LOG.info("Found {} EPOS transformer(s): {}", result.size(), result);
+        return result;
+    }
+
+    /**
+     * @param message the raw message
+     * @param publicationId the publication of the message
+     * @param contentType the content type of the message, might be null
+     * @return the transformed event or null if no transformer supports the message
+     * @throws TransformationException if the transformation failed
+     */
+    EposEvent transform(Object message, String publicationId, String contentType)
+            throws TransformationException {
+        StreamKey key = new StreamKey(publicationId, contentType, message.getClass());
+
+        Optional<EposTransformer> resolved = this.cache.get(key);
+        if (resolved != null && !resolved.isPresent()) {
+            return TransformationRepository.Instance.transform(message, EposEvent.class, contentType);
+        }
+
+        EposTransformer cached = resolved == null ? null : resolved.get();
+        if (cached != null) {
+            try {
+                EposEvent result = cached.transform(message, contentType);
+                if (result != null) {
+                    return result;
+                }
+            }
+            catch (TransformationException | RuntimeException e) {
+                LOG.debug("Cached transformer {} rejected message of publication '{}': {}",
+                        cached, publicationId, e.getMessage());
+            }
+        }
+
+        for (EposTransformer t : this.transformers) {
+            if (t != cached && t.supportsInput(message, contentType)) {
+                EposEvent result = t.transform(message, contentType);
+                if (result != null) {
+                    this.cache.put(key, Optional.of(t));
+                    return result;
+                }
+            }
+        }
+
+        if (cached == null) {
+            /*
+             * a single message rejected by the transformer of a stream does
+             * not hand the whole stream to the repository
+             */
+            this.cache.put(key, Optional.empty());
+        }
+        return TransformationRepository.Instance.transform(message, EposEvent.class, contentType);
+    }
+
+    int size() {
+        return this.cache.size();
+    }
+
+    private static final class StreamKey {
+
+        private final String publicationId;
+        private final String contentType;
+        private final Class<?> inputClass;
+        private final int hash;
+
+        StreamKey(String publicationId, String contentType, Class<?> inputClass) {
+            this.publicationId = publicationId;
+            this.contentType = contentType;
+            this.inputClass = inputClass;
+            this.hash = Objects.hash(publicationId, contentType, inputClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StreamKey)) {
+                return false;
+            }
+            StreamKey other = (StreamKey) obj;
+            return inputClass == other.inputClass
+                    && Objects.equals(publicationId, other.publicationId)
+                    && Objects.equals(contentType, other.contentType);
+        }
+
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.nio.charset.StandardCharsets;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.n52.subverse.delivery.streamable.BytesStreamable;
+
+/**
+ * Streams an {@link XmlObject}. The object is serialized and encoded at
+ * most once, so one instance can be shared by all endpoints receiving it.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class XmlStreamable extends BytesStreamable {
+
+    private volatile byte[] bytes;
+
+    XmlStreamable(XmlObject xml) {
+        super("application/xml", xml);
+    }
+
+    @Override
+    protected byte[] getBytes() {
+        byte[] result = this.bytes;
+        if (result == null) {
+            synchronized (this) {
+                result = this.bytes;
+                if (result == null) {
+                    result = ((XmlObject) originalObject()).xmlText(new XmlOptions().setSaveOuter())
+                            .getBytes(StandardCharsets.UTF_8);
+                    this.bytes = result;
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class FilterCanonicalizerTest {
+
+    @Test
+    public void testEquivalentFilters() throws XmlException {
+        String first = "<fes:Filter xmlns:fes=\"http://www.opengis.net/fes/2.0\">"
+                + "<fes:PropertyIsEqualTo matchCase=\"true\" matchAction=\"Any\">"
+                + "<fes:ValueReference>flight</fes:ValueReference>"
+                + "<fes:Literal>DLH123</fes:Literal>"
+                + "</fes:PropertyIsEqualTo></fes:Filter>";
+        String second = "<f:Filter xmlns:f=\"http://www.opengis.net/fes/2.0\">\n"
+                + "  <!-- callsign -->\n"
+                + "  <f:PropertyIsEqualTo matchAction=\"Any\" matchCase=\"true\">\n"
+                + "    <f:ValueReference> flight </f:ValueReference>\n"
+                + "    <f:Literal>DLH123</f:Literal>\n"
+                + "  </f:PropertyIsEqualTo>\n</f:Filter>";
+
+        Assert.assertThat(FilterCanonicalizer.canonicalize(XmlObject.Factory.parse(first)),
+                CoreMatchers.is(FilterCanonicalizer.canonicalize(XmlObject.Factory.parse(second))));
+    }
+
+    @Test
+    public void testDifferentFilters() throws XmlException {
+        String first = "<fes:Filter xmlns:fes=\"http://www.opengis.net/fes/2.0\">"
+                + "<fes:PropertyIsEqualTo><fes:ValueReference>flight</fes:ValueReference>"
+                + "<fes:Literal>DLH123</fes:Literal></fes:PropertyIsEqualTo></fes:Filter>";
+        String second = "<fes:Filter xmlns:fes=\"http://www.opengis.net/fes/2.0\">"
+                + "<fes:PropertyIsEqualTo><fes:ValueReference>flight</fes:ValueReference>"
+                + "<fes:Literal>DLH124</fes:Literal></fes:PropertyIsEqualTo></fes:Filter>";
+
+        Assert.assertThat(FilterCanonicalizer.canonicalize(XmlObject.Factory.parse(first)),
+                CoreMatchers.not(FilterCanonicalizer.canonicalize(XmlObject.Factory.parse(second))));
+    }
+
+    @Test
+    public void testPrefixedPropertyReferences() throws XmlException {
+        String first = "<fes:Filter xmlns:fes=\"http://www.opengis.net/fes/2.0\" xmlns:a=\"http://adsb\">"
+                + "<fes:PropertyIsEqualTo><fes:ValueReference>a:position/a:flight</fes:ValueReference>"
+                + "<fes:Literal>a:DLH123</fes:Literal></fes:PropertyIsEqualTo></fes:Filter>";
+        String second = "<fes:Filter xmlns:fes=\"http://www.opengis.net/fes/2.0\" xmlns:b=\"http://adsb\">"
+                + "<fes:PropertyIsEqualTo><fes:ValueReference>b:position/b:flight</fes:ValueReference>"
+                + "<fes:Literal>a:DLH123</fes:Literal></fes:PropertyIsEqualTo></fes:Filter>";
+        String otherLiteral = "<fes:Filter xmlns:fes=\"http://www.opengis.net/fes/2.0\" xmlns:b=\"http://adsb\">"
+                + "<fes:PropertyIsEqualTo><fes:ValueReference>b:position/b:flight</fes:ValueReference>"
+                + "<fes:Literal>b:DLH123</fes:Literal></fes:PropertyIsEqualTo></fes:Filter>";
+
+        String canonical = FilterCanonicalizer.canonicalize(XmlObject.Factory.parse(first));
+        Assert.assertThat(canonical, CoreMatchers.containsString("{http://adsb}position/{http://adsb}flight"));
+        Assert.assertThat(canonical,
+                CoreMatchers.is(FilterCanonicalizer.canonicalize(XmlObject.Factory.parse(second))));
+        Assert.assertThat(canonical,
+                CoreMatchers.not(FilterCanonicalizer.canonicalize(XmlObject.Factory.parse(otherLiteral))));
+    }
+
+    @Test
+    public void testNoFilter() {
+        Assert.assertThat(FilterCanonicalizer.canonicalize(null), CoreMatchers.is(FilterCanonicalizer.NO_FILTER));
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class IntervalIndexTest {
+
+    @Test
+    public void testRangeExtraction() throws XmlException {
+        XmlObject filter = XmlObject.Factory.parse("<fes:Filter xmlns:fes=\"http://www.opengis.net/fes/2.0\">"
+                + "<fes:And><fes:PropertyIsGreaterThan>"
+                + "<fes:ValueReference>altitude</fes:ValueReference><fes:Literal>10000</fes:Literal>"
+                + "</fes:PropertyIsGreaterThan><fes:PropertyIsBetween>"
+                + "<fes:ValueReference>altitude</fes:ValueReference>"
+                + "<fes:LowerBoundary><fes:Literal>5000</fes:Literal></fes:LowerBoundary>"
+                + "<fes:UpperBoundary><fes:Literal>20000</fes:Literal></fes:UpperBoundary>"
+                + "</fes:PropertyIsBetween><fes:PropertyIsLessThan>"
+                + "<fes:Literal>300</fes:Literal><fes:ValueReference>speed</fes:ValueReference>"
+                + "</fes:PropertyIsLessThan></fes:And></fes:Filter>");
+
+        Map<String, NumericRange> ranges = FilterConstraints.extract(Optional.of(filter)).getRanges();
+
+        NumericRange altitude = ranges.get("altitude");
+        Assert.assertThat(altitude.contains(10000), CoreMatchers.is(false));
+        Assert.assertThat(altitude.contains(15000), CoreMatchers.is(true));
+        Assert.assertThat(altitude.contains(20000), CoreMatchers.is(true));
+        Assert.assertThat(altitude.contains(20001), CoreMatchers.is(false));
+
+        NumericRange speed = ranges.get("speed");
+        Assert.assertThat(speed.contains(300), CoreMatchers.is(false));
+        Assert.assertThat(speed.contains(450), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void testQuery() {
+        IntervalIndex<String> index = new IntervalIndex<>();
+        index.add("low", new NumericRange(0, true, 10000, false));
+        index.add("high", NumericRange.atLeast(10000, true));
+        index.add("cruise", new NumericRange(30000, true, 40000, true));
+
+        Assert.assertThat(query(index, 5000), CoreMatchers.is(set("low")));
+        Assert.assertThat(query(index, 10000), CoreMatchers.is(set("high")));
+        Assert.assertThat(query(index, 35000), CoreMatchers.is(set("high", "cruise")));
+        Assert.assertThat(query(index, -1), CoreMatchers.is(set()));
+
+        index.remove("high");
+        Assert.assertThat(query(index, 35000), CoreMatchers.is(set("cruise")));
+    }
+
+    @Test
+    public void testEmptyRange() {
+        IntervalIndex<String> index = new IntervalIndex<>();
+        index.add("high", NumericRange.atLeast(1000, true));
+        index.add("never", NumericRange.atLeast(10, false).intersection(NumericRange.atMost(5, false)));
+        index.add("inverted", new NumericRange(20, true, 10, true));
+
+        Assert.assertThat(index.size(), CoreMatchers.is(3));
+        Assert.assertThat(query(index, 20), CoreMatchers.is(set()));
+        Assert.assertThat(query(index, 2000), CoreMatchers.is(set("high")));
+    }
+
+    @Test
+    public void testUnsatisfiableFilter() throws XmlException {
+        XmlObject filter = XmlObject.Factory.parse("<fes:Filter xmlns:fes=\"http://www.opengis.net/fes/2.0\">"
+                + "<fes:And><fes:PropertyIsGreaterThan>"
+                + "<fes:ValueReference>altitude</fes:ValueReference><fes:Literal>10</fes:Literal>"
+                + "</fes:PropertyIsGreaterThan><fes:PropertyIsLessThan>"
+                + "<fes:ValueReference>altitude</fes:ValueReference><fes:Literal>5</fes:Literal>"
+                + "</fes:PropertyIsLessThan></fes:And></fes:Filter>");
+
+        Assert.assertThat(FilterConstraints.extract(Optional.of(filter)).isSatisfiable(), CoreMatchers.is(false));
+    }
+
+    private static Set<String> query(IntervalIndex<String> index, double value) {
+        Set<String> result = new HashSet<>();
+        index.query(value, result::add);
+        return result;
+    }
+
+    private static Set<String> set(String... values) {
+        Set<String> result = new HashSet<>();
+        for (String v : values) {
+            result.add(v);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.n52.subverse.delivery.Streamable;
+import org.n52.subverse.delivery.streamable.StringStreamable;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class LazyEposEventTest {
+
+    @Test
+    public void testTransformationIsDeferredAndMemoized() {
+        AtomicInteger transformations = new AtomicInteger();
+        LazyEposEvent event = new LazyEposEvent("payload", "application/json", "adsb", () -> {
+            transformations.incrementAndGet();
+            return new GenericEposEvent("payload", "application/json");
+        });
+
+        Assert.assertThat(event.getOriginalObject(), CoreMatchers.is("payload"));
+        Assert.assertThat(event.getContentType(), CoreMatchers.is("application/json"));
+        Assert.assertThat(event.getValue(PublicationFilter.KEY), CoreMatchers.is("adsb"));
+        Assert.assertThat(transformations.get(), CoreMatchers.is(0));
+
+        event.getValue("altitude");
+        event.getStartTime();
+        Assert.assertThat(transformations.get(), CoreMatchers.is(1));
+        Assert.assertThat(event.resolve().getValue(PublicationFilter.KEY), CoreMatchers.is("adsb"));
+    }
+
+    @Test
+    public void testStreamableIsSharedPerPayload() {
+        AtomicInteger created = new AtomicInteger();
+        LazyEposEvent event = new LazyEposEvent(new GenericEposEvent("payload", "text/plain"), "adsb");
+
+        Streamable first = null;
+        for (int i = 0; i < 500; i++) {
+            Streamable s = event.getStreamable(event.getOriginalObject(), "text/plain", (o, ct) -> {
+                created.incrementAndGet();
+                return new StringStreamable((String) o, ct);
+            });
+            if (first == null) {
+                first = s;
+            }
+            Assert.assertThat(s, CoreMatchers.sameInstance(first));
+        }
+
+        Assert.assertThat(created.get(), CoreMatchers.is(1));
+    }
+
+}
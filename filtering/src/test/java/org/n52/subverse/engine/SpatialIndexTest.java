@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.n52.epos.event.EposEvent;
+import org.n52.epos.event.MapEposEvent;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SpatialIndexTest {
+
+    private static final String AREA_FILTER = "<fes:Filter xmlns:fes=\"http://www.opengis.net/fes/2.0\">"
+            + "<fes:And>%s"
+            + "<fes:PropertyIsEqualTo><fes:ValueReference>flight</fes:ValueReference>"
+            + "<fes:Literal>DLH123</fes:Literal></fes:PropertyIsEqualTo>"
+            + "</fes:And></fes:Filter>";
+
+    private static final String LAT_BETWEEN = "<fes:PropertyIsBetween><fes:ValueReference>lat</fes:ValueReference>"
+            + "<fes:LowerBoundary><fes:Literal>50</fes:Literal></fes:LowerBoundary>"
+            + "<fes:UpperBoundary><fes:Literal>52</fes:Literal></fes:UpperBoundary></fes:PropertyIsBetween>";
+
+    private static final String LON_BETWEEN = "<fes:PropertyIsBetween><fes:ValueReference>lon</fes:ValueReference>"
+            + "<fes:LowerBoundary><fes:Literal>6</fes:Literal></fes:LowerBoundary>"
+            + "<fes:UpperBoundary><fes:Literal>8</fes:Literal></fes:UpperBoundary></fes:PropertyIsBetween>";
+
+    private static final String LAT_ABOVE = "<fes:PropertyIsGreaterThan><fes:ValueReference>lat</fes:ValueReference>"
+            + "<fes:Literal>50</fes:Literal></fes:PropertyIsGreaterThan>";
+
+    private static final String BBOX = "<fes:BBOX xmlns:gml=\"http://www.opengis.net/gml/3.2\">"
+            + "<fes:ValueReference>location</fes:ValueReference>"
+            + "<gml:Envelope srsName=\"urn:ogc:def:crs:EPSG::4326\">"
+            + "<gml:lowerCorner>50 6</gml:lowerCorner><gml:upperCorner>52 8</gml:upperCorner>"
+            + "</gml:Envelope></fes:BBOX>";
+
+    @Test
+    public void testAreaExtraction() throws XmlException {
+        Optional<BoundingBox> box = area(LAT_BETWEEN + LON_BETWEEN);
+
+        Assert.assertThat(box.isPresent(), CoreMatchers.is(true));
+        Assert.assertThat(box.get().contains(51, 7), CoreMatchers.is(true));
+        Assert.assertThat(box.get().contains(7, 51), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void testOpenAreaIsClamped() throws XmlException {
+        Optional<BoundingBox> box = area(LAT_ABOVE + LON_BETWEEN);
+
+        Assert.assertThat(box.isPresent(), CoreMatchers.is(true));
+        Assert.assertThat(box.get().getMaxLat(), CoreMatchers.is(90d));
+        Assert.assertThat(box.get().contains(89, 7), CoreMatchers.is(true));
+    }
+
+    @Test
+    public void testLatitudeOnlyIsNotAnArea() throws XmlException {
+        Assert.assertThat(area(LAT_BETWEEN).isPresent(), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void testSpatialOperatorIsNotIndexed() throws XmlException {
+        Assert.assertThat(area(BBOX).isPresent(), CoreMatchers.is(false));
+    }
+
+    @Test
+    public void testCandidatesByPosition() throws Exception {
+        XmlObject filter = XmlObject.Factory.parse(String.format(AREA_FILTER, LAT_BETWEEN + LON_BETWEEN));
+        SharedRule rule = SharedRule.create("area", FilterConstraints.extract(Optional.of(filter)), l -> null);
+        RuleSet rules = new RuleSet();
+        rules.add(rule);
+
+        List<SharedRule> result = new ArrayList<>();
+        rules.candidates(position(51, 7), result::add);
+        Assert.assertThat(result, CoreMatchers.is(Collections.singletonList(rule)));
+
+        result.clear();
+        rules.candidates(position(7, 51), result::add);
+        Assert.assertThat(result.isEmpty(), CoreMatchers.is(true));
+    }
+
+    private static Optional<BoundingBox> area(String constraints) throws XmlException {
+        XmlObject filter = XmlObject.Factory.parse(String.format(AREA_FILTER, constraints));
+        return RuleSet.area(FilterConstraints.extract(Optional.of(filter)));
+    }
+
+    /**
+     * an event with the position properties of an ADS-B report
+     */
+    private static EposEvent position(double lat, double lon) {
+        MapEposEvent event = new MapEposEvent(0, 0);
+        event.setValue(RuleSet.LATITUDE_KEY, lat);
+        event.setValue(RuleSet.LONGITUDE_KEY, lon);
+        return event;
+    }
+
+    @Test
+    public void testQueryAndRemove() {
+        SpatialIndex<String> index = new SpatialIndex<>();
+        index.add("muenster", new BoundingBox(51.8, 7.4, 52.1, 7.8));
+        index.add("world", BoundingBox.WORLD);
+        index.add("elsewhere", new BoundingBox(-10, -10, -5, -5));
+
+        List<String> result = new ArrayList<>();
+        index.query(51.96, 7.62, result::add);
+        Assert.assertThat(result.size(), CoreMatchers.is(2));
+        Assert.assertThat(result.contains("muenster"), CoreMatchers.is(true));
+        Assert.assertThat(result.contains("world"), CoreMatchers.is(true));
+
+        index.remove("muenster");
+        result.clear();
+        index.query(51.96, 7.62, result::add);
+        Assert.assertThat(result, CoreMatchers.is(Collections.singletonList("world")));
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016-2016 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.subverse.engine;
+
+import java.util.Arrays;
+import org.n52.epos.event.EposEvent;
+import org.n52.epos.transform.EposTransformer;
+import org.n52.epos.transform.TransformationException;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class TransformerCacheTest {
+
+    @Test
+    public void testTransformerIsResolvedOncePerStream() throws TransformationException {
+        PrefixTransformer json = new PrefixTransformer("{", "application/json");
+        PrefixTransformer xml = new PrefixTransformer("<", "application/xml");
+        TransformerCache cache = new TransformerCache(Arrays.asList(xml, json));
+
+        for (int i = 0; i < 10; i++) {
+            EposEvent event = cache.transform("{\"hex\": \"3c6444\"}", "adsb", "application/json");
+            Assert.assertThat(event.getContentType(), CoreMatchers.is("application/json"));
+        }
+
+        Assert.assertThat(json.supportsCalls, CoreMatchers.is(1));
+        Assert.assertThat(xml.supportsCalls, CoreMatchers.is(1));
+        Assert.assertThat(cache.size(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void testFallbackWhenCachedTransformerRejects() throws TransformationException {
+        PrefixTransformer json = new PrefixTransformer("{", "application/json");
+        PrefixTransformer xml = new PrefixTransformer("<", "application/xml");
+        TransformerCache cache = new TransformerCache(Arrays.asList(json, xml));
+
+        cache.transform("{}", "mixed", "text/plain");
+        EposEvent event = cache.transform("<a/>", "mixed", "text/plain");
+
+        Assert.assertThat(event.getContentType(), CoreMatchers.is("application/xml"));
+    }
+
+    @Test
+    public void testUnsupportedStreamIsResolvedOnce() {
+        PrefixTransformer json = new PrefixTransformer("{", "application/json");
+        TransformerCache cache = new TransformerCache(Arrays.asList(json));
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                cache.transform("plain text", "text", "text/plain");
+            }
+            catch (TransformationException e) {
+                /*
+                 * not supported by the repository either
+                 */
+            }
+        }
+
+        Assert.assertThat(json.supportsCalls, CoreMatchers.is(1));
+        Assert.assertThat(cache.size(), CoreMatchers.is(1));
+    }
+
+    @Test
+    public void testRejectedMessageKeepsTransformer() throws TransformationException {
+        PrefixTransformer json = new PrefixTransformer("{", "application/json");
+        TransformerCache cache = new TransformerCache(Arrays.asList(json));
+
+        cache.transform("{}", "adsb", "application/json");
+        try {
+            cache.transform("garbage", "adsb", "application/json");
+        }
+        catch (TransformationException e) {
+            /*
+             * not supported by the repository either
+             */
+        }
+        EposEvent event = cache.transform("{}", "adsb", "application/json");
+
+        Assert.assertThat(event.getContentType(), CoreMatchers.is("application/json"));
+        Assert.assertThat(json.supportsCalls, CoreMatchers.is(1));
+    }
+
+    private static class PrefixTransformer implements EposTransformer {
+
+        private final String prefix;
+        private final String contentType;
+        private int supportsCalls;
+
+        PrefixTransformer(String prefix, String contentType) {
+            this.prefix = prefix;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public EposEvent transform(Object input, String ct) throws TransformationException {
+            if (!supportsInput(input)) {
+                throw new TransformationException("unsupported input", null);
+            }
+            return new GenericEposEvent(input, this.contentType);
+        }
+
+        @Override
+        public boolean supportsInput(Object input, String ct) {
+            this.supportsCalls++;
+            return supportsInput(input);
+        }
+
+        private boolean supportsInput(Object input) {
+            return input.toString().startsWith(this.prefix);
+        }
+
+        @Override
+        public short getPriority() {
+            return 0;
+        }
+
+    }
+
+}
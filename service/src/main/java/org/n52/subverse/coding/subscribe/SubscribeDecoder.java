@@ -28,8 +28,10 @@
  */
 package org.n52.subverse.coding.subscribe;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import javax.inject.Inject;
@@ -37,6 +39,7 @@ import javax.xml.namespace.QName;
 import net.opengis.pubsub.x10.DeliveryMethodDocument;
 import net.opengis.pubsub.x10.DeliveryMethodType;
 import net.opengis.pubsub.x10.PublicationIdentifierDocument;
+import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.XmlException;
 import org.apache.xmlbeans.XmlObject;
 import org.joda.time.DateTime;
@@ -56,6 +59,7 @@ import org.n52.subverse.coding.capabilities.filter.FilterCapabilitiesProducer;
 import org.n52.subverse.coding.capabilities.publications.Publications;
 import org.n52.subverse.coding.capabilities.publications.PublicationsProducer;
 import org.n52.subverse.delivery.DeliveryDefinition;
+import org.n52.subverse.delivery.DeliveryParameter;
 import org.n52.subverse.request.SubscribeRequest;
 import org.n52.subverse.subscription.SubscribeOptions;
 import org.n52.subverse.util.InvalidTerminationTimeException;
@@ -133,12 +137,14 @@ public class SubscribeDecoder implements Decoder<AbstractServiceRequest, String>
         }
 
         boolean useRaw = false;
+        List<DeliveryParameter> policyParameters = new ArrayList<>();
         if (subscribe.isSetSubscriptionPolicy()) {
             SubscribeDocument.Subscribe.SubscriptionPolicy policy = subscribe.getSubscriptionPolicy();
             Optional<XmlObject> useRawElem = XmlBeansHelper.findFirstChild(USE_RAW_QN, policy);
             if (useRawElem.isPresent()) {
                 useRaw = true;
             }
+            policyParameters.addAll(parsePolicyParameters(policy));
         }
 
         /*
@@ -146,6 +152,7 @@ public class SubscribeDecoder implements Decoder<AbstractServiceRequest, String>
          */
         AttributedURIType consumer = subscribe.getConsumerReference().getAddress();
         deliveryDef = new DeliveryDefinition(deliveryIdentifier, consumer.getStringValue(), pubId.get(), useRaw);
+        policyParameters.forEach(deliveryDef::addParameter);
 
         /*
         * termination time
@@ -184,7 +191,7 @@ public class SubscribeDecoder implements Decoder<AbstractServiceRequest, String>
         }
 
         /*
-        * TODO: parse deliveryParameters
+        * TODO: parse deliveryParameters (apart from the subscription policy)
         * TODO: content type is not supported yet by SOAP binding
         */
 
@@ -207,6 +214,27 @@ public class SubscribeDecoder implements Decoder<AbstractServiceRequest, String>
     }
 
 
+    /**
+     * policy elements of other namespaces than WS-N are passed to the
+     * delivery provider as parameters (e.g. batching of notifications)
+     */
+    private List<DeliveryParameter> parsePolicyParameters(XmlObject policy) {
+        List<DeliveryParameter> result = new ArrayList<>();
+        XmlCursor cur = policy.newCursor();
+        if (cur.toFirstChild()) {
+            do {
+                QName name = cur.getName();
+                if (!SubverseConstants.WS_N_NAMESPACE.equals(name.getNamespaceURI())) {
+                    String value = cur.getTextValue();
+                    result.add(new DeliveryParameter("text", name.getNamespaceURI(), name.getLocalPart(),
+                            value != null ? value.trim() : null));
+                }
+            } while (cur.toNextSibling());
+        }
+        cur.dispose();
+        return result;
+    }
+
     private String parseFilterLanguage(SubscribeDocument.Subscribe subscribe) throws InvalidParameterValueException {
         Optional<QueryExpressionType> content = extractFilterContent(subscribe);
 
@@ -29,6 +29,7 @@
 package org.n52.subverse.handler;
 
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Set;
 import javax.inject.Inject;
 import org.n52.iceland.ds.OperationHandler;
@@ -36,8 +37,12 @@ import org.n52.iceland.ds.OperationHandlerKey;
 import org.n52.iceland.exception.ows.OwsExceptionReport;
 import org.n52.iceland.ogc.ows.OwsOperation;
 import org.n52.subverse.SubverseConstants;
+import org.n52.subverse.engine.EngineOverloadedException;
 import org.n52.subverse.notify.NotificationConsumer;
+import org.n52.subverse.notify.NotificationMessage;
 import org.n52.subverse.request.NotifyRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -45,6 +50,7 @@ import org.n52.subverse.request.NotifyRequest;
  */
 public class NotifyHandler implements OperationHandler {
 
+    private static final Logger LOG = LoggerFactory.getLogger(NotifyHandler.class);
     private static final OperationHandlerKey KEY
             = new OperationHandlerKey(SubverseConstants.SERVICE,
                     SubverseConstants.OPERATION_NOTIFY);
@@ -77,8 +83,31 @@ public class NotifyHandler implements OperationHandler {
         return Collections.singleton(KEY);
     }
 
-    public void receive(NotifyRequest notifyRequest) {
-        notifyRequest.messages().forEach(m -> this.consumer.receive(m));
+    /**
+     * passes the messages of the request to the consumer, in order. If the
+     * consumer is overloaded, the remaining messages are rejected with a
+     * {@link ConsumerOverloadedFault}. Messages received before stay
+     * accepted, the fault tells how many of them there were, so a producer
+     * retrying the request can skip them.
+     *
+     * @param notifyRequest the request
+     * @throws OwsExceptionReport if the consumer is overloaded
+     */
+    public void receive(NotifyRequest notifyRequest) throws OwsExceptionReport {
+        Iterator<NotificationMessage> it = notifyRequest.messages().iterator();
+        int accepted = 0;
+        while (it.hasNext()) {
+            try {
+                this.consumer.receive(it.next());
+                accepted++;
+            } catch (EngineOverloadedException ex) {
+                LOG.warn("Notification rejected after {} accepted: {}", accepted, ex.getMessage());
+                throw new ConsumerOverloadedFault(String.format(
+                        "The notification consumer is overloaded, retry later. "
+                        + "The first %d notification message(s) of the request were accepted", accepted))
+                        .causedBy(ex);
+            }
+        }
     }
 
 }
@@ -41,6 +41,7 @@ import org.n52.iceland.exception.ows.OwsExceptionReport;
 import org.n52.subverse.coding.capabilities.filter.FilterCapabilitiesProducer;
 import org.n52.subverse.coding.capabilities.publications.PublicationsProducer;
 import org.n52.subverse.delivery.DeliveryDefinition;
+import org.n52.subverse.delivery.DeliveryParameter;
 import org.n52.subverse.request.SubscribeRequest;
 import org.n52.subverse.subscription.SubscribeOptions;
 
@@ -99,4 +100,25 @@ public class SubscribeDecoderTest {
         Assert.assertThat(termTime.isBefore(DateTime.now().plusHours(2)), CoreMatchers.is(true));
         Assert.assertThat(termTime.isAfter(DateTime.now().plusHours(1).minusMinutes(1)), CoreMatchers.is(true));
     }
+
+    @Test
+    public void testPolicyParameterDecoding() throws DecodingException, IOException {
+        SubscribeDecoder dec = new SubscribeDecoder();
+        dec.setPublicationsProducer(new PublicationsProducer().setPublicationsString("testdata|testdata"));
+        dec.setFilterProducer(new FilterCapabilitiesProducer());
+
+        URL res = getClass().getResource("subscribe_batching.xml");
+        SubscribeRequest subscribe = (SubscribeRequest) dec.decode(Resources.toString(res,
+                Charset.forName("UTF-8")));
+
+        DeliveryDefinition deliveryDef = subscribe.getOptions().getDeliveryDefinition().get();
+        Assert.assertThat(deliveryDef.isUseRaw(), CoreMatchers.is(false));
+        Assert.assertThat(deliveryDef.getParameters().size(), CoreMatchers.is(2));
+
+        DeliveryParameter maxMessages = deliveryDef.getParameters().get(0);
+        Assert.assertThat(maxMessages.getNamespace(), CoreMatchers.is("http://www.opengis.net/pubsub/1.0/soap/v1.0"));
+        Assert.assertThat(maxMessages.getElementName(), CoreMatchers.is("maxMessages"));
+        Assert.assertThat(maxMessages.getValue(), CoreMatchers.is("50"));
+        Assert.assertThat(deliveryDef.getParameters().get(1).getValue(), CoreMatchers.is("200"));
+    }
 }
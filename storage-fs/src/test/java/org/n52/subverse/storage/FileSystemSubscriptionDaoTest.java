@@ -31,9 +31,11 @@ package org.n52.subverse.storage;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.xmlbeans.XmlObject;
@@ -43,10 +45,15 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.n52.subverse.delivery.DeliveryDefinition;
 import org.n52.subverse.delivery.DeliveryEndpoint;
+import org.n52.subverse.delivery.DeliveryProvider;
+import org.n52.subverse.delivery.DeliveryProviderRepository;
 import org.n52.subverse.delivery.Streamable;
+import org.n52.subverse.delivery.streamable.StringStreamable;
+import org.n52.subverse.engine.FilterEngine;
 import org.n52.subverse.subscription.SubscribeOptions;
 import org.n52.subverse.subscription.Subscription;
 import org.n52.subverse.subscription.SubscriptionEndpoint;
+import org.n52.subverse.subscription.SubscriptionManagerImpl;
 
 /**
  *
@@ -93,6 +100,48 @@ public class FileSystemSubscriptionDaoTest {
         Assert.assertThat(list, CoreMatchers.not(CoreMatchers.hasItem(sub4)));
     }
 
+    @Test
+    public void testUnsubscribe() throws Exception {
+        FileSystemSubscriptionDao dao = new FileSystemSubscriptionDao();
+        String dir = String.format("target%stest-subscriptions-%s", System.getProperty("file.separator"),
+                UUID.randomUUID().toString());
+        dao.setStorageDirectory(dir);
+        dao.init();
+
+        List<RecordingEndpoint> created = new CopyOnWriteArrayList<>();
+        DeliveryProviderRepository providers = new DeliveryProviderRepository();
+        providers.setProviders(Collections.singletonList(new RecordingProvider(created)));
+
+        SubscriptionManagerImpl manager = new SubscriptionManagerImpl();
+        manager.setDao(dao);
+        manager.setIdProvider(() -> UUID.randomUUID().toString());
+        manager.setDeliveryProviderRepository(providers);
+        manager.setFilterEngine(new NoopFilterEngine());
+        manager.setRootPublicationIdentifier("root");
+        manager.setDeadLetterDirectory(dir + System.getProperty("file.separator") + "dead-letters");
+
+        DeliveryDefinition delDef = new DeliveryDefinition(RecordingProvider.IDENTIFIER, "http://for.you",
+                "my-pub", true);
+        SubscribeOptions options = new SubscribeOptions("my-pub", null, XmlObject.Factory.newInstance(),
+                "my-filter-lang", delDef, Collections.emptyMap(), null);
+
+        Subscription sub = manager.subscribe(options);
+        Assert.assertThat(dao.getSubscription(sub.getId()).isPresent(), CoreMatchers.is(true));
+        Assert.assertThat(created.size(), CoreMatchers.is(1));
+
+        /*
+         * the DAO returns a deserialized copy, the endpoint delivering to
+         * the consumer has to be destroyed nevertheless
+         */
+        manager.unsubscribe(sub.getId());
+        Assert.assertThat(dao.getSubscription(sub.getId()).isPresent(), CoreMatchers.is(false));
+        Assert.assertThat(created.get(0).destroyed, CoreMatchers.is(true));
+
+        sub.getEndpoint().getDeliveryEndpoint().deliver(Optional.of(new StringStreamable("late")), false);
+        Thread.sleep(100);
+        Assert.assertThat(created.get(0).received.isEmpty(), CoreMatchers.is(true));
+    }
+
     private Subscription createSubscription() {
         DeliveryDefinition delDef = new DeliveryDefinition("my-deldef", "http://for.you", "my-pub", true);
         SubscribeOptions options = new SubscribeOptions("my-id",
@@ -156,4 +205,84 @@ public class FileSystemSubscriptionDaoTest {
         }
 
     }
+
+    private static class RecordingProvider implements DeliveryProvider {
+
+        private static final String IDENTIFIER = "recording";
+        private final List<RecordingEndpoint> created;
+
+        RecordingProvider(List<RecordingEndpoint> created) {
+            this.created = created;
+        }
+
+        @Override
+        public String getIdentifier() {
+            return IDENTIFIER;
+        }
+
+        @Override
+        public String getAbstract() {
+            return IDENTIFIER;
+        }
+
+        @Override
+        public DeliveryEndpoint createDeliveryEndpoint(DeliveryDefinition def) {
+            RecordingEndpoint endpoint = new RecordingEndpoint();
+            this.created.add(endpoint);
+            return endpoint;
+        }
+
+        @Override
+        public Map<? extends String, ? extends String> getNamespacePrefixMap() {
+            return Collections.emptyMap();
+        }
+
+    }
+
+    public static class RecordingEndpoint implements DeliveryEndpoint {
+
+        private final List<Object> received = new CopyOnWriteArrayList<>();
+        private volatile boolean destroyed;
+
+        @Override
+        public void deliver(Optional<Streamable> o, boolean useRaw) {
+            this.received.add(o.get().originalObject());
+        }
+
+        @Override
+        public String getEffectiveLocation() {
+            return "recording";
+        }
+
+        @Override
+        public void destroy() {
+            this.destroyed = true;
+        }
+
+    }
+
+    private static class NoopFilterEngine implements FilterEngine {
+
+        @Override
+        public void filterMessage(Object message, String publicationId) {
+        }
+
+        @Override
+        public void filterMessage(Object message, String publicationId, String contentType) {
+        }
+
+        @Override
+        public void filterMessage(Object message, String publicationId, String contentType, Object partitionKey) {
+        }
+
+        @Override
+        public void register(Subscription result, DeliveryEndpoint deliveryEndpoint) {
+        }
+
+        @Override
+        public void removeSubscription(String subscriptionId) {
+        }
+
+    }
+
 }